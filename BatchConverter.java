@@ -0,0 +1,263 @@
+/*
+	class BatchConverter
+	converts a lot of csv files in one run (-batch), instead of starting java again for
+	every file and warming it up every time.
+
+	   java -jar csv2rdf.jar -batch <directory | glob | manifest> [-jobs n] [options]
+
+	The files are:
+	   - a directory: every .csv and .csv.gz in it (not the -config.csv files)
+	   - a glob (anything with * ? [ or { in it): the files that match, like "feeds/ups-*.csv"
+	   - otherwise a manifest: a text file with one csv file name per line (relative to the
+	     manifest), blank lines and lines starting with # are skipped
+	Each one is converted the same as on its own, to <base>.rdf (or whatever -format says)
+	next to it, with <base>-config.csv or the -config file for all of them.  Files without a
+	config are skipped (there's no one to ask the questions).
+
+	-jobs files are converted at a time (one per core by default), biggest files first, so a
+	big one doesn't get started last and hold up the end of the batch.  A config file that's
+	used by several inputs is only read once (ConfigCache).  (Each file still gets its own
+	CSVConfig built from the lines, because its header's columns get set in it.)
+
+	The workers are virtual threads when the java has them (21 and up), otherwise normal ones.
+
+	At the end there's a table of how long each file took and how fast it went, and with
+	-metrics the JSON summary of every file (ConversionMetrics) with the totals.
+*/
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.Stream;
+
+public class BatchConverter {
+
+	static class Job {
+		final String file;
+		final long size;		// bytes in (as it is on disk, so compressed for .gz)
+		String output;
+		long outputSize;
+		long nanos;
+		String error;			// why it failed, null if it didn't
+		ConversionMetrics metrics;
+
+		Job(String file, long size) {
+			this.file = file;
+			this.size = size;
+		}
+	}
+
+	private final ConvertOptions options;
+	private final ConfigCache configs;
+
+	BatchConverter(ConvertOptions options) {
+		this.options = options;
+		this.configs = new ConfigCache(options.compiledConfig);
+	}
+
+	public static void run(ConvertOptions options) throws IOException {
+		List<Path> files = findFiles(options.batch);
+		if (files.isEmpty()) {
+			System.err.println("No csv files in " + options.batch);
+			return;
+		}
+		new BatchConverter(options).convert(files);
+	}
+
+	void convert(List<Path> files) throws IOException {
+		// biggest first.  a file that isn't there (a manifest can name anything) fails on its
+		// own, the rest still get converted
+		ArrayList<Job> jobs = new ArrayList<Job>();
+		ArrayList<Job> todo = new ArrayList<Job>();
+		for (Path f : files) {
+			Job job;
+			try {
+				job = new Job(f.toString(), Files.size(f));
+				todo.add(job);
+			}
+			catch (IOException e) {
+				job = new Job(f.toString(), 0);
+				job.error = e.toString();
+				System.err.println(job.file + ": " + job.error);
+			}
+			jobs.add(job);
+		}
+		Collections.sort(jobs, (a, b) -> Long.compare(b.size, a.size));
+		Collections.sort(todo, (a, b) -> Long.compare(b.size, a.size));
+		ConcurrentLinkedQueue<Job> queue = new ConcurrentLinkedQueue<Job>(todo);
+
+		int workers = Math.max(1, Math.min(options.jobs, todo.size()));
+		System.out.println("Converting " + todo.size() + " files, " + workers + " at a time");
+		long t0 = System.nanoTime();
+		ThreadFactory factory = threadFactory();
+		Thread[] threads = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			threads[i] = factory.newThread(() -> {
+				Job job;
+				while ((job = queue.poll()) != null) convert(job);
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			try {
+				t.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted", e);
+			}
+		}
+		long nanos = System.nanoTime() - t0;
+		System.out.println(summary(jobs, nanos, workers));
+		if (options.metricsFile != null) csv2rdf.writeMetrics(options.metricsFile, json(jobs, nanos));
+	}
+
+	private void convert(Job job) {
+		long t0 = System.nanoTime();
+		try {
+			String configFile = options.configFile != null ? options.configFile : csv2rdf.configFileName(job.file);
+			CSVConfig config = configs.config(configFile);
+			job.metrics = csv2rdf.convertFile(options, job.file, config, null);
+			if (job.metrics != null) job.output = job.metrics.output;
+			if (job.output != null) job.outputSize = Files.size(Paths.get(job.output));
+		}
+		catch (Exception e) {
+			job.error = e.toString();
+		}
+		job.nanos = System.nanoTime() - t0;
+		if (job.error != null) System.err.println(job.file + ": " + job.error);
+	}
+
+	static String summary(List<Job> jobs, long nanos, int workers) {
+		StringBuilder sb = new StringBuilder();
+		long in = 0, out = 0;
+		int failed = 0;
+		sb.append(String.format("%n%10s %10s %8s %8s  %s%n", "MB in", "MB out", "secs", "MB/s", "file"));
+		for (Job j : jobs) {
+			double secs = j.nanos / 1e9;
+			if (j.error != null) {
+				failed++;
+				sb.append(String.format("%10.1f %10s %8.2f %8s  %s  FAILED: %s%n", j.size / 1e6, "", secs, "", j.file, j.error));
+				continue;
+			}
+			in += j.size;
+			out += j.outputSize;
+			sb.append(String.format("%10.1f %10.1f %8.2f %8.1f  %s%n", j.size / 1e6, j.outputSize / 1e6, secs,
+				j.size / 1e6 / Math.max(secs, 1e-9), j.file));
+		}
+		double secs = nanos / 1e9;
+		sb.append(String.format("%d files (%d failed), %.1f MB in, %.1f MB out in %.2f s, %.1f MB/s with %d jobs",
+			jobs.size(), failed, in / 1e6, out / 1e6, secs, in / 1e6 / Math.max(secs, 1e-9), workers));
+		return sb.toString();
+	}
+
+	static String json(List<Job> jobs, long nanos) {
+		// {"files": [each file's metrics, or its error], and the totals}
+		StringBuilder sb = new StringBuilder("{\n\"files\": [\n");
+		long rows = 0, rejected = 0, triples = 0, in = 0, out = 0;
+		int failed = 0;
+		for (int i = 0; i < jobs.size(); i++) {
+			Job j = jobs.get(i);
+			if (i > 0) sb.append(",\n");
+			if (j.error != null) {
+				failed++;
+				sb.append("{\"input\": ").append(ConversionMetrics.quote(j.file))
+					.append(", \"error\": ").append(ConversionMetrics.quote(j.error)).append('}');
+			} else if (j.metrics == null) {
+				sb.append("{\"input\": ").append(ConversionMetrics.quote(j.file)).append(", \"rows\": 0}");
+			} else {
+				ConversionMetrics m = j.metrics;
+				rows += m.getRowsRead();
+				rejected += m.getRowsRejected();
+				triples += m.getTriples();
+				in += m.getBytesIn();
+				out += m.getBytesOut();
+				sb.append(m.toJson());
+			}
+		}
+		sb.append(String.format(Locale.ROOT, "%n],%n\"totals\": {\"files\": %d, \"failed\": %d, \"rows\": %d, \"rejected\": %d, \"triples\": %d, "
+			+ "\"bytesIn\": %d, \"bytesOut\": %d, \"seconds\": %.3f}%n}", jobs.size(), failed, rows, rejected, triples, in, out, nanos / 1e9));
+		return sb.toString();
+	}
+
+	static List<Path> findFiles(String spec) throws IOException {
+		ArrayList<Path> files = new ArrayList<Path>();
+		Path path = Paths.get(spec);
+		if (isGlob(spec)) {
+			// walk from the part of the path before the first wildcard
+			String[] parts = spec.split("/");
+			StringBuilder base = new StringBuilder(spec.startsWith("/") ? "/" : "");
+			int depth = 0;
+			boolean wild = false;
+			for (String part : parts) {
+				if (part.length() == 0) continue;
+				if (wild || isGlob(part)) {
+					wild = true;
+					depth++;
+				} else {
+					if (base.length() > 0 && base.charAt(base.length() - 1) != '/') base.append('/');
+					base.append(part);
+				}
+			}
+			if (spec.contains("**")) depth = Integer.MAX_VALUE;
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + spec);
+			try (Stream<Path> s = Files.walk(Paths.get(base.toString()), depth)) {
+				s.filter(p -> matcher.matches(p) && Files.isRegularFile(p) && !isConfig(p)).forEach(files::add);
+			}
+		} else if (Files.isDirectory(path)) {
+			try (Stream<Path> s = Files.list(path)) {
+				s.filter(p -> isCSV(p) && Files.isRegularFile(p) && !isConfig(p)).forEach(files::add);
+			}
+		} else {
+			// a manifest
+			Path dir = path.toAbsolutePath().getParent();
+			try (BufferedReader in = Files.newBufferedReader(path)) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					line = line.trim();
+					if (line.length() == 0 || line.startsWith("#")) continue;
+					Path p = Paths.get(line);
+					files.add(p.isAbsolute() ? p : dir.resolve(p).normalize());
+				}
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	private static boolean isGlob(String s) {
+		return s.indexOf('*') >= 0 || s.indexOf('?') >= 0 || s.indexOf('[') >= 0 || s.indexOf('{') >= 0;
+	}
+
+	private static boolean isCSV(Path p) {
+		String name = p.getFileName().toString().toLowerCase();
+		return name.endsWith(".csv") || name.endsWith(".csv.gz");
+	}
+
+	private static boolean isConfig(Path p) {
+		return p.getFileName().toString().toLowerCase().endsWith("-config.csv");
+	}
+
+	static ThreadFactory threadFactory() {
+		// virtual threads if this java has them (Thread.ofVirtual().factory(), java 21),
+		// looked up by name so it still compiles and runs on 17
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			return Executors.defaultThreadFactory();
+		}
+	}
+}
@@ -0,0 +1,272 @@
+/*
+	class Benchmarks
+	times the parts of the conversion that run for every row, so we can tell whether a change
+	to CSVConfig, the writers or the row loop made things better or worse.
+
+	   java -cp csv2rdf.jar:. Benchmarks [-time <secs>] [-iterations <n>] [-rows <n>] [name...]
+
+	With names, only the benchmarks whose names start with one of them are run
+	("config" runs all the config ones).
+
+	It works the way JMH does, without needing JMH: each benchmark is run for a while to warm
+	up (so it's been compiled), then -iterations times for -time seconds each, and the results
+	are averaged with the spread (min to max) next to them.  Like JMH's gc profiler, it also
+	counts the bytes allocated per operation (the thread's allocation counter from the
+	ThreadMXBean) and how many collections there were, since allocating less is most of what
+	makes the row loop faster.
+
+	   config.small.*    CSVConfig lookups on shipments-config.csv
+	   config.large.*    the same on a made up config with CONFIG_CLASSES classes in a hierarchy
+	                     (config.*.readCompiled is making the config from CompiledConfig's form)
+	   fixAttributeName  on a mix of IDs, clean and not
+	   containsData      on a mix of values, empty, NULL and real
+	   writeAttributeData   one property into an RDFWriter that throws the bytes away
+	   convert           shipments.csv copied out to -rows rows, converted end to end (per row)
+
+	Every result goes into sink so the JIT can't decide the work isn't needed.
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Benchmarks {
+	static final int CONFIG_CLASSES = 200;
+	static final int CONFIG_PROPERTIES = 20;	// per class
+
+	static int sink;	// everything the benchmarks compute ends up in here
+
+	// one benchmark: run(n) does the operation n times (or more, if one call does a lot of
+	// them like convert) and returns how many it did
+	abstract static class Bench {
+		final String name;
+
+		Bench(String name) {
+			this.name = name;
+		}
+
+		abstract long run(int n) throws IOException;
+	}
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private double seconds = 1;
+	private int iterations = 5;
+	private int rows = 100000;
+
+	public static void main(String[] args) throws IOException {
+		Benchmarks b = new Benchmarks();
+		ArrayList<String> names = new ArrayList<String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-time")) b.seconds = Double.parseDouble(ConvertOptions.stringArg(args, ++i, args[i - 1]));
+				else if (args[i].equals("-iterations")) b.iterations = ConvertOptions.intArg(args, ++i, args[i - 1]);
+				else if (args[i].equals("-rows")) b.rows = ConvertOptions.intArg(args, ++i, args[i - 1]);
+				else if (args[i].startsWith("-")) throw new IllegalArgumentException("Unknown option " + args[i]);
+				else names.add(args[i]);
+			}
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: java -cp csv2rdf.jar:. Benchmarks [-time <secs>] [-iterations <n>] [-rows <n>] [name...]");
+			return;
+		}
+
+		List<Bench> benches = b.benchmarks();
+		System.out.println(String.format("%-34s %14s %13s %10s %12s %6s", "benchmark", "ops/s", "min - max %", "ns/op", "B/op", "gcs"));
+		for (Bench bench : benches) {
+			if (names.isEmpty() || names.stream().anyMatch(bench.name::startsWith)) System.out.println(b.measure(bench));
+		}
+		System.out.println("(sink " + sink + ")");
+	}
+
+	String measure(Bench bench) throws IOException {
+		// how many calls make about 10ms, so the clock isn't read too often
+		int n = 1;
+		while (true) {
+			long t0 = System.nanoTime();
+			bench.run(n);
+			if (System.nanoTime() - t0 > 10_000_000L || n >= 1 << 30) break;
+			n *= 2;
+		}
+
+		run(bench, n, seconds);	// warm up
+		double[] rates = new double[iterations];
+		long ops = 0, nanos = 0, bytes = 0, gcs = 0;
+		for (int i = 0; i < iterations; i++) {
+			long gc0 = gcCount(), b0 = THREADS.getCurrentThreadAllocatedBytes(), t0 = System.nanoTime();
+			long done = run(bench, n, seconds);
+			long t = System.nanoTime() - t0;
+			bytes += THREADS.getCurrentThreadAllocatedBytes() - b0;
+			gcs += gcCount() - gc0;
+			ops += done;
+			nanos += t;
+			rates[i] = done * 1e9 / t;
+		}
+		double rate = ops * 1e9 / nanos, min = rates[0], max = rates[0];
+		for (double r : rates) {
+			min = Math.min(min, r);
+			max = Math.max(max, r);
+		}
+		return String.format("%-34s %14.0f %5.1f - %-5.1f %10.1f %12.1f %6d", bench.name, rate,
+			100 * (min - rate) / rate, 100 * (max - rate) / rate, nanos / (double) ops, bytes / (double) ops, gcs);
+	}
+
+	private static long run(Bench bench, int n, double seconds) throws IOException {
+		long end = System.nanoTime() + (long) (seconds * 1e9);
+		long ops = 0;
+		do {
+			ops += bench.run(n);
+		} while (System.nanoTime() < end);
+		return ops;
+	}
+
+	private static long gcCount() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+		return n;
+	}
+
+
+	List<Bench> benchmarks() throws IOException {
+		ArrayList<Bench> list = new ArrayList<Bench>();
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));	// (reading the config prints)
+		CSVConfig small = csv2rdf.readConfigFile("shipments-config.csv");
+		System.setOut(console);
+		configBenchmarks(list, "config.small.", small);
+		configBenchmarks(list, "config.large.", largeConfig());
+
+		final String[] ids = { "75594", "INGRAM MICRO", " HB STUBBS ", "\"SYMANTEC CORP\"", "1957 SOUTH 4800 WEST",
+			"5/6/11 0:00", "G0604254", "E052078863", "JOINT WARFIGHTING CONFERENCE 2011", "AU" };
+		list.add(new Bench("fixAttributeName") {
+			long run(int n) {
+				for (int i = 0; i < n; i++) sink += csv2rdf.fixAttributeName(ids[i % ids.length]).length();
+				return n;
+			}
+		});
+		final String[] values = { "", "NULL", "75594", "null", "INTERNATIONAL AIR", "", "626.61", "NULL", "US", "Null" };
+		list.add(new Bench("containsData") {
+			long run(int n) {
+				for (int i = 0; i < n; i++) if (csv2rdf.containsData(values[i % values.length])) sink++;
+				return n;
+			}
+		});
+		final RDFWriter writer = new RDFWriter(OutputStream.nullOutputStream());
+		final String[] names = { "Carrier", "Service", "Package_num", "Ship_Date", "Weight" };
+		list.add(new Bench("writeAttributeData") {
+			long run(int n) {
+				for (int i = 0; i < n; i++) writer.writeAttributeData(names[i % names.length], values[i % values.length]);
+				return n;
+			}
+		});
+
+		final File scaled = scaledShipments(rows);
+		final List<String[]> configLines = csv2rdf.readConfigLines("shipments-config.csv");
+		list.add(new Bench("convert") {
+			long run(int n) throws IOException {
+				// per row, so this is a whole file each time whatever n is
+				PrintStream console = System.out;
+				System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+				try {
+					CSVRowReader reader = CSVRowReader.open(scaled.getPath(), false);
+					String[] header = reader.readNext().toArray();
+					csv2rdf.convert(new ConvertOptions(), scaled.getPath(), reader, header, csv2rdf.buildConfig(configLines),
+						new RDFWriter(OutputStream.nullOutputStream()));
+				}
+				finally {
+					System.setOut(console);
+				}
+				return rows;
+			}
+		});
+		return list;
+	}
+
+	private static void configBenchmarks(List<Bench> list, String prefix, final CSVConfig config) throws IOException {
+		final String[] classes = config.classes();
+		final ArrayList<CSVConfig.HeaderItem> properties = new ArrayList<CSVConfig.HeaderItem>();
+		for (String c : classes) {
+			for (String p : config.getProperties(c)) properties.add(config.getProperty(config.getClass(c).rdf_name(), p));
+		}
+		list.add(new Bench(prefix + "getProperties") {
+			long run(int n) {
+				for (int i = 0; i < n; i++) sink += config.getProperties(classes[i % classes.length]).size();
+				return n;
+			}
+		});
+		list.add(new Bench(prefix + "getClass") {
+			long run(int n) {
+				for (int i = 0; i < n; i++) sink += config.getClass(classes[i % classes.length]).column();
+				return n;
+			}
+		});
+		list.add(new Bench(prefix + "classes") {
+			long run(int n) {
+				for (int i = 0; i < n; i++) sink += config.classes().length;
+				return n;
+			}
+		});
+		list.add(new Bench(prefix + "propertyIsClass") {
+			long run(int n) {
+				for (int i = 0; i < n; i++) sink += config.propertyIsClass(properties.get(i % properties.size())).length();
+				return n;
+			}
+		});
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(b);
+		config.writeCompiled(out);
+		out.flush();
+		final ByteBuffer compiled = ByteBuffer.wrap(b.toByteArray());
+		list.add(new Bench(prefix + "readCompiled") {
+			long run(int n) {
+				for (int i = 0; i < n; i++) sink += CSVConfig.readCompiled(compiled).numClasses();
+				return n;
+			}
+		});
+	}
+
+	static CSVConfig largeConfig() {
+		// a tree of classes (each one's superclass is the one at half its number) with their
+		// own properties, and a property in each class that's another class
+		ArrayList<String[]> lines = new ArrayList<String[]>();
+		for (int c = 1; c <= CONFIG_CLASSES; c++) {
+			lines.add(new String[] { "Class_" + c, "class(C" + c + ")", c == 1 ? "all" : "c" + (c / 2) });
+			for (int p = 1; p <= CONFIG_PROPERTIES; p++) {
+				lines.add(new String[] { "Prop_" + c + "_" + p, "property(P" + c + "_" + p + ")", "c" + c });
+			}
+			if (c > 1) lines.add(new String[] { "Class_" + (c - 1), "property(Link" + c + ")", "c" + c });
+		}
+		return csv2rdf.buildConfig(lines);
+	}
+
+	static File scaledShipments(int rows) throws IOException {
+		// shipments.csv's rows over and over, with a copy number on the Invoice_ID so they
+		// aren't all the same instances
+		List<String> lines = Files.readAllLines(Paths.get("shipments.csv"), StandardCharsets.UTF_8);
+		File f = File.createTempFile("shipments-", ".csv");
+		f.deleteOnExit();
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		b.write((lines.get(0) + "\n").getBytes(StandardCharsets.UTF_8));
+		for (int i = 0; i < rows; i++) {
+			String line = lines.get(1 + i % (lines.size() - 1));
+			b.write((i / (lines.size() - 1) + "_" + line + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		try (FileOutputStream out = new FileOutputStream(f)) {
+			b.writeTo(out);
+		}
+		return f;
+	}
+}
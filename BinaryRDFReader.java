@@ -0,0 +1,180 @@
+/*
+	class BinaryRDFReader
+	reads a file written by BinaryRDFWriter and plays the calls back into another RDFWriter,
+	so the binary output can be turned into any of the text formats:
+
+	   java -cp csv2rdf.jar BinaryRDFReader [-o <file>] [-format <f>] [-base <iri>] [-graph <iri>] <file.rdfb>
+
+	The output (without -o it's the input name with the format's extension, RDF/XML by
+	default) is the same as converting the csv straight to that format.
+
+	Nothing is parsed: each term is either a number in the dictionary or new bytes, and a
+	term only becomes a String once, when it's new.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class BinaryRDFReader {
+	private final DataInputStream in;
+	private final Inflater inflater = new Inflater(true);
+	private byte[] compressed = new byte[1 << 16];
+	private byte[] block = new byte[1 << 16];
+
+	private final ArrayList<String> terms = new ArrayList<String>();	// term n is terms.get(n - 1)
+
+	public BinaryRDFReader(InputStream is) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(is, 1 << 16));
+		byte[] magic = new byte[BinaryRDFWriter.MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, BinaryRDFWriter.MAGIC)) throw new IOException("Not a binary RDF file");
+		int version = in.read();
+		if (version < 1 || version > BinaryRDFWriter.VERSION) throw new IOException("Can't read version " + version + " of the binary format");
+	}
+
+	public void copyTo(RDFWriter writer) throws IOException {
+		// all of it, startRDF to endRDF
+		writer.startRDF();
+		while (true) {
+			int flags = in.read();
+			if (flags < 0) throw new EOFException("Binary RDF file is cut short");
+			if (flags == BinaryRDFWriter.END) break;
+			if ((flags & BinaryRDFWriter.RESET_DICTIONARY) != 0) terms.clear();
+			int len = readBlock();
+			replay(len, writer);
+		}
+		writer.endRDF();
+		inflater.end();
+	}
+
+	private int readBlock() throws IOException {
+		int len = readVarint(in);
+		int n = readVarint(in);
+		if (n > compressed.length) compressed = new byte[Math.max(n, compressed.length * 2)];
+		if (len > block.length) block = new byte[Math.max(len, block.length * 2)];
+		in.readFully(compressed, 0, n);
+		inflater.reset();
+		inflater.setInput(compressed, 0, n);
+		try {
+			int got = 0;
+			while (got < len) {
+				int k = inflater.inflate(block, got, len - got);
+				if (k == 0 && (inflater.finished() || inflater.needsInput())) break;
+				got += k;
+			}
+			if (got != len) throw new IOException("Bad block in binary RDF file");
+		}
+		catch (DataFormatException e) { throw new IOException("Bad block in binary RDF file", e); }
+		return len;
+	}
+
+	private int p;	// position in block
+
+	private void replay(int limit, RDFWriter w) throws IOException {
+		p = 0;
+		while (p < limit) {
+			int op = block[p++];
+			switch (op) {
+				case BinaryRDFWriter.OP_CLASS: w.writeClassInfo(term(), term()); break;
+				case BinaryRDFWriter.OP_PROPERTY: w.writePropertyTag(term(), term(), term()); break;
+				case BinaryRDFWriter.OP_START: w.startInstance(term(), term()); break;
+				case BinaryRDFWriter.OP_CONTINUE: w.continueInstance(term()); break;
+				case BinaryRDFWriter.OP_LITERAL: w.writeAttributeData(term(), term()); break;
+				case BinaryRDFWriter.OP_RESOURCE: w.writeAttributeDataResource(term(), term()); break;
+				case BinaryRDFWriter.OP_END: w.endInstance(); break;
+				case BinaryRDFWriter.OP_TYPED: typed(w, term(), term(), term()); break;
+				default: throw new IOException("Bad record " + op + " in binary RDF file");
+			}
+		}
+	}
+
+	private static void typed(RDFWriter w, String attName, String value, String datatype) throws IOException {
+		LiteralType type = LiteralType.ofIRI(datatype);
+		if (type == null) throw new IOException("Unknown datatype " + datatype + " in binary RDF file");
+		byte[] b = value.getBytes(StandardCharsets.UTF_8);
+		w.writeTypedData(attName, b, b.length, type);
+	}
+
+	private String term() {
+		// (java evaluates arguments left to right, so the calls above read them in order)
+		int id = varint();
+		if (id > 0) return terms.get(id - 1);
+		int len = varint();
+		String s = new String(block, p, len, StandardCharsets.UTF_8);
+		p += len;
+		terms.add(s);
+		return s;
+	}
+
+	private int varint() {
+		int v = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = block[p++];
+			v |= (b & 0x7F) << shift;
+			if (b >= 0) return v;
+		}
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int v = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.readUnsignedByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return v;
+		}
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+
+	public static void main(String[] args) throws IOException {
+		ConvertOptions options;
+		try {
+			options = ConvertOptions.parse(args);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			options = null;
+		}
+		if (options == null || options.fileName.equals(ConvertOptions.INPUT_FILE)) {
+			System.err.println("usage: java -cp csv2rdf.jar BinaryRDFReader [-o <file>] [-format <f>] [-base <iri>] [-graph <iri>] <file.rdfb>");
+			return;
+		}
+
+		String format = options.format;
+		String outputFile = options.outputFile;
+		if (outputFile != null) {
+			if (format == null) format = RDFWriter.formatOf(outputFile);
+		} else {
+			if (format == null) format = "xml";
+			String name = options.fileName;
+			if (name.lastIndexOf('.') > 0) name = name.substring(0, name.lastIndexOf('.'));
+			outputFile = name + "." + RDFWriter.extensionOf(format);
+		}
+		if (format.equals("rdfb")) {
+			System.err.println("It's already binary");
+			return;
+		}
+
+		System.out.println("Writing " + outputFile);
+		BinaryRDFReader reader = new BinaryRDFReader(new FileInputStream(options.fileName));
+		try {
+			reader.copyTo(RDFWriter.create(format, new FileOutputStream(outputFile), options.base, options.graph));
+		}
+		finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,355 @@
+/*
+	class BinaryRDFWriter
+	writes a compact binary file instead of text, for loading without parsing anything.
+	BinaryRDFReader turns it back into any of the text formats.
+
+	The file records the writer calls themselves (startInstance, writeAttributeData...),
+	so reading it back through an RDFWriter gives exactly what converting straight to that
+	format would have.  Every string in a call (IDs, names, values) is a term, and terms go
+	through a dictionary: the first time a term is seen it is written out and gets the next
+	number, after that it's just the number.  So "AIR DEFERRED" or a country code costs a
+	byte or two each time instead of the whole string.
+
+	   file:    "RDFB" version
+	            blocks
+	            END
+	   block:   flags  varint(length)  varint(compressed length)  deflated records
+	            (flags RESET_DICTIONARY: forget all the terms before this block)
+	   record:  op  term...
+	   term:    varint(number), or 0 varint(length) UTF-8 bytes for a new term
+	   varint:  7 bits a byte, low bits first, high bit set if more bytes follow
+
+	Records are collected into blocks of about a megabyte and each block is deflated, which
+	squeezes out what's left (mostly the instance IDs, which are all new terms).
+
+	The dictionary is bounded: when it has MAX_TERMS terms or MAX_BYTES of them it is
+	cleared at the next block, so a file with millions of unique IDs doesn't keep them all
+	in memory, on either side.
+
+	With -threads the fragment writers just write the records with every term spelled out;
+	the dictionary lookups are done when the fragments are copied in, in order, so the file
+	is the same as from one thread.
+*/
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+public class BinaryRDFWriter extends RDFWriter {
+	static final byte[] MAGIC = { 'R', 'D', 'F', 'B' };
+	static final int VERSION = 2;	// 2 added OP_TYPED (1 files are still read)
+
+	// ops, one per writer call
+	static final int OP_CLASS = 1;		// className superclass
+	static final int OP_PROPERTY = 2;	// attributeName className rangeType
+	static final int OP_START = 3;		// id className
+	static final int OP_CONTINUE = 4;	// id
+	static final int OP_LITERAL = 5;	// attName attData
+	static final int OP_RESOURCE = 6;	// attName attData
+	static final int OP_END = 7;
+	static final int OP_TYPED = 8;		// attName attData datatype IRI
+
+	static final int RESET_DICTIONARY = 1;	// block flags
+	static final int END = 0xFF;			// instead of the flags of another block
+
+	static final int MAX_TERMS = 1 << 20;
+	static final int MAX_BYTES = 64 << 20;
+
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	private final boolean fragment;	// just collecting spelled out records for writeFragment
+	private final ByteOut records;	// spelled out records not encoded yet
+	private ByteOut block;				// encoded records for the current block
+	private TermDictionary dictionary;
+	private boolean resetNext;
+	private Deflater deflater;
+	private byte[] compressed;
+
+	public BinaryRDFWriter(OutputStream os) {
+		super(os);
+		fragment = false;
+		records = new ByteOut(64 * 1024);
+		block = new ByteOut(BLOCK_SIZE + 64 * 1024);
+		dictionary = new TermDictionary();
+		deflater = new Deflater(Deflater.BEST_SPEED, true);
+		compressed = new byte[BLOCK_SIZE];
+	}
+
+	protected BinaryRDFWriter(ByteOut buffer) {
+		super(buffer);
+		fragment = true;
+		records = buffer;
+	}
+
+	public RDFWriter fragmentWriter(ByteOut buffer) {
+		return new BinaryRDFWriter(buffer);
+	}
+
+	public void writeFragment(byte[] b) {
+		encodePending();	// anything written before it has to come first
+		encodeRecords(b, b.length);
+	}
+
+	public void startRDF() {
+		out.write(MAGIC);
+		out.write((byte) VERSION);
+	}
+
+	public void endRDF() {
+		encodePending();
+		flushBlock();
+		out.write((byte) END);
+		out.close();
+		deflater.end();
+	}
+
+	public void abort() {
+		super.abort();
+		if (deflater != null) deflater.end();
+	}
+
+	public void writeClassInfo(String className, String superclass) {
+		record(OP_CLASS);
+		term(className);
+		term(superclass);
+	}
+
+	public void writePropertyTag(String attributeName, String className, String rangeType) {
+		record(OP_PROPERTY);
+		term(attributeName);
+		term(className);
+		term(rangeType);
+	}
+
+	public void startInstance(String id, String className) {
+		record(OP_START);
+		term(id);
+		term(className);
+	}
+
+	public void continueInstance(String id) {
+		record(OP_CONTINUE);
+		term(id);
+	}
+
+	public void startInstance(IdCache.Entry id, String className) {
+		startInstance(id.id, className);	// the terms are encoded here anyway
+	}
+
+	public void continueInstance(IdCache.Entry id) {
+		continueInstance(id.id);
+	}
+
+	public void writeAttributeDataResource(String attName, IdCache.Entry attData) {
+		writeAttributeDataResource(attName, attData.id);
+	}
+
+	public void endInstance() {
+		record(OP_END);
+	}
+
+	public void writeAttributeData(String attName, String attData) {
+		record(OP_LITERAL);
+		term(attName);
+		term(attData);
+	}
+
+	public void writeTypedData(String attName, byte[] value, int length, LiteralType type) {
+		record(OP_TYPED);
+		term(attName);
+		term(value, length);
+		term(type.iri);
+	}
+
+	public void writeAttributeDataResource(String attName, String attData) {
+		record(OP_RESOURCE);
+		term(attName);
+		term(attData);
+	}
+
+	private void record(int op) {
+		// the records are encoded a batch at a time, not one by one
+		if (!fragment && records.size() >= 32 * 1024) encodePending();
+		records.write((byte) op);
+	}
+
+	private void term(String s) {
+		// spelled out: length and UTF-8 bytes
+		int start = records.size();
+		records.write(s);
+		spelledOut(start);
+	}
+
+	private void term(byte[] b, int length) {
+		// (already UTF-8)
+		int start = records.size();
+		records.write(b, 0, length);
+		spelledOut(start);
+	}
+
+	private void spelledOut(int start) {
+		// put the length in front of the term's bytes, from start to the end of records
+		int len = records.size() - start;
+		if (len < 0x80) {
+			// the usual case, make room for the length byte in front
+			records.write((byte) 0);
+			byte[] b = records.buffer();
+			System.arraycopy(b, start, b, start + 1, len);
+			b[start] = (byte) len;
+		} else {
+			byte[] b = Arrays.copyOfRange(records.buffer(), start, start + len);
+			records.truncate(start);
+			writeVarint(records, len);
+			records.write(b);
+		}
+	}
+
+	private void encodePending() {
+		if (records.size() == 0) return;
+		encodeRecords(records.buffer(), records.size());
+		records.reset();
+	}
+
+	private void encodeRecords(byte[] b, int limit) {
+		// spelled out records -> dictionary numbers, into the block
+		int p = 0;
+		while (p < limit) {
+			if (dictionary.full()) {
+				flushBlock();
+				dictionary.clear();
+				resetNext = true;
+			}
+			int op = b[p++];
+			block.write((byte) op);
+			for (int n = termCount(op); n > 0; n--) {
+				int len = 0;
+				for (int shift = 0; ; shift += 7) {
+					int v = b[p++];
+					len |= (v & 0x7F) << shift;
+					if (v >= 0) break;
+				}
+				int id = dictionary.add(b, p, len);
+				if (id > 0) {
+					writeVarint(block, id);
+				} else {
+					block.write((byte) 0);
+					writeVarint(block, len);
+					block.write(b, p, len);
+				}
+				p += len;
+			}
+			if (block.size() >= BLOCK_SIZE) flushBlock();
+		}
+	}
+
+	static int termCount(int op) {
+		switch (op) {
+			case OP_CLASS: return 2;
+			case OP_PROPERTY: return 3;
+			case OP_START: return 2;
+			case OP_CONTINUE: return 1;
+			case OP_LITERAL: return 2;
+			case OP_RESOURCE: return 2;
+			case OP_END: return 0;
+			case OP_TYPED: return 3;
+			default: throw new IllegalStateException("Bad record " + op);
+		}
+	}
+
+	private void flushBlock() {
+		int len = block.size();
+		if (len == 0) return;
+		deflater.reset();
+		deflater.setInput(block.buffer(), 0, len);
+		deflater.finish();
+		int n = 0;
+		while (!deflater.finished()) {
+			if (n == compressed.length) compressed = Arrays.copyOf(compressed, n * 2);
+			n += deflater.deflate(compressed, n, compressed.length - n);
+		}
+		out.write((byte) (resetNext ? RESET_DICTIONARY : 0));
+		writeVarint(out, len);
+		writeVarint(out, n);
+		out.write(compressed, 0, n);
+		block.reset();
+		resetNext = false;
+	}
+
+	static void writeVarint(ByteOut o, int v) {
+		while ((v & ~0x7F) != 0) {
+			o.write((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		o.write((byte) v);
+	}
+
+
+	/*
+		the terms seen so far, looked up by their bytes (no Strings made).
+		Open addressing on the hash, the bytes of all the terms are in one array.
+	*/
+	static final class TermDictionary {
+		private int[] table = new int[1 << 12];	// term number, 0 = empty
+		private int[] hashes = new int[1024];		// by term number
+		private int[] starts = new int[1024];
+		private int[] lengths = new int[1024];
+		private byte[] bytes = new byte[1 << 16];
+		private int used;	// bytes
+		private int size;	// terms
+
+		boolean full() {
+			return size >= MAX_TERMS || used >= MAX_BYTES;
+		}
+
+		void clear() {
+			Arrays.fill(table, 0);
+			size = 0;
+			used = 0;
+		}
+
+		int add(byte[] b, int off, int len) {
+			// the term's number if it's already here, otherwise adds it and returns 0
+			// (the reader numbers new terms the same way, in the order they come)
+			int h = hash(b, off, len);
+			int mask = table.length - 1;
+			int i = h & mask;
+			int id;
+			while ((id = table[i]) != 0) {
+				if (hashes[id] == h && lengths[id] == len
+						&& Arrays.equals(bytes, starts[id], starts[id] + len, b, off, off + len)) return id;
+				i = (i + 1) & mask;
+			}
+			id = ++size;
+			if (id == hashes.length) {
+				hashes = Arrays.copyOf(hashes, id * 2);
+				starts = Arrays.copyOf(starts, id * 2);
+				lengths = Arrays.copyOf(lengths, id * 2);
+			}
+			if (used + len > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + len));
+			System.arraycopy(b, off, bytes, used, len);
+			hashes[id] = h;
+			starts[id] = used;
+			lengths[id] = len;
+			used += len;
+			table[i] = id;
+			if (size * 2 > table.length) rehash();
+			return 0;
+		}
+
+		private void rehash() {
+			table = new int[table.length * 2];
+			int mask = table.length - 1;
+			for (int id = 1; id <= size; id++) {
+				int i = hashes[id] & mask;
+				while (table[i] != 0) i = (i + 1) & mask;
+				table[i] = id;
+			}
+		}
+
+		private static int hash(byte[] b, int off, int len) {
+			int h = len;
+			for (int i = off; i < off + len; i++) h = 31 * h + b[i];
+			return h ^ (h >>> 16);
+		}
+	}
+}
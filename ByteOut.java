@@ -0,0 +1,190 @@
+/*
+	class ByteOut
+	a buffered UTF-8 byte output for the RDF writers.
+
+	Out goes through a PrintWriter with autoflush, and printf parses the format string
+	and flushes on every call, so writing a big file was one system call per line.
+	ByteOut keeps one large byte array, encodes Strings into it directly (no Charset
+	encoder, no temporary byte arrays) and only writes to the underlying stream when
+	the buffer is full or when flush/close is called.
+	Fixed pieces of text can be encoded once with encode() and copied in with write(byte[]).
+
+	Without a stream (ByteOut(int)) the buffer just grows, which is how the parallel
+	pipeline renders a batch of rows in memory before it is written out in order.
+*/
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class ByteOut {
+	public static final int DEFAULT_SIZE = 256 * 1024;
+
+	private final OutputStream os;	// null if we're just collecting bytes in memory
+	private byte[] buf;
+	private int count;	// number of bytes in buf waiting to be written
+	private long written;		// bytes passed on to os so far, and how long that took
+	private long writeNanos;
+
+	public ByteOut(OutputStream os) {
+		this(os, DEFAULT_SIZE);
+	}
+
+	public ByteOut(OutputStream os, int size) {
+		this.os = os;
+		this.buf = new byte[size];
+	}
+
+	public ByteOut(int size) {
+		// in memory only, grows as needed
+		this.os = null;
+		this.buf = new byte[size];
+	}
+
+	public static byte[] encode(String s) {
+		// for the fixed pieces of the output, do this once and keep the bytes
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	public void write(byte[] b) {
+		write(b, 0, b.length);
+	}
+
+	public void write(byte[] b, int off, int len) {
+		if (len > buf.length - count) {
+			if (os == null) grow(len);
+			else flushBuffer();
+			if (len > buf.length - count) {
+				// too big to be worth copying, send it straight through
+				writeThrough(b, off, len);
+				return;
+			}
+		}
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+	}
+
+	public void write(byte b) {
+		if (count == buf.length) {
+			if (os == null) grow(1);
+			else flushBuffer();
+		}
+		buf[count++] = b;
+	}
+
+	public void write(String s) {
+		int len = s.length();
+		if (len * 3 > buf.length - count) {
+			if (os == null) grow(len * 3);
+			else flushBuffer();
+			if (len * 3 > buf.length - count) {
+				// very long value, let the String do the work
+				byte[] b = encode(s);
+				writeThrough(b, 0, b.length);
+				return;
+			}
+		}
+		// there's room for the worst case (3 bytes per char) so no checks in the loop
+		byte[] b = buf;
+		int n = count;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				b[n++] = (byte) c;
+			} else if (c < 0x800) {
+				b[n++] = (byte) (0xC0 | (c >> 6));
+				b[n++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				// a surrogate pair is two chars and four bytes, still fits in the worst case
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				b[n++] = (byte) (0xF0 | (cp >> 18));
+				b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				b[n++] = (byte) (0x80 | (cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				b[n++] = (byte) '?';	// unpaired surrogate, same as the String encoder
+			} else {
+				b[n++] = (byte) (0xE0 | (c >> 12));
+				b[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				b[n++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		count = n;
+	}
+
+	public int size() { return count; }
+
+	public long written() { return written; }
+	public long writeNanos() { return writeNanos; }
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf, count);
+	}
+
+	public byte[] buffer() {
+		// the bytes themselves (the first size() of them), for reading them back in place
+		return buf;
+	}
+
+	public void truncate(int size) {
+		// forget everything after the first size bytes (in memory use)
+		count = size;
+	}
+
+	public void reset() {
+		// forget what's in the buffer (in memory use)
+		count = 0;
+	}
+
+	public void flush() {
+		flushBuffer();
+		if (os == null) return;
+		try {
+			os.flush();
+		}
+		catch (IOException e) { throw new UncheckedIOException(e); }
+	}
+
+	public void close() {
+		flushBuffer();
+		if (os == null) return;
+		try {
+			os.close();
+		}
+		catch (IOException e) { throw new UncheckedIOException(e); }
+	}
+
+	public void abort() {
+		// a failed conversion: drop what's waiting and close the stream without finishing it
+		// (gzip is left without its trailer).  Doesn't throw, it's on the way out of an error.
+		count = 0;
+		if (os != null) ParallelGzipOutputStream.abort(os);
+	}
+
+	private void grow(int needed) {
+		buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + needed));
+	}
+
+	private void flushBuffer() {
+		if (count > 0 && os != null) {
+			writeThrough(buf, 0, count);
+			count = 0;
+		}
+	}
+
+	private void writeThrough(byte[] b, int off, int len) {
+		ConversionEvents.WriterFlush event = new ConversionEvents.WriterFlush();
+		event.begin();
+		long t0 = System.nanoTime();
+		try {
+			os.write(b, off, len);
+		}
+		catch (IOException e) { throw new UncheckedIOException(e); }
+		written += len;
+		writeNanos += System.nanoTime() - t0;
+		event.bytes = len;
+		event.commit();
+	}
+}
@@ -11,6 +11,22 @@
 	CSVConfig stores classes and properties
 	and can relate them to which column they represent in a CSV file
 	
+   26.10.18 a property can have a datatype (LiteralType, the 4th column of its line), kept in
+	         HeaderProperty.type and written back out by toString (so writeToFile keeps it).
+   26.10.18 writeCompiled/readCompiled: the whole config as it is after compile() (classes,
+	         order, inherited properties, csv names) in a compact binary form, for CompiledConfig's
+	         sidecar file.  Reading it back is just making the objects, nothing is looked up or
+	         worked out again.  The columns aren't in it, they come from each csv's header.
+   26.10.18 for configs with thousands of classes and properties: the classes are numbered
+	         as they're added and looked up (case insensitive) in a table of their own, without
+	         making a lowercase copy of the name.  The first time the order or the properties are
+	         needed (and again after anything changes) compile() works out each class's superclass
+	         as an int, the class order in one pass (each class after its ancestors, otherwise in
+	         the same order as before) and each class's properties with the inherited ones, which
+	         getProperties and getPropertyItems hand out from then on.  A class that ends up its
+	         own superclass is an error now, instead of going round forever.
+	         (the order used to miss superclasses whose names aren't all lowercase)
+
    12.09.25	  FIX class order list for more than one superclass (e.g. C subclass of B subclass of A)
 	         -> have to wait and put together classOrder at the end - if add place holders for C and B
 	            before we add A ends up out of order in the end.
@@ -62,19 +78,27 @@
 import au.com.bytecode.opencsv.CSVReader;
 import au.com.bytecode.opencsv.CSVWriter;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 
 public class CSVConfig {
 	private Map<String, HeaderClass> classes;	// list of the classes we found and the properties within them
-	private ArrayList<String> classOrder;  // ordered list with superclasses before subclasses.
+	private ArrayList<HeaderClass> classList;	// the same classes by number (HeaderClass.index)
+	private int[] classTable;	// open addressing on the lowercase name's hash, index + 1 (0 = empty)
+	private HeaderClass[] classOrder;  // ordered list with superclasses before subclasses (null = compile again)
+	private String[] classOrderNames;
 	
 	                                                 // (one column can be both a property and a class)
 	private Map<String, HeaderClass> csvClasses ;    // maps the csv name to a class
 	private Map<String, HeaderProperty> csvProperties ;    // maps the csv name to a property
+	int skipped;	// config lines that were ignored (a config with any isn't compiled, see CompiledConfig)
 	
 																  
 	 
@@ -116,6 +140,7 @@ public class CSVConfig {
 
 	static class HeaderProperty extends HeaderItem {
 		String class_name;	// the class I am a property of
+		LiteralType type;	// what the values are, null for plain strings
 	
 		public HeaderProperty(String csv_name, String rdf_name, String class_name) {
 			super(csv_name, rdf_name, -1);
@@ -124,11 +149,23 @@ public class CSVConfig {
 		
 		public String itemType() { return "property"; }	
 		public String className() {return class_name; }	
+		public LiteralType type() { return type; }
+
+		public String toString() {
+			if (type == null) return super.toString();
+			return super.toString() + "," + type.spec();
+		}
 	}
 	
 	static class HeaderClass extends HeaderItem {
 		String superClassName;
 		Map<String,HeaderProperty> properties;	
+		String key;			// lowercase rdf_name, what it's looked up by
+		int index;			// where it is in classList
+		int parent = -1;	// index of the superclass, -1 if none (set by compile)
+		String[] allNames;				// property names including inherited ones, getProperties order (compile)
+		HeaderProperty[] allProperties;	// the property each of those names means for this class
+		List<String> allNameList;
 
 		public HeaderClass(String csv_name, String rdf_name, String superClassName) {
 			// won't know the properties or the csv_column when creating
@@ -163,6 +200,8 @@ public class CSVConfig {
 	public CSVConfig () {
 		// no parameters, just initialize an empty configuration structure
 		classes = new HashMap<String, HeaderClass>();   // indexed by name
+		classList = new ArrayList<HeaderClass>();
+		classTable = new int[16];
 		classOrder = null;       // sorted by hierarchy, create when needed
 		csvClasses = new HashMap<String, HeaderClass>();   // indexed by csv_name
 		csvProperties = new HashMap<String, HeaderProperty>();   // indexed by csv_name
@@ -201,79 +240,250 @@ public class CSVConfig {
 	
    
 
-	private void addInClassOrder(String key_name) {
-	         // now figure out its order for classOrder
-	      
-	   if (classOrder == null)
-	      classOrder = new ArrayList<String>();
-	      
-      int target = -1;   // location to put this class
-
-      for (int i = 0; i < classOrder.size(); i++) {   // go through classes and put this one in the right place
-         String thisEntry = classOrder.get(i);
-         if (isAncestorOf(thisEntry, key_name))  {  
-            // everything before this is "less than" or "equal to" us.  
-            if (DEBUG) System.out.println(key_name + " is an ancestor of " + thisEntry + " : " + i);
-            target = i;
-            break;   // found where to put it
-         }
-         
-      }
-      if (target == -1) {
-         target = classOrder.size();   // never found a subclass, just put us at the end.
-         if (DEBUG) System.out.println(key_name + " goes at end : " + target);
-      }
-    
-      classOrder.add(target, key_name);   
+	private void compile() {
+		// work out everything that depends on the whole config, once.
+		// superclasses as ints first
+		for (HeaderClass c : classList) {
+			HeaderClass s = getClass(c.superClassName());
+			c.parent = s != null ? s.index : -1;
+		}
+
+		// the order: for each class (in the map's order, like it always was) its ancestors that
+		// aren't placed yet from the top down, then itself.  that's the same as putting each one
+		// in front of the first of its subclasses already in the list, in one pass.
+		int n = classList.size();
+		HeaderClass[] order = new HeaderClass[n];
+		byte[] placed = new byte[n];	// 0 no, 1 on the way up from the class we're placing, 2 yes
+		int[] path = new int[n];
+		int count = 0;
+		for (HeaderClass c : classes.values()) {
+			int depth = 0;
+			int i = c.index;
+			while (i >= 0 && placed[i] == 0) {
+				placed[i] = 1;
+				path[depth++] = i;
+				i = classList.get(i).parent;
+			}
+			if (i >= 0 && placed[i] == 1)
+				throw new IllegalArgumentException("Class " + classList.get(i).rdf_name() + " is its own superclass (or its superclass's subclass)");
+			while (depth > 0) {
+				i = path[--depth];
+				placed[i] = 2;
+				order[count++] = classList.get(i);
+			}
+		}
 
+		// the properties of each class with the inherited ones after them (superclasses come first,
+		// so theirs are done already).  a name in both means this class's property, like getProperty
+		for (HeaderClass c : order) {
+			HeaderClass sup = c.parent >= 0 ? classList.get(c.parent) : null;
+			int own = c.properties.size();
+			int inherited = sup != null ? sup.allNames.length : 0;
+			String[] names = new String[own + inherited];
+			HeaderProperty[] props = new HeaderProperty[own + inherited];
+			int k = 0;
+			for (Map.Entry<String, HeaderProperty> e : c.properties.entrySet()) {
+				names[k] = e.getKey();
+				props[k++] = e.getValue();
+			}
+			for (int i = 0; i < inherited; i++) {
+				HeaderProperty mine = c.properties.get(sup.allNames[i]);
+				names[k] = sup.allNames[i];
+				props[k++] = mine != null ? mine : sup.allProperties[i];
+			}
+			c.allNames = names;
+			c.allProperties = props;
+			c.allNameList = Collections.unmodifiableList(Arrays.asList(names));
+		}
+
+		String[] orderNames = new String[n];
+		for (int i = 0; i < n; i++) orderNames[i] = order[i].key;
+		classOrderNames = orderNames;
+		classOrder = order;
+	}
+
+	private void changed() {
+		// compile again next time
+		classOrder = null;
 	}
 
+	HeaderClass[] classOrder() {
+		// (the plan's use) the classes themselves in hierarchy order, not to be changed
+		if (classOrder == null) compile();
+		return classOrder;
+	}
 
 	public String[] classes() { 
 	   // generate a list sorted by class hierarchy
-	   
-	   
-	   if (classOrder == null) {
-	      // generate an ordered list from the set of classes
-	      classOrder = new ArrayList<String>();
-	      
-	      for (String s : classes.keySet()) {
-            if (DEBUG) System.out.println("(" + s + ")" );
-
-	         addInClassOrder(s);
-	      }
-	   }
-	   
-		return  classOrder.toArray(new String[classOrder.size()]); 	// the names of the classes in hierarchy order */
-		
+	   if (classOrder == null) compile();
+		return classOrderNames.clone(); 	// the names of the classes in hierarchy order */
 	}
 	
 	
 	
-	public ArrayList<String> getProperties(String className) {
+	public List<String> getProperties(String className) {
 	   // return ALL the properties associated with the class
 	   // this includes properties inherited from its superclass(es)
-	   
-	   ArrayList<String> l = new ArrayList<String>();  // build a list to return
+	   // (worked out once, the list can't be changed)
 		HeaderClass c = getClass(className);
-		while (c != null) {
-	      for (String s : c.properties()) {
-	         l.add(s);
-	      }
-         c = getClass(c.superClassName());   
-		} 
-		
-		return l;   // if no properties, this will be empty.
+		if (c == null) return Collections.emptyList();
+		if (classOrder == null) compile();
+		return c.allNameList;   // if no properties, this will be empty.
 	}
 	
+	public HeaderProperty[] getPropertyItems(String className) {
+		// the property for each name in getProperties (what getProperty would find), same order.
+		// don't change it
+		HeaderClass c = getClass(className);
+		if (c == null) return new HeaderProperty[0];
+		if (classOrder == null) compile();
+		return c.allProperties;
+	}
+	
+	public void writeCompiled(DataOutputStream out) throws IOException {
+		// everything but the columns, compiled.  strings are written once and referred to by number:
+		//    strings     count, then (UTF-8 length, bytes) each
+		//    properties  count, then (csv_name, rdf_name, class_name, type spec or "") each
+		//    classes     count, then for each in classList order: csv_name, rdf_name, superClassName,
+		//                key, parent, own properties (count, then name, property), all properties
+		//                (the same for allNames/allProperties)
+		//    order       class numbers, superclasses first
+		//    csvClasses, csvProperties   count, then (csv_name, class or property number)
+		// all ints, big endian
+		HeaderClass[] order = classOrder();
+		Map<String, Integer> strings = new HashMap<String, Integer>();
+		ArrayList<String> stringList = new ArrayList<String>();
+		IdentityHashMap<HeaderProperty, Integer> props = new IdentityHashMap<HeaderProperty, Integer>();
+		ArrayList<HeaderProperty> propList = new ArrayList<HeaderProperty>();
+		for (HeaderClass c : classList) {
+			for (HeaderProperty p : c.properties.values()) number(props, propList, p);
+		}
+		for (HeaderProperty p : csvProperties.values()) number(props, propList, p);
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream d = new DataOutputStream(body);
+		d.writeInt(propList.size());
+		for (HeaderProperty p : propList) {
+			d.writeInt(string(strings, stringList, p.csv_name));
+			d.writeInt(string(strings, stringList, p.rdf_name));
+			d.writeInt(string(strings, stringList, p.class_name));
+			d.writeInt(string(strings, stringList, p.type != null ? p.type.spec() : ""));
+		}
+		d.writeInt(classList.size());
+		for (HeaderClass c : classList) {
+			d.writeInt(string(strings, stringList, c.csv_name));
+			d.writeInt(string(strings, stringList, c.rdf_name));
+			d.writeInt(string(strings, stringList, c.superClassName));
+			d.writeInt(string(strings, stringList, c.key));
+			d.writeInt(c.parent);
+			d.writeInt(c.properties.size());
+			for (Map.Entry<String, HeaderProperty> e : c.properties.entrySet()) {
+				d.writeInt(string(strings, stringList, e.getKey()));
+				d.writeInt(props.get(e.getValue()));
+			}
+			d.writeInt(c.allNames.length);
+			for (int i = 0; i < c.allNames.length; i++) {
+				d.writeInt(string(strings, stringList, c.allNames[i]));
+				d.writeInt(props.get(c.allProperties[i]));
+			}
+		}
+		for (HeaderClass c : order) d.writeInt(c.index);
+		d.writeInt(csvClasses.size());
+		for (Map.Entry<String, HeaderClass> e : csvClasses.entrySet()) {
+			d.writeInt(string(strings, stringList, e.getKey()));
+			d.writeInt(e.getValue().index);
+		}
+		d.writeInt(csvProperties.size());
+		for (Map.Entry<String, HeaderProperty> e : csvProperties.entrySet()) {
+			d.writeInt(string(strings, stringList, e.getKey()));
+			d.writeInt(props.get(e.getValue()));
+		}
+		d.flush();
+
+		out.writeInt(stringList.size());
+		for (String str : stringList) {
+			byte[] b = str.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+		body.writeTo(out);
+	}
+
+	private static int string(Map<String, Integer> strings, ArrayList<String> list, String s) {
+		Integer n = strings.get(s);
+		if (n == null) {
+			n = list.size();
+			strings.put(s, n);
+			list.add(s);
+		}
+		return n;
+	}
+
+	private static void number(IdentityHashMap<HeaderProperty, Integer> props, ArrayList<HeaderProperty> list, HeaderProperty p) {
+		if (!props.containsKey(p)) {
+			props.put(p, list.size());
+			list.add(p);
+		}
+	}
+
+	public static CSVConfig readCompiled(ByteBuffer compiled) {
+		// a new config from what writeCompiled wrote (compiled isn't moved, so it can be read again,
+		// by more than one thread).  a buffer that isn't one throws a RuntimeException of some kind
+		ByteBuffer b = compiled.duplicate();
+		String[] s = new String[b.getInt()];
+		for (int i = 0; i < s.length; i++) {
+			byte[] a = new byte[b.getInt()];
+			b.get(a);
+			s[i] = new String(a, StandardCharsets.UTF_8);
+		}
+		HeaderProperty[] props = new HeaderProperty[b.getInt()];
+		for (int i = 0; i < props.length; i++) {
+			props[i] = new HeaderProperty(s[b.getInt()], s[b.getInt()], s[b.getInt()]);
+			props[i].type = LiteralType.parse(s[b.getInt()]);
+		}
+
+		CSVConfig config = new CSVConfig();
+		int n = b.getInt();
+		for (int i = 0; i < n; i++) {
+			HeaderClass c = new HeaderClass(s[b.getInt()], s[b.getInt()], s[b.getInt()]);
+			c.key = s[b.getInt()];
+			c.index = i;
+			c.parent = b.getInt();
+			config.classes.put(c.key, c);	// same order as they were added, so the map comes out the same
+			config.classList.add(c);
+			config.addToTable(c);
+			for (int k = b.getInt(); k > 0; k--) c.properties.put(s[b.getInt()], props[b.getInt()]);
+			String[] names = new String[b.getInt()];
+			HeaderProperty[] all = new HeaderProperty[names.length];
+			for (int k = 0; k < names.length; k++) {
+				names[k] = s[b.getInt()];
+				all[k] = props[b.getInt()];
+			}
+			c.allNames = names;
+			c.allProperties = all;
+			c.allNameList = Collections.unmodifiableList(Arrays.asList(names));
+		}
+		HeaderClass[] order = new HeaderClass[n];
+		String[] orderNames = new String[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = config.classList.get(b.getInt());
+			orderNames[i] = order[i].key;
+		}
+		for (int k = b.getInt(); k > 0; k--) config.csvClasses.put(s[b.getInt()], config.classList.get(b.getInt()));
+		for (int k = b.getInt(); k > 0; k--) config.csvProperties.put(s[b.getInt()], props[b.getInt()]);
+		config.classOrderNames = orderNames;
+		config.classOrder = order;
+		return config;
+	}
+
 	public int numClasses() {
 		return classes.size();
 	}
 	
 	public String superClassOf(HeaderClass c) {
 		if (c != null) {
-		   HeaderClass s = getClass(c.superClassName());
-		   if (s != null) return s.rdf_name();    // make sure we get the accurate name
+		   if (classOrder == null) compile();
+		   if (c.parent >= 0) return classList.get(c.parent).rdf_name();    // make sure we get the accurate name
 		   else return "";   // we may not have a superclass.
 		} 
 		
@@ -286,33 +496,15 @@ public class CSVConfig {
 	   return superClassOf(c);
 	}
 	
-	private Set<String> ancestorsOf(String className) {
-	   HashSet<String> a = new HashSet<String>();
-	   
-	   HeaderClass c = getClass(className);
-	   if (c != null) {
-	      c = getClass(c.superClassName()); // first ancestor, if any
-	      while (c != null) {
-	         a.add(c.rdf_name()); // add to the set
-	         c = getClass(c.superClassName());   // up the chain
-	      }
-	      
-	   }
-	   
-	   return a;
-	
-	}
-	
 	public Boolean isAncestorOf(String className, String ancestorName) {
 	   // check if the class named ancestorName is anywhere in the superclass list of className
-	   
-	   Set<String> a = ancestorsOf(className);
-	   if (DEBUG) {
-	     // System.out.println("Ancestors of " + className + ": " + a);
+	   HeaderClass c = getClass(className);
+	   if (c == null) return false;
+	   if (classOrder == null) compile();
+	   for (int i = c.parent; i >= 0; i = classList.get(i).parent) {
+	      if (classList.get(i).rdf_name().equals(ancestorName)) return true;
 	   }
-	   return a.contains(ancestorName);
-
-	
+	   return false;
 	}
 	
 	public String propertyIsClass(HeaderItem p) {
@@ -372,8 +564,7 @@ public class CSVConfig {
 		// so this wouldn't work.
 
 		if (DEBUG) System.out.println("	>>Adding class:     " + csv_name + "(" + rdf_name + ")" + " subclass of " + superclass_name);
-		String key_name = new String(rdf_name);
-		key_name = key_name.toLowerCase();  // key name always lower case for lookups
+		String key_name = lowerCase(rdf_name);  // key name always lower case for lookups
 		                                             // RH 2012.09.24
 		HeaderClass c = getClass(key_name);	
 
@@ -388,6 +579,7 @@ public class CSVConfig {
 
 			if ((superclass_name.length() > 0) && !superclass_name.equals(c.superClassName())) {
 				c.setSuperClassName(superclass_name);
+				changed();
 		   }
 			if ( (csv_name.length() > 0) && !csv_name.equals(c.csv_name())) {
 				c.set_csv_name(csv_name);
@@ -407,21 +599,57 @@ public class CSVConfig {
 	
 	public HeaderClass getClass(String name) {
 			// classes are stored as lowercase, so make sure we're checking for lowercase name
-			// but don't change actual string (I was surprised but it toLowerCase seems to work in place.)
+			// (compared a char at a time, no lowercase copy of name)
 			if (name.length() > 0) {
-            String key_name = new String(name); 
-            
-            return classes.get(key_name.toLowerCase());	
-         } else return null;
+				int h = 0;
+				for (int i = 0; i < name.length(); i++) h = 31 * h + Character.toLowerCase(name.charAt(i));
+				int mask = classTable.length - 1;
+				for (int slot = spread(h) & mask; classTable[slot] != 0; slot = (slot + 1) & mask) {
+					HeaderClass c = classList.get(classTable[slot] - 1);
+					if (sameIgnoringCase(c.key, name)) return c;
+				}
+			}
+			return null;
+	}
+	
+	static String lowerCase(String name) {
+		// the key for a class name, lowercase a char at a time the way getClass compares them
+		char[] a = name.toCharArray();
+		for (int i = 0; i < a.length; i++) a[i] = Character.toLowerCase(a[i]);
+		return new String(a);
+	}
+	
+	private static boolean sameIgnoringCase(String key, String name) {
+		if (key.length() != name.length()) return false;
+		for (int i = 0; i < key.length(); i++) {
+			if (key.charAt(i) != Character.toLowerCase(name.charAt(i))) return false;
+		}
+		return true;
 	}
 	
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+	
+	private void addToTable(HeaderClass c) {
+		if ((classList.size()) * 2 > classTable.length) {
+			// keep it at most half full
+			classTable = new int[classTable.length * 2];
+			for (HeaderClass old : classList) if (old != c) addToTable(old);
+		}
+		int mask = classTable.length - 1;
+		int slot = spread(c.key.hashCode()) & mask;
+		while (classTable[slot] != 0) slot = (slot + 1) & mask;
+		classTable[slot] = c.index + 1;
+	}
 	
 	public HeaderProperty getProperty(String className, String propName) {
 		HeaderClass c = getClass(className);
+		if (c != null && classOrder == null) compile();
 		HeaderProperty prop = null;
 		while (c != null && prop == null) { //there is a class and we haven't found the property
 		   prop = c.properties.get(propName);
-		   c = getClass(c.superClassName());
+		   c = c.parent >= 0 ? classList.get(c.parent) : null;
 		}
 		return prop;	// will be null if the class or the property don't exist.
 	}
@@ -436,6 +664,11 @@ public class CSVConfig {
       
       if (key_name.length() > 0) {
          classes.put(key_name, newClass);
+         newClass.key = key_name;
+         newClass.index = classList.size();
+         classList.add(newClass);
+         addToTable(newClass);
+         changed();
          
       } else {
       // don't add an empty key!! 
@@ -447,21 +680,31 @@ public class CSVConfig {
 	
 	
 	public void addProperty(String csv_name, String rdf_name, String class_name) {
+		addProperty(csv_name, rdf_name, class_name, null);
+	}
+	
+	public void addProperty(String csv_name, String rdf_name, String class_name, LiteralType type) {
 		 if (DEBUG) System.out.println("	Adding property:  " + csv_name + " (" + rdf_name + ")");
 		 HeaderProperty p = new HeaderProperty(csv_name, rdf_name, class_name);
+		 p.type = type;
 		 HeaderClass c = getClass(class_name);
 		if (c == null)  {
 			c = addClass("", class_name, "");	// add placeholder
 		}
 		c.addProperty(p);
 		addCSVProperty(p);	   
+		changed();
 		
 	}
 	
 	public void addItem(String itemType, String csv_name, String rdf_name, String class_name) {
+		addItem(itemType, csv_name, rdf_name, class_name, null);
+	}
+	
+	public void addItem(String itemType, String csv_name, String rdf_name, String class_name, LiteralType type) {
 		// add a Header item of the right type
 		// for now, if the string is exactly "class" make a class
-		// if it starts with "prop" make a property
+		// if it starts with "prop" make a property (of type, null for a string)
 		// otherwise just ignore it 
 		// if (DEBUG) System.out.println("Adding item: " + itemType + " " + csv_name + " " + rdf_name + " " + class_name);
 
@@ -473,14 +716,16 @@ public class CSVConfig {
 			   c.set_rdf_name(rdf_name);
 			   if (DEBUG) System.out.println("RDF Name is " + c.rdf_name());
 			}
+			if (type != null) System.out.println("Item " + csv_name + " is a class, the datatype " + type.spec() + " is only for properties (ignoring it)");
 
 		   
 		} else if (itemType.startsWith("prop")) {
-		   addProperty(csv_name, rdf_name, class_name);
+		   addProperty(csv_name, rdf_name, class_name, type);
 		   
 		} else 	{
 		// otherwise it says ignore so ignore it.
 			System.out.println("Item " + csv_name + " is not defined as a class or a property (ignoring)");
+			skipped++;
 		}
 
 	}
@@ -490,20 +735,21 @@ public class CSVConfig {
 		return classes.containsKey(name);
 	}
 	
-	public void setItemColumn(String csv_name, int column) {
+	public boolean setItemColumn(String csv_name, int column) {
 		// look up an item by it's name in the csv file and set it's column number
 		// There may be more than one which matches this name (e.g. a property and a class)
+		// returns true if there was one
  
 
       HeaderItem item = csvClasses.get(csv_name);
       if (item != null) item.set_column(column);   
-      item = csvProperties.get(csv_name);
-      if (item != null) item.set_column(column);   
+      HeaderItem prop = csvProperties.get(csv_name);
+      if (prop != null) prop.set_column(column);   
 
 
 		// if it's not there that means the column doesn't exist in the config file.
 		// for now that means we are going to ignore it.
-		
+		return item != null || prop != null;
 	}
 
 	
@@ -0,0 +1,94 @@
+/*
+	class CSVPlan
+	a flat, compiled version of a CSVConfig used when writing the instance data.
+
+	The config is set up for lookups by name (classes by lowercased rdf_name, properties
+	inherited by walking up the superclasses) which is fine for the header but way too
+	much work to repeat on every row of a big file.  (it works out the class order and each
+	class's inherited properties once, the plan takes them from there)
+	So once the header has been read and the columns are set (setItemColumn) we resolve
+	everything one time:
+	   - classes in hierarchy order, only the ones which actually have a column
+	   - for each class, the column of every property (including inherited ones), its rdf_name
+	     and whether it's written as a literal or as a resource (property is also a class),
+	     and for a literal its datatype (LiteralType, null for a plain string)
+	The row loop then just walks arrays.
+
+	NOTE: the plan is a snapshot.  If the config or the columns change, build a new one.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class CSVPlan {
+
+	static class PlanClass {
+		final String rdf_name;       // name written as the rdf:type of the instance
+		final int column;            // column holding the ID of the instance
+		final int[] propColumns;     // column for each property, in getProperties order
+		final String[] propNames;    // rdf_name for each property
+		final boolean[] propIsResource; // true if the property is also a class (write as a reference)
+		final LiteralType[] propTypes;  // datatype of each literal property, null for a string (or a resource)
+
+		PlanClass(String rdf_name, int column, int[] propColumns, String[] propNames, boolean[] propIsResource,
+		          LiteralType[] propTypes) {
+			this.rdf_name = rdf_name;
+			this.column = column;
+			this.propColumns = propColumns;
+			this.propNames = propNames;
+			this.propIsResource = propIsResource;
+			this.propTypes = propTypes;
+		}
+
+		public int numProperties() { return propColumns.length; }
+	}
+
+	final PlanClass[] classes;	// in hierarchy order, superclasses first
+
+	public CSVPlan(CSVConfig config) {
+		ArrayList<PlanClass> l = new ArrayList<PlanClass>();
+
+		for (CSVConfig.HeaderClass c : config.classOrder()) {
+			if (c.column() == -1) continue;	// no ID column, this class never gets an instance
+
+			String[] propNames = c.allNames;	// getProperties
+			CSVConfig.HeaderProperty[] props = c.allProperties;	// getProperty for each
+			int[] columns = new int[propNames.length];
+			String[] names = new String[propNames.length];
+			boolean[] isResource = new boolean[propNames.length];
+			LiteralType[] types = new LiteralType[propNames.length];
+			int n = 0;
+			for (int i = 0; i < props.length; i++) {
+				CSVConfig.HeaderProperty p = props[i];
+				if (p == null || p.column() == -1) continue;	// nothing to write for this one
+				columns[n] = p.column();
+				names[n] = propNames[i];
+				isResource[n] = config.propertyIsClass(p).length() > 0;
+				types[n] = isResource[n] ? null : p.type;
+				n++;
+			}
+			if (n < columns.length) {
+				// trim off the properties we skipped
+				columns = Arrays.copyOf(columns, n);
+				names = Arrays.copyOf(names, n);
+				isResource = Arrays.copyOf(isResource, n);
+				types = Arrays.copyOf(types, n);
+			}
+			l.add(new PlanClass(c.rdf_name(), c.column(), columns, names, isResource, types));
+		}
+
+		classes = l.toArray(new PlanClass[l.size()]);
+	}
+
+	public int numClasses() { return classes.length; }
+
+	public boolean[] columnsUsed(int numColumns) {
+		// which columns of the csv file the plan ever looks at, so the reader can skip the rest
+		boolean[] used = new boolean[numColumns];
+		for (PlanClass c : classes) {
+			if (c.column < numColumns) used[c.column] = true;
+			for (int col : c.propColumns) if (col < numColumns) used[col] = true;
+		}
+		return used;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+	interface CSVRow
+	one line of the csv file as seen by the conversion (writeInstances).
+
+	The cells are already trimmed.  containsData is checked first, and a cell is only
+	turned into a String (get) when it's actually going to be written, so a reader
+	that keeps the raw bytes (MappedCSVReader) doesn't have to copy anything for
+	cells that are blank, "null", or not used at all.
+
+	A reader may reuse the same row object for every line.  Use copy() to hang on to one.
+*/
+
+public interface CSVRow {
+
+	int length();                      // number of cells in this line
+	boolean containsData(int col);     // false for an empty cell or "null" (see csv2rdf.containsData)
+	String get(int col);               // the trimmed cell
+	CSVRow copy();                     // a row that stays valid after the reader moves on
+
+	default String[] toArray() {
+		// all the cells, for error messages and the header line
+		String[] a = new String[length()];
+		for (int i = 0; i < a.length; i++) a[i] = get(i);
+		return a;
+	}
+
+	static class Strings implements CSVRow {
+		// a line from opencsv, already trimmed (fixInputLine)
+		final String[] data;
+
+		public Strings(String[] data) { this.data = data; }
+
+		public int length() { return data.length; }
+		public boolean containsData(int col) { return csv2rdf.containsData(data[col]); }
+		public String get(int col) { return data[col]; }
+		public CSVRow copy() { return this; }	// opencsv gives us a new array every line
+		public String[] toArray() { return data; }
+	}
+}
@@ -0,0 +1,126 @@
+/*
+	interface CSVRowReader
+	where the csv lines come from.
+
+	open() memory maps the file with MappedCSVReader when it can.  The old opencsv
+	CSVReader is still there as a fallback (-opencsv, or anything that can't be mapped).
+	The file name "-" is stdin, read with StreamCSVReader, and so is a gzipped file
+	(found by its first two bytes, not the name), uncompressed on the way.  A stream that's
+	already open (a request body in ConversionServer) goes the same way.
+
+	Every way in reads the csv as UTF-8, opencsv too.  (opencsv on a file used to get the
+	platform's charset, the way FileReader does, so the same bytes could come out differently
+	from a file than from stdin or a .gz.)
+*/
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+public interface CSVRowReader {
+
+	CSVRow readNext() throws IOException;	// null at the end of the file
+	void close() throws IOException;
+	void project(boolean[] columns);	// only these columns will be asked for from now on (null = all)
+
+	// how far into the input we are and how big it is, in bytes (of the file, so compressed
+	// for a .gz), for the progress.  -1 if we can't tell.
+	default long position() { return -1; }
+	default long size() { return -1; }
+	// position() is exactly where the next row starts (not how far a buffer has read ahead)
+	default boolean exactPosition() { return false; }
+
+	static CSVRowReader open(String fileName, boolean useOpenCSV) throws IOException {
+		if (fileName.equals(ConvertOptions.STDIO) || !Files.isRegularFile(Paths.get(fileName)) || isGzip(fileName)) {
+			// stdin, a pipe or a .gz: read it as a stream
+			boolean stdin = fileName.equals(ConvertOptions.STDIO);
+			CountingInputStream raw = new CountingInputStream(stdin ? System.in : new FileInputStream(fileName));
+			long size = !stdin && Files.isRegularFile(Paths.get(fileName)) ? Files.size(Paths.get(fileName)) : -1;
+			if (useOpenCSV) return new OpenCSV(openCSV(uncompressed(raw)), raw, size);
+			return new StreamCSVReader(uncompressed(raw), raw, size);
+		}
+		if (useOpenCSV) {
+			CountingInputStream raw = new CountingInputStream(new FileInputStream(fileName));
+			return new OpenCSV(openCSV(raw), raw, Files.size(Paths.get(fileName)));
+		}
+		return new MappedCSVReader(fileName);
+	}
+
+	static CSVRowReader open(InputStream in, boolean useOpenCSV) {
+		// a stream that's already open (and uncompressed, see uncompressed())
+		if (useOpenCSV) return new OpenCSV(openCSV(in));
+		return new StreamCSVReader(in);
+	}
+
+	static CSVRowReader open(CountingInputStream in, long size, boolean useOpenCSV) {
+		// a plain stream (not gzipped) of size bytes, how far it's read is the position
+		if (useOpenCSV) return new OpenCSV(openCSV(in), in, size);
+		return new StreamCSVReader(in, in, size);
+	}
+
+	private static CSVReader openCSV(InputStream in) {
+		return new CSVReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 20));
+	}
+
+	static InputStream openStream(String fileName) throws IOException {
+		// the file ("-" is stdin), uncompressed on the way if it's gzipped
+		return uncompressed(fileName.equals(ConvertOptions.STDIO) ? System.in : new FileInputStream(fileName));
+	}
+
+	static InputStream uncompressed(InputStream in) throws IOException {
+		// gunzips it if it starts with the gzip magic number
+		BufferedInputStream b = new BufferedInputStream(in, 1 << 16);
+		b.mark(2);
+		int m1 = b.read(), m2 = b.read();
+		b.reset();
+		if (m1 == 0x1f && m2 == 0x8b) return new GZIPInputStream(b, 1 << 16);
+		return b;
+	}
+
+	static boolean isGzip(String fileName) throws IOException {
+		// starts with the gzip magic number (whatever it's called)
+		try (InputStream in = new FileInputStream(fileName)) {
+			return in.read() == 0x1f && in.read() == 0x8b;
+		}
+	}
+
+	static class OpenCSV implements CSVRowReader {
+		private final CSVReader reader;
+		private final CountingInputStream source;	// (null if we don't know)
+		private final long size;
+		private boolean[] wanted;
+
+		public OpenCSV(CSVReader reader) { this(reader, null, -1); }
+
+		public OpenCSV(CSVReader reader, CountingInputStream source, long size) {
+			this.reader = reader;
+			this.source = source;
+			this.size = size;
+		}
+
+		public CSVRow readNext() throws IOException {
+			String[] nextLine = reader.readNext();
+			if (nextLine == null) return null;
+			if (wanted == null) csv2rdf.fixInputLine(nextLine);	// trims each string
+			else csv2rdf.fixInputLine(nextLine, wanted);	// just the ones we'll use
+			return new CSVRow.Strings(nextLine);
+		}
+
+		public void project(boolean[] columns) { wanted = columns; }
+
+		public long position() { return source != null ? source.count() : -1; }	// (read ahead by the buffers)
+
+		public long size() { return size; }
+
+		public void close() throws IOException { reader.close(); }
+	}
+}
@@ -0,0 +1,200 @@
+/*
+	class CSVScanner
+	finds the commas, quotes and line breaks in a buffer several bytes at a time.
+
+	Instead of looking at one byte per loop, we read 8 bytes as a long and test all of
+	them at once with plain arithmetic ("SWAR", SIMD within a register):
+	   y = word ^ (c repeated in every byte)       -- bytes equal to c become 0
+	   ~(((y & 0x7F..) + 0x7F..) | y | 0x7F..)     -- 0x80 in exactly the bytes that are 0
+	No carries go between bytes, so the result is exact and the byte order doesn't matter.
+
+	classify() does a 64 byte block and returns one bit per byte (bit i = byte pos+i) for
+	separators, quotes and line breaks, like the simd csv/json parsers.  insideQuotes()
+	turns the quote bits into "this byte is inside quotes" with a prefix xor, which is how
+	SplitConverter finds line starts without looking at each byte.
+
+	This was meant to use the JDK Vector API (jdk.incubator.vector), but that needs
+	--add-modules on both javac and java, which the jar can't ask for.  Plain longs work
+	everywhere.  The last few bytes of a buffer (less than a word) go through the scalar loop,
+	and setting useSWAR to false does everything the scalar way (for comparing).
+
+	main() is a small benchmark against opencsv's CSVParser:
+	   java -cp csv2rdf.jar CSVScanner shipments.csv [copies]
+*/
+
+import au.com.bytecode.opencsv.CSVParser;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class CSVScanner {
+	static boolean useSWAR = true;
+
+	static final int SEPARATORS = 0;	// index of each mask in classify's result
+	static final int QUOTES = 1;
+	static final int NEWLINES = 2;
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+	private static final long COMMAS = ONES * ',';
+	private static final long QUOTE_BYTES = ONES * '"';
+	private static final long LFS = ONES * '\n';
+	private static final long CRS = ONES * '\r';
+
+	private static long zeroBytes(long y) {
+		// 0x80 in every byte of y that is 0, nothing anywhere else
+		return ~(((y & LOW7) + LOW7) | y | LOW7);
+	}
+
+	private static long word(ByteBuffer b, int i) {
+		// 8 bytes with the byte at i in the low bits (the buffer reads big endian)
+		return Long.reverseBytes(b.getLong(i));
+	}
+
+	private static int movemask(long highBits) {
+		// squeeze the 0x80 bits of each byte into 8 bits, bit j for byte j
+		return (int) (((highBits >>> 7) * 0x0102040810204080L) >>> 56);
+	}
+
+	public static int indexOfDelimiter(ByteBuffer b, int from, int limit) {
+		// first ',', '\r' or '\n' at or after from (limit if none)
+		int i = from;
+		if (useSWAR) {
+			for (; i + 8 <= limit; i += 8) {
+				long w = word(b, i);
+				long m = zeroBytes(w ^ COMMAS) | zeroBytes(w ^ LFS) | zeroBytes(w ^ CRS);
+				if (m != 0) return i + (Long.numberOfTrailingZeros(m) >>> 3);
+			}
+		}
+		for (; i < limit; i++) {
+			byte c = b.get(i);
+			if (c == ',' || c == '\n' || c == '\r') return i;
+		}
+		return limit;
+	}
+
+	public static int indexOfQuote(ByteBuffer b, int from, int limit) {
+		// first '"' at or after from (limit if none)
+		int i = from;
+		if (useSWAR) {
+			for (; i + 8 <= limit; i += 8) {
+				long m = zeroBytes(word(b, i) ^ QUOTE_BYTES);
+				if (m != 0) return i + (Long.numberOfTrailingZeros(m) >>> 3);
+			}
+		}
+		for (; i < limit; i++) {
+			if (b.get(i) == '"') return i;
+		}
+		return limit;
+	}
+
+	public static void classify(ByteBuffer b, int pos, int limit, long[] masks) {
+		// bit i of each mask is for byte pos+i, up to 64 bytes (or limit)
+		long sep = 0, quote = 0, nl = 0;
+		int n = Math.min(64, limit - pos);
+		int i = 0;
+		if (useSWAR) {
+			for (; i + 8 <= n; i += 8) {
+				long w = word(b, pos + i);
+				sep |= (long) movemask(zeroBytes(w ^ COMMAS)) << i;
+				quote |= (long) movemask(zeroBytes(w ^ QUOTE_BYTES)) << i;
+				nl |= (long) movemask(zeroBytes(w ^ LFS) | zeroBytes(w ^ CRS)) << i;
+			}
+		}
+		for (; i < n; i++) {
+			byte c = b.get(pos + i);
+			if (c == ',') sep |= 1L << i;
+			else if (c == '"') quote |= 1L << i;
+			else if (c == '\n' || c == '\r') nl |= 1L << i;
+		}
+		masks[SEPARATORS] = sep;
+		masks[QUOTES] = quote;
+		masks[NEWLINES] = nl;
+	}
+
+	public static long insideQuotes(long quotes, boolean startInside) {
+		// bit i set if byte i comes after an odd number of quotes (counting from the block start)
+		long x = quotes;
+		x ^= x << 1;
+		x ^= x << 2;
+		x ^= x << 4;
+		x ^= x << 8;
+		x ^= x << 16;
+		x ^= x << 32;
+		return startInside ? ~x : x;
+	}
+
+
+   /**
+     * A simple benchmark: tokenize the same data with opencsv, the scalar loop and SWAR.
+     */
+	public static void main(String[] args) throws IOException {
+		String fileName = args.length > 0 ? args[0] : "shipments.csv";
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+		// make a bigger file out of the rows of the sample (skip the header)
+		Path data = Files.createTempFile("csvscanner", ".csv");
+		try {
+			byte[] rows;
+			try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+				StringBuilder sb = new StringBuilder();
+				in.readLine();
+				String line;
+				while ((line = in.readLine()) != null) sb.append(line).append('\n');
+				rows = ByteOut.encode(sb.toString());
+			}
+			try (OutputStream out = new FileOutputStream(data.toFile())) {
+				for (int i = 0; i < copies; i++) out.write(rows);
+			}
+			long bytes = Files.size(data);
+			System.out.printf("%d copies of %s, %.1f MB%n", copies, fileName, bytes / 1e6);
+
+			for (int round = 0; round < 3; round++) {
+				// (first round is warm up)
+				long t0 = System.nanoTime();
+				long cells = 0;
+				CSVParser parser = new CSVParser();
+				try (BufferedReader in = Files.newBufferedReader(data)) {
+					String line;
+					while ((line = in.readLine()) != null) cells += parser.parseLine(line).length;
+				}
+				report("opencsv CSVParser", t0, bytes, cells);
+
+				useSWAR = false;
+				t0 = System.nanoTime();
+				cells = tokenizeAll(data);
+				report("mapped, scalar", t0, bytes, cells);
+
+				useSWAR = true;
+				t0 = System.nanoTime();
+				cells = tokenizeAll(data);
+				report("mapped, SWAR", t0, bytes, cells);
+				System.out.println();
+			}
+		}
+		finally {
+			Files.delete(data);
+		}
+	}
+
+	private static long tokenizeAll(Path data) throws IOException {
+		long cells = 0;
+		MappedCSVReader reader = new MappedCSVReader(data, MappedCSVReader.WINDOW_SIZE);
+		CSVRow row;
+		while ((row = reader.readNext()) != null) cells += row.length();
+		reader.close();
+		return cells;
+	}
+
+	private static void report(String what, long t0, long bytes, long cells) {
+		double secs = (System.nanoTime() - t0) / 1e9;
+		System.out.printf("%-20s %8.1f MB/s  (%d cells)%n", what, bytes / 1e6 / secs, cells);
+	}
+}
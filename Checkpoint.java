@@ -0,0 +1,263 @@
+/*
+	class Checkpoint
+	-checkpoint <secs>: every so often, save how far a conversion has got, so that if it dies
+	(killed, out of memory, the machine went down) -resume can carry on from there instead of
+	converting the whole file again.
+
+	Next to the output it keeps <output>.checkpoint (a properties file) with
+	   offset        where the next row starts in the csv
+	   rows          how many rows were converted before that
+	   outputLength  how much of the output is whole instances for those rows
+	   hash          SHA-256 of the header, the config and the options (like IncrementalConverter)
+	   check         CRC32 of the bytes just before offset, to tell if the csv was replaced
+	   journal       with -dedupe, how many fingerprints of <output>.dedupe go with it
+	   duplicates, merged   InstanceDedupe's counts so far
+	With -dedupe, <output>.dedupe is every fingerprint InstanceDedupe has added, 8 bytes each,
+	appended at each checkpoint (only the new ones), so a resumed run knows which instances
+	were already written.
+
+	-resume checks all that, cuts the output and the journal back to the checkpoint, puts the
+	fingerprints back, and converts from offset to the end without writing the top of the file
+	again.  If it doesn't match it says why and converts the whole file.  When a run finishes
+	the files are deleted.
+
+	The writer's thread only takes a checkpoint between rows (every ConversionEvents.BATCH rows,
+	or after each SplitConverter range) and all it does is flush, note the numbers and take the
+	new fingerprints.  Syncing the output and the journal to disk and writing the checkpoint
+	(to a .tmp that's moved over the old one, so it's never half written) happen on another
+	thread.  If that's still busy with the last one when the next is due, the next one waits
+	for the next batch.  The checkpoint is only written after what it points to is on disk.
+
+	It needs the csv memory mapped (so not -opencsv, gzipped input or stdin), and can't be
+	used with gzipped output or rdfb (neither can be cut off and carried on).
+*/
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Checkpoint {
+	static final int DEFAULT_SECONDS = 60;	// for -resume without -checkpoint
+	static final int JOURNAL_BUFFER = 8192;	// fingerprints per write
+
+	// what's in the .checkpoint file (from the last run when resuming)
+	long offset;
+	long rows;
+	long outputLength;
+	long journalLength;
+	long duplicates;
+	long merged;
+
+	private final String input;
+	private final String hash;
+	private final Path file, journalFile, output;
+	private final long interval;		// nanos between checkpoints
+	private final FileChannel in;		// for the check
+	private final ExecutorService saver;
+	private boolean resuming;
+	private FileChannel out;
+	private FileChannel journal;
+	private Future<?> saving;
+	private long due;
+	private long baseRows, baseLength;	// where this run started from
+	private volatile boolean broken;	// a save failed, don't try again
+
+	private Checkpoint(ConvertOptions options, String input, String outputFile, String hash) throws IOException {
+		this.input = input;
+		this.hash = hash;
+		this.output = Paths.get(outputFile);
+		this.file = Paths.get(outputFile + ".checkpoint");
+		this.journalFile = Paths.get(outputFile + ".dedupe");
+		this.interval = options.checkpoint * 1000000000L;
+		this.in = FileChannel.open(Paths.get(input), StandardOpenOption.READ);
+		this.saver = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "checkpoint");
+			t.setDaemon(true);
+			return t;
+		});
+		this.due = System.nanoTime() + interval;
+	}
+
+	public static Checkpoint open(ConvertOptions options, String input, String outputFile, String hash) throws IOException {
+		// with -resume, picks up the last checkpoint if it's still good
+		Checkpoint c = new Checkpoint(options, input, outputFile, hash);
+		if (options.resume) {
+			String why = c.load(options.dedupe);
+			if (why == null) {
+				c.resuming = true;
+				System.out.println("Resuming " + input + " from row " + (c.rows + 1) + " (byte " + c.offset + "), "
+					+ outputFile + " cut back to " + c.outputLength + " bytes");
+			} else {
+				System.out.println("Converting all of " + input + ": " + why);
+			}
+		}
+		if (!c.resuming) {
+			c.offset = c.rows = c.outputLength = c.journalLength = c.duplicates = c.merged = 0;
+			Files.deleteIfExists(c.file);
+			Files.deleteIfExists(c.journalFile);
+		}
+		c.baseRows = c.rows;
+		c.baseLength = c.outputLength;
+		return c;
+	}
+
+	public boolean resuming() {
+		return resuming;
+	}
+
+	public OutputStream openOutput() throws IOException {
+		// the output file, cut back to the checkpoint if resuming
+		if (resuming) {
+			out = FileChannel.open(output, StandardOpenOption.WRITE);
+			out.truncate(outputLength);
+			out.position(outputLength);
+		} else {
+			out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		return Channels.newOutputStream(out);
+	}
+
+	public void journal(InstanceDedupe dedupe) throws IOException {
+		// keep dedupe's fingerprints, and put back the ones from before if resuming
+		journal = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		if (resuming) {
+			journal.truncate(journalLength * 8);
+			ByteBuffer b = ByteBuffer.allocate(JOURNAL_BUFFER * 8);
+			long pos = 0;
+			while (pos < journalLength * 8) {
+				b.clear();
+				int n = journal.read(b, pos);
+				if (n <= 0) throw new IOException("Couldn't read " + journalFile);
+				b.flip().limit(b.limit() & ~7);
+				LongBuffer l = b.asLongBuffer();
+				while (l.hasRemaining()) dedupe.restore(l.get());
+				pos += b.limit();
+			}
+			dedupe.duplicates = duplicates;
+			dedupe.merged = merged;
+		} else {
+			journal.truncate(0);
+		}
+		journal.position(journalLength * 8);
+		dedupe.keepJournal();
+	}
+
+	public void reached(long offset, long rows, ByteOut writerOut, InstanceDedupe dedupe) {
+		// (writer thread, between rows) take a checkpoint if one's due, saved on the other thread.
+		// offset is where the next row starts, rows how many this run has done
+		long now = System.nanoTime();
+		if (now < due || broken) return;
+		if (saving != null && !saving.isDone()) return;	// still saving the last one, try again next batch
+		due = now + interval;
+		writerOut.flush();
+		final long length = baseLength + writerOut.written();
+		final long total = baseRows + rows;
+		final long[] fps = dedupe != null ? dedupe.takeJournal() : null;
+		final long dups = dedupe != null ? dedupe.duplicates : 0, mrg = dedupe != null ? dedupe.merged : 0;
+		saving = saver.submit(() -> save(offset, total, length, fps, dups, mrg));
+	}
+
+	private void save(long offset, long rows, long length, long[] fps, long dups, long mrg) {
+		// (checkpoint thread) the output and journal to disk first, then the checkpoint that points at them
+		try {
+			out.force(false);
+			if (fps != null && fps.length > 0) {
+				ByteBuffer b = ByteBuffer.allocate(JOURNAL_BUFFER * 8);
+				for (int i = 0; i < fps.length; ) {
+					int n = Math.min(JOURNAL_BUFFER, fps.length - i);
+					b.clear();
+					b.asLongBuffer().put(fps, i, n);
+					b.limit(n * 8);
+					while (b.hasRemaining()) journal.write(b);
+					i += n;
+				}
+				journal.force(false);
+				journalLength += fps.length;
+			}
+			Properties p = new Properties();
+			p.setProperty("offset", Long.toString(offset));
+			p.setProperty("rows", Long.toString(rows));
+			p.setProperty("outputLength", Long.toString(length));
+			p.setProperty("hash", hash);
+			p.setProperty("check", Long.toString(IncrementalConverter.check(in, offset)));
+			p.setProperty("journal", Long.toString(journalLength));
+			p.setProperty("duplicates", Long.toString(dups));
+			p.setProperty("merged", Long.toString(mrg));
+			Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			try (FileOutputStream f = new FileOutputStream(tmp.toFile())) {
+				p.store(f, "csv2rdf checkpoint for " + input);
+				f.getChannel().force(true);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			// the last good checkpoint is still there, but the journal may not match any after it
+			broken = true;
+			System.err.println("Couldn't save a checkpoint for " + input + " (" + e + "), no more checkpoints this run");
+		}
+	}
+
+	public void stop() throws IOException {
+		// wait for the last save (before the output is closed)
+		saver.shutdown();
+		try {
+			if (saving != null) saving.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while saving a checkpoint", e);
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Checkpoint failed", e.getCause());
+		}
+	}
+
+	public void remove() throws IOException {
+		// the conversion finished, nothing to resume
+		in.close();
+		if (journal != null) journal.close();
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(journalFile);
+	}
+
+	private String load(boolean dedupe) throws IOException {
+		// why the checkpoint can't be used, null if it can
+		if (!Files.isRegularFile(file)) return "there's no checkpoint for " + output;
+		Properties p = new Properties();
+		try (InputStream f = Files.newInputStream(file)) {
+			p.load(f);
+			offset = Long.parseLong(p.getProperty("offset"));
+			rows = Long.parseLong(p.getProperty("rows"));
+			outputLength = Long.parseLong(p.getProperty("outputLength"));
+			journalLength = Long.parseLong(p.getProperty("journal"));
+			duplicates = Long.parseLong(p.getProperty("duplicates"));
+			merged = Long.parseLong(p.getProperty("merged"));
+			if (!hash.equals(p.getProperty("hash"))) return "the header, the config or the options changed";
+			if (offset > in.size()) return "the csv is shorter than it was";
+			if (IncrementalConverter.check(in, offset) != Long.parseLong(p.getProperty("check")))
+				return "it isn't the same csv (the lines already converted changed)";
+		}
+		catch (RuntimeException e) {
+			return "the checkpoint is no good";
+		}
+		if (!Files.isRegularFile(output) || Files.size(output) < outputLength) return "the output is shorter than the checkpoint";
+		if (dedupe && (!Files.isRegularFile(journalFile) || Files.size(journalFile) < journalLength * 8))
+			return "the dedupe journal is shorter than the checkpoint";
+		return null;
+	}
+}
@@ -0,0 +1,152 @@
+/*
+	class CompiledConfig
+	a config file, compiled once and kept next to it as <config file>.compiled, so the runs after
+	the first don't parse it with opencsv, split the types and work out the classes again.  With
+	big configs and lots of small files (one run each) that was a real part of the time.
+
+	The .compiled file is
+	   "csv2rdfc"   8 bytes
+	   version      int
+	   hash         SHA-256 of the config file's bytes (32 bytes)
+	   length       int, how much follows
+	   check        int, CRC32 of what follows
+	   the config   CSVConfig.writeCompiled
+	It's memory mapped and read in one go (CSVConfig.readCompiled).  If it isn't there, or the
+	config file's hash isn't the one it was made from, or it's from another version, or it's
+	been damaged (the length or the check don't match), the config
+	is read the usual way and the .compiled written again (to a temporary file that's moved over
+	it, so another run reading it never sees half of one).  If the config is somewhere read only
+	that isn't tried, it's just read the usual way every time.  If writing fails some other way
+	that's said (once) and the run carries on without it.
+
+	A config with lines that get skipped isn't saved, so the warnings for them are still printed
+	every time until it's fixed.  -no-compiled-config doesn't read or write .compiled at all.
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+public class CompiledConfig {
+	static final byte[] MAGIC = "csv2rdfc".getBytes(StandardCharsets.US_ASCII);
+	static final int VERSION = 2;	// 2: properties have a datatype
+	static final int HASH_BYTES = 32;
+	static final int HEADER = 8 + 4 + HASH_BYTES + 4 + 4;
+	static final String EXTENSION = ".compiled";
+	private static final AtomicBoolean warned = new AtomicBoolean();
+
+	public static CSVConfig load(String configFile, boolean sidecar) throws IOException {
+		return CSVConfig.readCompiled(compiled(configFile, sidecar));
+	}
+
+	public static ByteBuffer compiled(String configFile, boolean sidecar) throws IOException {
+		// the config compiled (readCompiled makes a CSVConfig from it), from the .compiled file if it's
+		// still good.  without sidecar it's just compiled, nothing's read or written but the config
+		byte[] text = Files.readAllBytes(Paths.get(configFile));	// (NoSuchFileException if it isn't there)
+		byte[] hash = hash(text);
+		Path file = Paths.get(configFile + EXTENSION);
+		if (sidecar) {
+			ConversionEvents.ConfigLoad event = new ConversionEvents.ConfigLoad();
+			event.begin();
+			ByteBuffer b = map(file, hash);
+			if (b != null) {
+				System.out.println("Reading Configuration File: " + configFile + " (compiled)");
+				event.file = configFile;
+				event.bytes = b.capacity();
+				event.commit();
+				return b;
+			}
+		}
+
+		CSVConfig config = csv2rdf.buildConfig(csv2rdf.readConfigLines(configFile, text));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write(MAGIC);
+		out.writeInt(VERSION);
+		out.write(hash);
+		out.writeInt(0);	// the length and the check, when we know them
+		out.writeInt(0);
+		config.writeCompiled(out);
+		out.flush();
+		ByteBuffer b = ByteBuffer.wrap(bytes.toByteArray());
+		b.putInt(HEADER - 8, b.capacity() - HEADER);
+		b.putInt(HEADER - 4, check(b.array(), HEADER));
+		if (sidecar && config.skipped == 0) save(file, b);
+		b.position(HEADER);
+		return b.slice();
+	}
+
+	private static ByteBuffer map(Path file, byte[] hash) {
+		// the compiled config in file, null if it's not there or not for this config
+		if (!Files.isRegularFile(file)) return null;
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = in.size();
+			if (size < HEADER || size > Integer.MAX_VALUE) return null;
+			ByteBuffer b = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			byte[] magic = new byte[MAGIC.length];
+			byte[] h = new byte[HASH_BYTES];
+			b.get(magic);
+			int version = b.getInt();
+			b.get(h);
+			int length = b.getInt();
+			int check = b.getInt();
+			if (!Arrays.equals(magic, MAGIC) || version != VERSION || !Arrays.equals(h, hash) || length != size - HEADER) return null;
+			ByteBuffer config = b.slice();
+			CRC32 crc = new CRC32();
+			crc.update(config.duplicate());
+			if ((int) crc.getValue() != check) return null;
+			return config;
+		}
+		catch (IOException e) {
+			return null;	// read it the usual way
+		}
+	}
+
+	private static void save(Path file, ByteBuffer b) {
+		Path dir = file.toAbsolutePath().getParent();
+		if (dir == null || !Files.isWritable(dir)) return;	// (a read only config isn't worth a warning every run)
+		Path tmp = null;
+		try {
+			// a name of its own, other runs (or batch threads) may be saving it too
+			tmp = file.resolveSibling(file.getFileName() + "." + ProcessHandle.current().pid() + "-" + Thread.currentThread().getId() + ".tmp");
+			Files.write(tmp, b.array());
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			if (!warned.getAndSet(true))	// (once, not for every file of a batch or request to the server)
+				System.err.println("Couldn't save the compiled config " + file + " (" + e + "), it'll be read from the config file again next time");
+			try {
+				if (tmp != null) Files.deleteIfExists(tmp);
+			}
+			catch (IOException e2) { }
+		}
+	}
+
+	private static int check(byte[] b, int from) {
+		CRC32 crc = new CRC32();
+		crc.update(b, from, b.length - from);
+		return (int) crc.getValue();
+	}
+
+	private static byte[] hash(byte[] text) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(text);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);	// every java has SHA-256
+		}
+	}
+}
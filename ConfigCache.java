@@ -0,0 +1,95 @@
+/*
+	class ConfigCache
+	config files that have been read already, for the modes that convert more than one file
+	in the same run (-batch and -serve).
+
+	What's kept is the config compiled (CompiledConfig), not a CSVConfig: every conversion
+	makes its own from that (CSVConfig.readCompiled), because the columns of its header get set
+	in it.  A file is read again if it has changed since (the server can run for weeks, and
+	someone will fix a config without restarting it).
+
+	Configs sent inline (ConversionServer) are kept by a hash of their text, so a client that
+	sends the same one with every request only has it parsed once.  There can only be so many
+	of those, after that they're all forgotten and it starts again.
+*/
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ConfigCache {
+	static final int MAX_INLINE = 1000;
+
+	private static final class Cached {
+		final long modified;
+		final ByteBuffer compiled;
+
+		Cached(long modified, ByteBuffer compiled) {
+			this.modified = modified;
+			this.compiled = compiled;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Cached> files = new ConcurrentHashMap<String, Cached>();
+	private final ConcurrentHashMap<String, ByteBuffer> inline = new ConcurrentHashMap<String, ByteBuffer>();
+	private final boolean sidecar;	// use <config file>.compiled
+
+	public ConfigCache(boolean sidecar) {
+		this.sidecar = sidecar;
+	}
+
+	public CSVConfig config(String configFile) throws IOException {
+		Path path = Paths.get(configFile).toAbsolutePath().normalize();
+		long modified = Files.getLastModifiedTime(path).toMillis();	// (and NoSuchFileException if it isn't there)
+		String key = path.toString();
+		Cached c = files.get(key);
+		if (c == null || c.modified != modified) {
+			c = new Cached(modified, CompiledConfig.compiled(configFile, sidecar));
+			files.put(key, c);	// two threads might both read it the first time, that's ok
+		}
+		return CSVConfig.readCompiled(c.compiled);
+	}
+
+	public CSVConfig inline(byte[] text) throws IOException {
+		String key = hash(text);
+		ByteBuffer compiled = inline.get(key);
+		if (compiled == null) {
+			CSVReader reader = new CSVReader(new StringReader(new String(text, StandardCharsets.UTF_8)));
+			CSVConfig config = csv2rdf.buildConfig(reader.readAll());
+			reader.close();
+			ByteArrayOutputStream b = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(b);
+			config.writeCompiled(out);
+			out.flush();
+			compiled = ByteBuffer.wrap(b.toByteArray());
+			if (inline.size() >= MAX_INLINE) inline.clear();
+			inline.put(key, compiled);
+		}
+		return CSVConfig.readCompiled(compiled);
+	}
+
+	public int size() {
+		return files.size() + inline.size();
+	}
+
+	private static String hash(byte[] text) {
+		try {
+			byte[] d = MessageDigest.getInstance("SHA-256").digest(text);
+			StringBuilder sb = new StringBuilder();
+			for (byte b : d) sb.append(String.format("%02x", b));
+			return sb.toString();
+		}
+		catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+	}
+}
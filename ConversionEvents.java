@@ -0,0 +1,161 @@
+/*
+	class ConversionEvents
+	Flight Recorder events for the parts of a conversion, so a slow run can be looked at
+	afterwards next to the JVM's own GC, I/O and thread events, without attaching anything.
+
+	   java -XX:StartFlightRecording:filename=run.jfr -jar csv2rdf.jar input.csv
+	   jfr print --categories csv2rdf run.jfr      (or open it in JDK Mission Control)
+
+	   csv2rdf.ConfigRead     reading a config file (readConfigLines)
+	   csv2rdf.ConfigBuild    turning its lines into a CSVConfig (buildConfig)
+	   csv2rdf.ConfigLoad     mapping and checking a config's .compiled file (CompiledConfig),
+	                          instead of the two above
+	   csv2rdf.HeaderMapping  setting the header's columns in the config (setItemColumn)
+	   csv2rdf.ConvertBatch   a batch of rows converted: BATCH rows of the single threaded loop,
+	                          a RowPipeline batch or a SplitConverter range
+	   csv2rdf.WriterFlush    the writer's buffer going to the output stream (ByteOut)
+	   csv2rdf.SlowRow        a row that took more than the threshold to convert (10 ms by
+	                          default, change it like any event's, e.g.
+	                          -XX:StartFlightRecording:csv2rdf.SlowRow#threshold=1ms,...)
+
+	When nothing is recording, the events cost next to nothing (the JIT takes them out),
+	so they're always there.
+*/
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+public class ConversionEvents {
+	static final int BATCH = RowPipeline.DEFAULT_BATCH_SIZE;	// rows per ConvertBatch in the single threaded loop
+
+	@Name("csv2rdf.ConfigRead")
+	@Label("Config Read")
+	@Category("csv2rdf")
+	@Description("Reading the lines of a config file")
+	@StackTrace(false)
+	static final class ConfigRead extends Event {
+		@Label("File")
+		String file;
+
+		@Label("Lines")
+		int lines;
+	}
+
+	@Name("csv2rdf.ConfigBuild")
+	@Label("Config Build")
+	@Category("csv2rdf")
+	@Description("Making a CSVConfig from the lines of a config file")
+	@StackTrace(false)
+	static final class ConfigBuild extends Event {
+		@Label("Lines")
+		int lines;
+
+		@Label("Classes")
+		int classes;
+
+		@Label("Properties")
+		int properties;
+	}
+
+	@Name("csv2rdf.ConfigLoad")
+	@Label("Config Load")
+	@Category("csv2rdf")
+	@Description("Mapping and checking the compiled config next to a config file")
+	@StackTrace(false)
+	static final class ConfigLoad extends Event {
+		@Label("File")
+		String file;
+
+		@Label("Compiled Size")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("csv2rdf.HeaderMapping")
+	@Label("Header Mapping")
+	@Category("csv2rdf")
+	@Description("Setting the columns of the csv header in the config")
+	@StackTrace(false)
+	static final class HeaderMapping extends Event {
+		@Label("Columns")
+		int columns;
+
+		@Label("Mapped")
+		@Description("Columns that are a class or property in the config")
+		int mapped;
+	}
+
+	@Name("csv2rdf.ConvertBatch")
+	@Label("Convert Batch")
+	@Category("csv2rdf")
+	@Description("A batch of rows converted")
+	@StackTrace(false)
+	static final class ConvertBatch extends Event {
+		@Label("Rows")
+		long rows;
+
+		@Label("Rejected")
+		long rejected;
+
+		@Label("Bytes In")
+		@Description("Bytes of the input, -1 if not known")
+		@DataAmount
+		long bytesIn;
+
+		@Label("Bytes Out")
+		@DataAmount
+		long bytesOut;
+
+		ConvertBatch() { }
+
+		ConvertBatch(long rows, long rejected, long position, long written) {
+			// starting from these, see finish()
+			begin();
+			this.rows = rows;
+			this.rejected = rejected;
+			this.bytesIn = position;
+			this.bytesOut = written;
+		}
+
+		void finish(long rows, long rejected, long position, long written) {
+			this.rows = rows - this.rows;
+			this.rejected = rejected - this.rejected;
+			this.bytesIn = position >= 0 && bytesIn >= 0 ? position - bytesIn : -1;
+			this.bytesOut = written - bytesOut;
+			if (this.rows > 0) commit();
+		}
+	}
+
+	@Name("csv2rdf.WriterFlush")
+	@Label("Writer Flush")
+	@Category("csv2rdf")
+	@Description("The writer's buffer written to the output")
+	@StackTrace(false)
+	static final class WriterFlush extends Event {
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("csv2rdf.SlowRow")
+	@Label("Slow Row")
+	@Category("csv2rdf")
+	@Description("A row that took longer than the threshold to convert")
+	@Threshold("10 ms")
+	@StackTrace(false)
+	static final class SlowRow extends Event {
+		@Label("Row")
+		@Description("Row of data (1 is the line after the header), -1 if not known")
+		long row;
+
+		@Label("Input Position")
+		@Description("Where the row starts in the input (compressed for .gz), -1 if not known")
+		long position;
+	}
+}
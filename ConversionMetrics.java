@@ -0,0 +1,435 @@
+/*
+	class ConversionMetrics
+	counts what a conversion did and where the time went:
+
+	   rows read and rejected (wrong number of cells), typed values that didn't parse,
+	   instances per class, triples per property, bytes in and out, and the time spent parsing the csv, working out what to
+	   write (transform), turning it into bytes (serialize) and writing the bytes (write).
+
+	Every thread that converts rows has its own Counts, so counting is just adding to a long
+	field; the totals are added up when someone asks.  Parse and convert times are taken
+	around each row.  The split of a row's convert time into transform and serialize is
+	measured on one row in SAMPLE, by running it through a TimedWriter that times each
+	writer call, and the same split is used for the rest (timing every call on every row
+	would cost more than it measures).  Write time is what the output stream took (ByteOut).
+	With -threads the times are added up over the threads, so they can be more than the
+	elapsed time.
+
+	With -jmx (or when java was started with a JMX agent, or in the server) it's registered as
+	an MXBean (ConversionMetricsMXBean) while it runs.  Not always, because starting the
+	platform MBean server costs more than converting a small file.  With -progress it prints how far it's got (by the position in the input file) and how long it has to
+	go, every so many seconds.  At the end there's a summary line, and toJson() for -metrics.
+*/
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class ConversionMetrics implements ConversionMetricsMXBean {
+	static final int SAMPLE = 64;	// one row in this many gets its writer calls timed
+	private static final AtomicLong ids = new AtomicLong();
+
+	// the counts of one thread
+	public static final class Counts {
+		long rows, rejected;
+		long typed, invalid;	// typed values written, and ones that didn't parse
+		long parseNanos, convertNanos;
+		long sampledNanos, serializeNanos;	// of the sampled rows
+		final long[] instances;		// per plan class
+		final long[][] triples;		// per plan class and property
+		private int untilSample = SAMPLE;
+		private TimedWriter timed;
+
+		Counts(CSVPlan plan) {
+			instances = new long[plan.classes.length];
+			triples = new long[plan.classes.length][];
+			for (int c = 0; c < triples.length; c++) triples[c] = new long[plan.classes[c].numProperties()];
+		}
+
+		public void convert(CSVRow row, CSVPlan plan, RDFWriter writer, InstanceDedupe dedupe, IdCache ids,
+		                    TypedValues typed, long number, long position) {
+			// writeInstances, timed.  (if the writer's buffer gets written out on the way,
+			// that's write time, not ours).  number and position are where the row is, for
+			// a SlowRow event (-1 if not known)
+			ConversionEvents.SlowRow slow = new ConversionEvents.SlowRow();
+			slow.begin();
+			long w0 = writer.out.writeNanos();
+			long t0 = System.nanoTime();
+			typed.at(number, position);
+			if (--untilSample > 0) {
+				csv2rdf.writeInstances(row, plan, writer, dedupe, ids, this, typed);
+				convertNanos += System.nanoTime() - t0 - (writer.out.writeNanos() - w0);
+			} else {
+				untilSample = SAMPLE;
+				if (timed == null || timed.writer != writer) timed = new TimedWriter(writer);
+				long s0 = timed.nanos;
+				csv2rdf.writeInstances(row, plan, timed, dedupe, ids, this, typed);
+				long w = writer.out.writeNanos() - w0;
+				long t = System.nanoTime() - t0 - w;
+				convertNanos += t;
+				sampledNanos += t;
+				serializeNanos += timed.nanos - s0 - w;
+			}
+			slow.end();
+			if (slow.shouldCommit()) {
+				slow.row = number;
+				slow.position = position;
+				slow.commit();
+			}
+		}
+		
+		void add(Counts c) {
+			rows += c.rows;
+			rejected += c.rejected;
+			typed += c.typed;
+			invalid += c.invalid;
+			parseNanos += c.parseNanos;
+			convertNanos += c.convertNanos;
+			sampledNanos += c.sampledNanos;
+			serializeNanos += c.serializeNanos;
+			for (int ci = 0; ci < instances.length; ci++) {
+				instances[ci] += c.instances[ci];
+				for (int p = 0; p < triples[ci].length; p++) triples[ci][p] += c.triples[ci][p];
+			}
+		}
+	}
+
+	private final String input;
+	private final CSVPlan plan;
+	private final ArrayList<Counts> counts = new ArrayList<Counts>();
+	private final ThreadLocal<Counts> threadCounts;
+	private final long start = System.nanoTime();
+	private long end;						// 0 while it's running
+	private LongSupplier position = () -> -1;
+	private long inputSize = -1;
+	private ByteOut out;
+	String output;			// (set by whoever knows)
+	String format;
+
+	private ObjectName name;
+	private ScheduledExecutorService progress;
+
+	public ConversionMetrics(String input, CSVPlan plan) {
+		this.input = input;
+		this.plan = plan;
+		this.threadCounts = ThreadLocal.withInitial(this::newCounts);
+	}
+
+	public Counts counts() {
+		// this thread's
+		return threadCounts.get();
+	}
+
+	private Counts newCounts() {
+		Counts c = new Counts(plan);
+		synchronized (counts) {
+			counts.add(c);
+		}
+		return c;
+	}
+
+	long position() {
+		// how far into the input (-1 if we can't tell)
+		return position.getAsLong();
+	}
+
+	public void track(LongSupplier position, long inputSize, ByteOut out) {
+		// where to find how far into the input we are, and the output
+		this.position = position;
+		this.inputSize = inputSize;
+		this.out = out;
+	}
+
+	public void start(int progressSeconds, boolean jmx) {
+		// show it in JMX, and print the progress every so often
+		if (jmx || System.getProperty("com.sun.management.jmxremote") != null
+				|| System.getProperty("com.sun.management.jmxremote.port") != null) register();
+		if (progressSeconds > 0) {
+			progress = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "progress");
+				t.setDaemon(true);
+				return t;
+			});
+			progress.scheduleAtFixedRate(() -> System.out.println(progressLine()), progressSeconds, progressSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName("csv2rdf:type=Conversion,id=" + ids.incrementAndGet() + ",input=" + ObjectName.quote(input));
+			server.registerMBean(this, name);
+		}
+		catch (Exception e) {
+			name = null;	// no JMX, no matter
+		}
+	}
+
+	public void finish() {
+		// (calling it again does nothing, convert calls it in a finally too)
+		if (end != 0) return;
+		end = System.nanoTime();
+		if (progress != null) progress.shutdownNow();
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			}
+			catch (Exception e) { }
+		}
+	}
+
+	String progressLine() {
+		StringBuilder sb = new StringBuilder("Progress: ");
+		double pct = getPercentDone();
+		if (pct >= 0) sb.append(String.format("%.1f%% of %.1f MB, ", pct, inputSize / 1e6));
+		sb.append(String.format("%d rows, %.1f MB/s", getRowsRead(), getBytesIn() / 1e6 / Math.max(getElapsedSeconds(), 1e-9)));
+		double togo = getSecondsToGo();
+		if (togo >= 0) sb.append(String.format(", about %.0f s to go", togo));
+		return sb.toString();
+	}
+
+	public String summary() {
+		double parse = getParseSeconds(), transform = getTransformSeconds(), serialize = getSerializeSeconds(), write = getWriteSeconds();
+		double total = Math.max(parse + transform + serialize + write, 1e-9);
+		long invalid = getInvalidValues();
+		return String.format("%d rows (%d rejected%s), %d triples, %.1f MB in, %.1f MB out in %.2f s (%.0f rows/s): "
+			+ "parse %.0f%%, transform %.0f%%, serialize %.0f%%, write %.0f%%",
+			getRowsRead(), getRowsRejected(), invalid > 0 ? ", " + invalid + " invalid values" : "", getTriples(), getBytesIn() / 1e6, getBytesOut() / 1e6, getElapsedSeconds(),
+			getRowsPerSecond(), 100 * parse / total, 100 * transform / total, 100 * serialize / total, 100 * write / total);
+	}
+
+	public String getInput() { return input; }
+
+	public long getRowsRead() {
+		long n = 0;
+		for (Counts c : snapshot()) n += c.rows;
+		return n;
+	}
+
+	public long getRowsRejected() {
+		long n = 0;
+		for (Counts c : snapshot()) n += c.rejected;
+		return n;
+	}
+
+	public long getTypedValues() {
+		long n = 0;
+		for (Counts c : snapshot()) n += c.typed;
+		return n;
+	}
+
+	public long getInvalidValues() {
+		long n = 0;
+		for (Counts c : snapshot()) n += c.invalid;
+		return n;
+	}
+
+	public long getBytesIn() {
+		long p = position.getAsLong();
+		return p >= 0 ? p : Math.max(inputSize, 0);
+	}
+
+	public long getBytesOut() { return out != null ? out.written() : 0; }
+	public long getInputSize() { return inputSize; }
+
+	public double getPercentDone() {
+		long p = position.getAsLong();
+		if (inputSize <= 0 || p < 0) return -1;
+		return Math.min(100.0, 100.0 * p / inputSize);
+	}
+
+	public double getSecondsToGo() {
+		double pct = getPercentDone();
+		if (pct <= 0 || getRowsRead() == 0) return -1;
+		return getElapsedSeconds() * (100 - pct) / pct;
+	}
+
+	public double getElapsedSeconds() {
+		return ((end != 0 ? end : System.nanoTime()) - start) / 1e9;
+	}
+
+	public double getRowsPerSecond() {
+		return getRowsRead() / Math.max(getElapsedSeconds(), 1e-9);
+	}
+
+	public double getParseSeconds() {
+		long n = 0;
+		for (Counts c : snapshot()) n += c.parseNanos;
+		return n / 1e9;
+	}
+
+	public double getTransformSeconds() {
+		return convertSeconds() - getSerializeSeconds();
+	}
+
+	public double getSerializeSeconds() {
+		long sampled = 0, serialize = 0;
+		for (Counts c : snapshot()) {
+			sampled += c.sampledNanos;
+			serialize += c.serializeNanos;
+		}
+		return sampled == 0 ? 0 : convertSeconds() * serialize / sampled;
+	}
+
+	public double getWriteSeconds() { return out != null ? out.writeNanos() / 1e9 : 0; }
+
+	private double convertSeconds() {
+		long n = 0;
+		for (Counts c : snapshot()) n += c.convertNanos;
+		return n / 1e9;
+	}
+
+	public long getTriples() {
+		// the rdf:type of each instance and each property
+		long n = 0;
+		for (long v : getInstancesPerClass().values()) n += v;
+		for (long v : getTriplesPerProperty().values()) n += v;
+		return n;
+	}
+
+	public Map<String, Long> getInstancesPerClass() {
+		LinkedHashMap<String, Long> m = new LinkedHashMap<String, Long>();
+		Counts[] all = snapshot();
+		for (int ci = 0; ci < plan.classes.length; ci++) {
+			long n = 0;
+			for (Counts c : all) n += c.instances[ci];
+			m.merge(plan.classes[ci].rdf_name, n, Long::sum);
+		}
+		return m;
+	}
+
+	public Map<String, Long> getTriplesPerProperty() {
+		// by property name (the same name in different classes is added together)
+		LinkedHashMap<String, Long> m = new LinkedHashMap<String, Long>();
+		Counts[] all = snapshot();
+		for (int ci = 0; ci < plan.classes.length; ci++) {
+			String[] names = plan.classes[ci].propNames;
+			for (int p = 0; p < names.length; p++) {
+				long n = 0;
+				for (Counts c : all) n += c.triples[ci][p];
+				m.merge(names[p], n, Long::sum);
+			}
+		}
+		return m;
+	}
+
+	private Counts[] snapshot() {
+		synchronized (counts) {
+			return counts.toArray(new Counts[counts.size()]);
+		}
+	}
+
+	public String toJson() {
+		// (Locale.ROOT: in German 0.083 would come out as 0,083, which isn't JSON)
+		StringBuilder sb = new StringBuilder("{\n");
+		field(sb, "input", input);
+		if (output != null) field(sb, "output", output);
+		if (format != null) field(sb, "format", format);
+		sb.append(String.format(Locale.ROOT, "  \"rows\": %d,%n  \"rejected\": %d,%n  \"invalidValues\": %d,%n  \"triples\": %d,%n",
+			getRowsRead(), getRowsRejected(), getInvalidValues(), getTriples()));
+		sb.append(String.format(Locale.ROOT, "  \"bytesIn\": %d,%n  \"bytesOut\": %d,%n", getBytesIn(), getBytesOut()));
+		sb.append(String.format(Locale.ROOT, "  \"seconds\": %.3f,%n  \"rowsPerSecond\": %.1f,%n  \"mbPerSecond\": %.2f,%n",
+			getElapsedSeconds(), getRowsPerSecond(), getBytesIn() / 1e6 / Math.max(getElapsedSeconds(), 1e-9)));
+		sb.append(String.format(Locale.ROOT, "  \"time\": {\"parse\": %.3f, \"transform\": %.3f, \"serialize\": %.3f, \"write\": %.3f},%n",
+			getParseSeconds(), getTransformSeconds(), getSerializeSeconds(), getWriteSeconds()));
+		sb.append("  \"instances\": ");
+		map(sb, getInstancesPerClass());
+		sb.append(",\n  \"triplesPerProperty\": ");
+		map(sb, getTriplesPerProperty());
+		sb.append("\n}");
+		return sb.toString();
+	}
+
+	private static void field(StringBuilder sb, String name, String value) {
+		sb.append("  ").append(quote(name)).append(": ").append(quote(value)).append(",\n");
+	}
+
+	private static void map(StringBuilder sb, Map<String, Long> m) {
+		sb.append('{');
+		boolean first = true;
+		for (Map.Entry<String, Long> e : m.entrySet()) {
+			if (!first) sb.append(", ");
+			first = false;
+			sb.append(quote(e.getKey())).append(": ").append(e.getValue());
+		}
+		sb.append('}');
+	}
+
+	static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') sb.append('\\').append(c);
+			else if (c < 0x20) sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			else sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+
+	/*
+		passes the instance calls on to the real writer and adds up how long they took,
+		for the sampled rows
+	*/
+	static final class TimedWriter extends RDFWriter {
+		final RDFWriter writer;
+		long nanos;
+
+		TimedWriter(RDFWriter writer) {
+			super(writer.out);
+			this.writer = writer;
+		}
+
+		public void startInstance(IdCache.Entry id, String className) {
+			long t0 = System.nanoTime();
+			writer.startInstance(id, className);
+			nanos += System.nanoTime() - t0;
+		}
+
+		public void continueInstance(IdCache.Entry id) {
+			long t0 = System.nanoTime();
+			writer.continueInstance(id);
+			nanos += System.nanoTime() - t0;
+		}
+
+		public void continueInstance(IdCache.Entry id, String className) {
+			long t0 = System.nanoTime();
+			writer.continueInstance(id, className);
+			nanos += System.nanoTime() - t0;
+		}
+
+		public void writeAttributeData(String attName, String attData) {
+			long t0 = System.nanoTime();
+			writer.writeAttributeData(attName, attData);
+			nanos += System.nanoTime() - t0;
+		}
+
+		public void writeTypedData(String attName, byte[] value, int length, LiteralType type) {
+			long t0 = System.nanoTime();
+			writer.writeTypedData(attName, value, length, type);
+			nanos += System.nanoTime() - t0;
+		}
+
+		public void writeAttributeDataResource(String attName, IdCache.Entry attData) {
+			long t0 = System.nanoTime();
+			writer.writeAttributeDataResource(attName, attData);
+			nanos += System.nanoTime() - t0;
+		}
+
+		public void endInstance() {
+			long t0 = System.nanoTime();
+			writer.endInstance();
+			nanos += System.nanoTime() - t0;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+/*
+	interface ConversionMetricsMXBean
+	what a conversion shows over JMX while it runs (jconsole, or anything that reads JMX),
+	as csv2rdf:type=Conversion,id=<n>,input=<file>.  See ConversionMetrics.
+
+	The numbers are read while the threads are still adding to them, so they can be a
+	moment behind.
+*/
+
+import java.util.Map;
+
+public interface ConversionMetricsMXBean {
+	String getInput();
+	long getRowsRead();
+	long getRowsRejected();
+	long getTypedValues();			// values written as typed literals
+	long getInvalidValues();		// typed values that didn't parse
+	long getBytesIn();
+	long getBytesOut();
+	long getInputSize();			// -1 if we don't know (stdin)
+	double getPercentDone();		// -1 if we don't know
+	double getSecondsToGo();		// -1 if we don't know
+	double getElapsedSeconds();
+	double getRowsPerSecond();
+	double getParseSeconds();
+	double getTransformSeconds();
+	double getSerializeSeconds();
+	double getWriteSeconds();
+	long getTriples();
+	Map<String, Long> getInstancesPerClass();
+	Map<String, Long> getTriplesPerProperty();
+}
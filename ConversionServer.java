@@ -0,0 +1,317 @@
+/*
+	class ConversionServer
+	keeps csv2rdf running and converts whatever is sent to it over HTTP, so a feed that
+	comes in every few minutes doesn't pay for starting and warming up java every time.
+
+	   java -jar csv2rdf.jar -serve <port> [-jobs n] [-config-dir <dir>] [-config <file>] [options]
+
+	It only listens on localhost.  The options are the defaults for every request.
+
+	   POST /convert?config=<name>     the csv is the body (gzipped is fine), the RDF comes back
+	                                   as it's written (chunked), not after the whole thing is done
+	        config=<name>      <config-dir>/<name>-config.csv (or <name> itself if it ends in .csv)
+	        format=<f>         xml, nt, nq, ttl or rdfb, instead of -format
+	        base=, graph=      like -base and -graph
+	        dedupe=1, merge=1  like -dedupe and -merge
+	        gzip=1             gzip the RDF (Content-Encoding: gzip)
+	     with a header "X-Config-Length: <n>" the first n bytes of the body are the config
+	     file itself and the csv comes after it, instead of a config name
+	   GET /status                     how many are running, waiting and done, and so on
+
+	   curl --data-binary @shipments.csv "http://localhost:8080/convert?config=shipments&format=ttl"
+
+	Config files are read once and kept (ConfigCache), and read again if they change.
+
+	Only -jobs conversions run at a time (one per core by default).  The next few wait their
+	turn, and after MAX_WAITING per job more are turned away with 503 straight off, so a flood
+	of requests can't run the machine out of memory.
+
+	If the config or the csv is no good the answer is 400 with what was wrong.  Once the RDF has
+	started coming back it's too late for that: if something goes wrong after that the
+	connection is just dropped, so the client gets an error and not half a file that looks
+	finished.
+*/
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConversionServer {
+	static final int MAX_WAITING = 4;	// per job
+	static final int MAX_INLINE_CONFIG = 1 << 20;
+
+	private final String[] args;	// the command line, each request starts from these options
+	private final ConvertOptions options;
+	private final Path configDir;
+	private final ConfigCache configs;
+	private final Semaphore slots;
+	private final int maxWaiting;
+
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicLong done = new AtomicLong(), failed = new AtomicLong(), refused = new AtomicLong(), busy = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong(), bytesOut = new AtomicLong();
+
+	ConversionServer(String[] args, ConvertOptions options) {
+		this.args = args;
+		this.options = options;
+		this.configs = new ConfigCache(options.compiledConfig);
+		this.configDir = Paths.get(options.configDir).toAbsolutePath().normalize();
+		this.slots = new Semaphore(options.jobs, true);
+		this.maxWaiting = options.jobs * MAX_WAITING;
+	}
+
+	public static void run(String[] args, ConvertOptions options) throws IOException {
+		ConversionServer cs = new ConversionServer(args, options);
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), options.serve), 0);
+		server.createContext("/convert", cs::convert);
+		server.createContext("/status", cs::status);
+		// a thread per connection (virtual if we can), the slots are what limits the work
+		server.setExecutor(Executors.newCachedThreadPool(BatchConverter.threadFactory()));
+		server.start();
+		System.out.println("Listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+			+ "/convert, " + options.jobs + " jobs at a time, configs from " + cs.configDir);
+	}
+
+	private void convert(HttpExchange ex) throws IOException {
+		// (not closed if the conversion throws: the connection has to be dropped, see above)
+		if (!ex.getRequestMethod().equals("POST")) {
+			error(ex, 405, "POST the csv to /convert");
+			ex.close();
+			return;
+		}
+		if (waiting.incrementAndGet() > maxWaiting) {
+			waiting.decrementAndGet();
+			busy.incrementAndGet();
+			error(ex, 503, "Busy, try again later");
+			ex.close();
+			return;
+		}
+		try {
+			slots.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error(ex, 503, "Shutting down");
+			ex.close();
+			return;
+		}
+		finally {
+			waiting.decrementAndGet();
+		}
+		running.incrementAndGet();
+		try {
+			if (convertRequest(ex)) done.incrementAndGet();
+			else refused.incrementAndGet();
+		}
+		catch (IOException | RuntimeException e) {
+			failed.incrementAndGet();
+			throw e;
+		}
+		finally {
+			running.decrementAndGet();
+			slots.release();
+		}
+		ex.close();
+	}
+
+	private boolean convertRequest(HttpExchange ex) throws IOException {
+		// false if it was no good (and got a 400)
+		long t0 = System.nanoTime();
+		Map<String, String> query = query(ex.getRequestURI().getRawQuery());
+		ConvertOptions o;
+		CSVConfig config;
+		String configName;
+		try {
+			o = requestOptions(query);
+			String inlineLength = ex.getRequestHeaders().getFirst("X-Config-Length");
+			if (inlineLength != null) {
+				configName = "(inline)";
+				config = configs.inline(readConfig(ex.getRequestBody(), inlineLength));
+			} else {
+				configName = query.get("config");
+				config = configs.config(configFile(configName));
+			}
+		}
+		catch (IllegalArgumentException | IOException e) {
+			error(ex, 400, e instanceof NoSuchFileException ? "No config file " + e.getMessage()
+				: e.getMessage() != null ? e.getMessage() : e.toString());
+			return false;
+		}
+
+		CountingInputStream in = new CountingInputStream(CSVRowReader.uncompressed(ex.getRequestBody()));
+		CSVRowReader reader = CSVRowReader.open(in, o.useOpenCSV);
+		CSVRow header = reader.readNext();
+		if (header == null) {
+			reader.close();
+			error(ex, 400, "No csv in the request");
+			return false;
+		}
+
+		String format = o.format != null ? o.format : "xml";
+		Headers h = ex.getResponseHeaders();
+		h.set("Content-Type", contentType(format));
+		if (o.gzip) h.set("Content-Encoding", "gzip");
+		ex.sendResponseHeaders(200, 0);	// chunked, the length isn't known until the end
+		CountedOut out = new CountedOut(ex.getResponseBody());
+		OutputStream os = o.gzip ? new ParallelGzipOutputStream(out, o.gzipThreads) : out;
+		try {
+			csv2rdf.convert(o, "request", reader, header.toArray(), config, RDFWriter.create(format, os, o.base, o.graph));
+		}
+		catch (IOException | RuntimeException e) {
+			// too late to say so with a status, drop the connection (HttpServer does that when we throw)
+			System.err.println("Conversion with config " + configName + " failed: " + e);
+			throw e;
+		}
+		finally {
+			bytesIn.addAndGet(in.count());
+			bytesOut.addAndGet(out.count);
+		}
+		System.out.println(String.format("Converted %.1f MB with config %s to %.1f MB of %s in %.2f s",
+			in.count() / 1e6, configName, out.count / 1e6, format, (System.nanoTime() - t0) / 1e9));
+		return true;
+	}
+
+	private ConvertOptions requestOptions(Map<String, String> query) {
+		// the server's options, with what the request asks for on top
+		ConvertOptions o = ConvertOptions.parse(args);
+		o.jmx = true;	// the MBean server is only started once here, and it's worth watching
+		for (Map.Entry<String, String> e : query.entrySet()) {
+			String k = e.getKey(), v = e.getValue();
+			if (k.equals("config")) {
+				continue;
+			} else if (k.equals("format")) {
+				o.format = v.toLowerCase();
+				if (!Arrays.asList(RDFWriter.FORMATS).contains(o.format))
+					throw new IllegalArgumentException("Unknown format " + o.format);
+			} else if (k.equals("base")) {
+				o.base = v;
+			} else if (k.equals("graph")) {
+				o.graph = v;
+			} else if (k.equals("dedupe")) {
+				o.dedupe = flag(v);
+			} else if (k.equals("merge")) {
+				o.merge = flag(v);
+				if (o.merge) o.dedupe = true;
+			} else if (k.equals("gzip")) {
+				o.gzip = flag(v);
+			} else {
+				throw new IllegalArgumentException("Unknown parameter " + k);
+			}
+		}
+		return o;
+	}
+
+	private String configFile(String name) {
+		// a config by name, only from the config directory
+		if (name == null) {
+			if (options.configFile != null) return options.configFile;
+			throw new IllegalArgumentException("Which config?  Send config=<name> or the config itself (X-Config-Length)");
+		}
+		if (name.length() == 0 || name.startsWith(".") || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0)
+			throw new IllegalArgumentException("Bad config name " + name);
+		return configDir.resolve(name.endsWith(".csv") ? name : name + "-config.csv").toString();
+	}
+
+	private static byte[] readConfig(InputStream body, String length) throws IOException {
+		int n;
+		try {
+			n = Integer.parseInt(length.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("X-Config-Length needs a number, not " + length);
+		}
+		if (n < 0 || n > MAX_INLINE_CONFIG) throw new IllegalArgumentException("X-Config-Length " + n + " is too big");
+		byte[] b = body.readNBytes(n);
+		if (b.length < n) throw new IllegalArgumentException("The body is shorter than X-Config-Length");
+		return b;
+	}
+
+	private void status(HttpExchange ex) throws IOException {
+		String s = String.format("running %d%nwaiting %d%ndone %d%nfailed %d%nrefused %d%nbusy %d%nMB in %.1f%nMB out %.1f%nconfigs %d%njobs %d%n",
+			running.get(), waiting.get(), done.get(), failed.get(), refused.get(), busy.get(),
+			bytesIn.get() / 1e6, bytesOut.get() / 1e6, configs.size(), options.jobs);
+		reply(ex, 200, s);
+		ex.close();
+	}
+
+	private static void error(HttpExchange ex, int code, String message) throws IOException {
+		System.err.println(ex.getRequestMethod() + " " + ex.getRequestURI() + ": " + code + " " + message);
+		reply(ex, code, message + "\n");
+	}
+
+	private static void reply(HttpExchange ex, int code, String text) throws IOException {
+		byte[] b = text.getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		ex.sendResponseHeaders(code, b.length);
+		ex.getResponseBody().write(b);
+	}
+
+	static String contentType(String format) {
+		if (format.equals("nt")) return "application/n-triples";
+		if (format.equals("nq")) return "application/n-quads";
+		if (format.equals("ttl")) return "text/turtle";
+		if (format.equals("rdfb")) return "application/octet-stream";
+		return "application/rdf+xml";
+	}
+
+	static Map<String, String> query(String raw) {
+		HashMap<String, String> m = new HashMap<String, String>();
+		if (raw == null) return m;
+		for (String pair : raw.split("&")) {
+			if (pair.length() == 0) continue;
+			int eq = pair.indexOf('=');
+			String k = eq < 0 ? pair : pair.substring(0, eq);
+			String v = eq < 0 ? "" : pair.substring(eq + 1);
+			m.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+		}
+		return m;
+	}
+
+	private static boolean flag(String v) {
+		return v.length() == 0 || v.equals("1") || v.equalsIgnoreCase("true") || v.equalsIgnoreCase("yes");
+	}
+
+
+	// counting the bytes that go through, for the log and /status.
+	// closing it doesn't end the response: ex.close() does that once the conversion worked,
+	// and if it failed (the writer is aborted, which closes it) the connection is dropped instead
+	private static final class CountedOut extends FilterOutputStream {
+		long count;
+
+		CountedOut(OutputStream out) { super(out); }
+
+		public void close() throws IOException {
+			out.flush();
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
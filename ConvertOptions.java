@@ -0,0 +1,248 @@
+/*
+	class ConvertOptions
+	the command line for csv2rdf.
+
+	   java -jar csv2rdf.jar [options] <csv file name>
+
+	anything that doesn't start with "-" is the input file (defaults to input.csv, can be gzipped).
+	"-" is stdin, and then the RDF goes to stdout unless there's a -o (pipe mode).
+	options:
+	   -batch <what>    convert many files: a directory (all the .csv and .csv.gz in it), a glob
+	                    like "feeds/carrier-*.csv", or a manifest file listing them one per line
+	   -jobs <n>        with -batch, how many files at a time (0 = one per core, the default),
+	                    with -serve how many requests are converted at a time
+	   -serve <port>    stay running and convert what's sent over HTTP on localhost (ConversionServer)
+	   -config-dir <dir>  with -serve, where config=<name> looks for <name>-config.csv.  Default "."
+	   -config <file>   the config file, instead of <input base name>-config.csv (needed for stdin)
+	   -no-compiled-config  don't keep the config compiled in <config file>.compiled (CompiledConfig),
+	                    read it every time
+	   -threads <n>     convert rows on n threads (0 = one per core).  Default 1.
+	   -opencsv         read the input with opencsv instead of memory mapping it
+	   -dedupe          write each instance (class + ID) only once
+	   -merge           with -dedupe, add values a repeated instance didn't have yet
+	   -dedupe-memory <MB>  memory for remembering instances before using disk.  Default 256.
+	   -id-cache <n>    how many IDs to keep sanitized and encoded, per thread.  Default 65536.
+	   -o <file>        write to this file (the format comes from the extension: .rdf .nt .nq .ttl .rdfb), - for stdout
+	   -gzip            gzip the output.  Also if the -o name ends in .gz.
+	   -gzip-threads <n>  how many threads gzip the output (0 = one per core, the default).
+	                    Not the same as -threads: a conversion on one thread still has its
+	                    output gzipped on all the cores, so the gzipping doesn't hold it back
+	   -format <f>      xml, nt (N-Triples), nq (N-Quads), ttl (Turtle) or rdfb (binary).  Default xml.
+	   -base <iri>      what IDs are relative to in nt/nq/ttl.  Default the sample namespace.
+	   -graph <iri>     graph name for nq
+	   -append          only convert the rows added to the csv since the last -append run, and add
+	                    them to the RDF from then (IncrementalConverter)
+	   -checkpoint <secs>  every so many seconds save how far it's got (<output>.checkpoint), so
+	                    a run that dies can be carried on with -resume (Checkpoint)
+	   -resume          carry on from the last checkpoint instead of starting again
+	   -shard <how>     write several output files instead of one (ShardedWriter): class (a file
+	                    per class), hash (-shards files, by the ID) or size (a new one every
+	                    -shard-size MB), with <output base>.manifest.json listing them.
+	                    Converts on one thread, so not with -threads
+	   -shards <n>      with -shard hash, how many.  Default 4.
+	   -shard-size <MB> with -shard size, how big each one gets.  Default 1024.
+	   -progress <secs> print how far it's got every so many seconds (0 = don't).  Default 10.
+	   -jmx             show the conversion's counts in JMX while it runs (on anyway in the server)
+	   -metrics <file>  write what the conversion did (rows, triples, times...) as JSON at the end,
+	                    for whatever runs it to check (see ConversionMetrics)
+	   -rejects <file>  write the rows with the wrong number of cells and the typed values that
+	                    didn't parse to this csv file (see Rejects).  Not with -batch or -serve
+*/
+
+import java.util.Arrays;
+
+public class ConvertOptions {
+	static final String INPUT_FILE="input.csv";
+	static final String STDIO = "-";	// as a file name: stdin or stdout
+
+	String fileName = INPUT_FILE;
+	String configFile = null;	// null = <input base name>-config.csv
+	boolean compiledConfig = true;
+	String batch = null;
+	int serve = -1;			// port, -1 = not a server
+	String configDir = ".";
+	int jobs = 0;
+	int threads = 1;
+	boolean useOpenCSV = false;
+	boolean dedupe = false;
+	boolean merge = false;
+	long dedupeMemory = 256L * 1024 * 1024;
+	int idCacheSize = IdCache.DEFAULT_SIZE;
+	String outputFile = null;	// null = <input base name>.<format extension>
+	boolean gzip = false;
+	int gzipThreads = 0;		// 0 = one per core
+	String format = null;		// null = from outputFile, or xml
+	String base = null;
+	String graph = null;
+	int progress = 10;			// seconds between progress lines, 0 = none
+	String metricsFile = null;
+	String rejectsFile = null;
+	boolean jmx = false;
+	boolean append = false;
+	int checkpoint = 0;			// seconds between checkpoints, 0 = none
+	boolean resume = false;
+	String shard = null;		// class, hash or size, null = one output file
+	int shards = ShardedWriter.DEFAULT_SHARDS;
+	long shardSize = ShardedWriter.DEFAULT_SIZE_MB * 1024L * 1024;
+
+	public static ConvertOptions parse(String[] args) {
+		ConvertOptions o = new ConvertOptions();
+
+		for (int i = 0; i < args.length; i++) {
+			String a = args[i];
+			if (a.equals(STDIO)) {
+				o.fileName = STDIO;
+			} else if (a.equals("-batch")) {
+				o.batch = stringArg(args, ++i, a);
+			} else if (a.equals("-serve")) {
+				o.serve = intArg(args, ++i, a);
+			} else if (a.equals("-config-dir")) {
+				o.configDir = stringArg(args, ++i, a);
+			} else if (a.equals("-jobs")) {
+				o.jobs = intArg(args, ++i, a);
+			} else if (a.equals("-config")) {
+				o.configFile = stringArg(args, ++i, a);
+			} else if (a.equals("-no-compiled-config")) {
+				o.compiledConfig = false;
+			} else if (a.equals("-threads")) {
+				o.threads = intArg(args, ++i, a);
+				if (o.threads <= 0) o.threads = Runtime.getRuntime().availableProcessors();
+			} else if (a.equals("-opencsv")) {
+				o.useOpenCSV = true;
+			} else if (a.equals("-dedupe")) {
+				o.dedupe = true;
+			} else if (a.equals("-merge")) {
+				o.dedupe = o.merge = true;
+			} else if (a.equals("-dedupe-memory")) {
+				o.dedupeMemory = intArg(args, ++i, a) * 1024L * 1024;
+			} else if (a.equals("-id-cache")) {
+				o.idCacheSize = intArg(args, ++i, a);
+			} else if (a.equals("-o")) {
+				o.outputFile = stringArg(args, ++i, a);
+			} else if (a.equals("-gzip")) {
+				o.gzip = true;
+			} else if (a.equals("-gzip-threads")) {
+				o.gzipThreads = intArg(args, ++i, a);
+			} else if (a.equals("-format")) {
+				o.format = stringArg(args, ++i, a).toLowerCase();
+				if (!Arrays.asList(RDFWriter.FORMATS).contains(o.format))
+					throw new IllegalArgumentException("Unknown format " + o.format);
+			} else if (a.equals("-base")) {
+				o.base = stringArg(args, ++i, a);
+			} else if (a.equals("-graph")) {
+				o.graph = stringArg(args, ++i, a);
+			} else if (a.equals("-progress")) {
+				o.progress = intArg(args, ++i, a);
+			} else if (a.equals("-append")) {
+				o.append = true;
+			} else if (a.equals("-checkpoint")) {
+				o.checkpoint = intArg(args, ++i, a);
+			} else if (a.equals("-resume")) {
+				o.resume = true;
+			} else if (a.equals("-shard")) {
+				o.shard = stringArg(args, ++i, a).toLowerCase();
+				if (!Arrays.asList(ShardedWriter.MODES).contains(o.shard))
+					throw new IllegalArgumentException("-shard is class, hash or size, not " + o.shard);
+			} else if (a.equals("-shards")) {
+				o.shards = intArg(args, ++i, a);
+				if (o.shards <= 0) throw new IllegalArgumentException("-shards needs at least 1");
+			} else if (a.equals("-shard-size")) {
+				o.shardSize = intArg(args, ++i, a) * 1024L * 1024;
+			} else if (a.equals("-jmx")) {
+				o.jmx = true;
+			} else if (a.equals("-metrics")) {
+				o.metricsFile = stringArg(args, ++i, a);
+			} else if (a.equals("-rejects")) {
+				o.rejectsFile = stringArg(args, ++i, a);
+			} else if (a.startsWith("-")) {
+				throw new IllegalArgumentException("Unknown option " + a);
+			} else {
+				o.fileName = a;
+			}
+		}
+		if (o.jobs <= 0) o.jobs = Runtime.getRuntime().availableProcessors();
+		if (o.gzipThreads <= 0) o.gzipThreads = Runtime.getRuntime().availableProcessors();
+		if (o.batch != null && (o.outputFile != null || o.fileName.equals(STDIO)))
+			throw new IllegalArgumentException("-batch writes each file next to its csv, it can't use -o or stdin");
+		if (o.serve >= 0 && (o.batch != null || o.outputFile != null || o.fileName.equals(STDIO)))
+			throw new IllegalArgumentException("-serve sends the RDF back to whoever asked, it can't use -batch, -o or stdin");
+		if (o.append) {
+			String format = csv2rdf.outputFormat(o);
+			if (o.fileName.equals(STDIO) || o.serve >= 0 || (o.outputFile != null && o.outputFile.equals(STDIO)))
+				throw new IllegalArgumentException("-append adds to an output file from a csv file, not stdin or stdout or -serve");
+			if (o.gzip || (o.outputFile != null && o.outputFile.endsWith(".gz")) || format.equals("rdfb") || o.dedupe)
+				throw new IllegalArgumentException("-append can't be used with gzipped output, rdfb or -dedupe");
+		}
+		if (o.resume && o.checkpoint <= 0) o.checkpoint = Checkpoint.DEFAULT_SECONDS;
+		if (o.checkpoint > 0) {
+			String format = csv2rdf.outputFormat(o);
+			if (o.fileName.equals(STDIO) || o.batch != null || o.serve >= 0 || o.toStdout())
+				throw new IllegalArgumentException("-checkpoint and -resume are for one csv file to an output file, not stdin, stdout, -batch or -serve");
+			if (o.useOpenCSV || o.append || o.gzip || (o.outputFile != null && o.outputFile.endsWith(".gz")) || format.equals("rdfb"))
+				throw new IllegalArgumentException("-checkpoint and -resume can't be used with -opencsv, -append, gzipped output or rdfb");
+		}
+		if (o.shard != null && (o.toStdout() || o.serve >= 0 || o.append || o.checkpoint > 0))
+			throw new IllegalArgumentException("-shard writes files, it can't be used with stdout, -serve, -append, -checkpoint or -resume");
+		if (o.shard != null && o.threads > 1)
+			throw new IllegalArgumentException("-shard converts on one thread (each shard is written on a thread of its own), it can't be used with -threads");
+		if (o.rejectsFile != null && (o.batch != null || o.serve >= 0))
+			throw new IllegalArgumentException("-rejects is for one conversion, not -batch or -serve");
+		if (o.fileName.equals(STDIO) && o.configFile == null)
+			throw new IllegalArgumentException("Reading from stdin needs a -config file");
+		return o;
+	}
+
+	public boolean toStdout() {
+		// pipe mode: the RDF goes to stdout (so messages have to go to stderr)
+		if (outputFile != null) return outputFile.equals(STDIO);
+		return fileName.equals(STDIO);
+	}
+
+	static String stringArg(String[] args, int i, String option) {
+		if (i >= args.length) throw new IllegalArgumentException(option + " needs a value");
+		return args[i];
+	}
+
+	static int intArg(String[] args, int i, String option) {
+		String s = stringArg(args, i, option);
+		try {
+			return Integer.parseInt(s);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option + " needs a number, not " + s);
+		}
+	}
+
+	public static void printUsage() {
+		System.err.println("usage: java -jar csv2rdf.jar [options] <csv file name>");
+		System.err.println("       ... | java -jar csv2rdf.jar -config <config file> [options] - | ...");
+		System.err.println("       java -jar csv2rdf.jar -batch <directory | glob | manifest> [-jobs n] [options]");
+		System.err.println("       java -jar csv2rdf.jar -serve <port> [-jobs n] [-config-dir <dir>] [options]");
+		System.err.println("   -config <file>   config file (default <csv base name>-config.csv)");
+		System.err.println("   -no-compiled-config  read the config every time, without <config file>.compiled");
+		System.err.println("   -batch <what>    a directory, glob or manifest of csv files to convert");
+		System.err.println("   -jobs <n>        with -batch or -serve, files converted at the same time (0 = one per core)");
+		System.err.println("   -serve <port>    convert csv POSTed to http://localhost:<port>/convert?config=<name>");
+		System.err.println("   -config-dir <dir>  with -serve, where the <name>-config.csv files are (default .)");
+		System.err.println("   -threads <n>     convert rows on n threads (0 = one per core)");
+		System.err.println("   -opencsv         read the input with opencsv instead of memory mapping it");
+		System.err.println("   -dedupe          write each instance (class + ID) only once");
+		System.err.println("   -merge           with -dedupe, add values a repeated instance didn't have yet");
+		System.err.println("   -dedupe-memory <MB>  memory for remembering instances before using disk (default 256)");
+		System.err.println("   -id-cache <n>    IDs to keep sanitized and encoded, per thread (default 65536, 0 = none)");
+		System.err.println("   -o <file>        output file, format from the extension (.rdf .nt .nq .ttl .rdfb)");
+		System.err.println("   -gzip            gzip the output (also if the -o name ends in .gz)");
+		System.err.println("   -gzip-threads <n>  threads that gzip the output (default 0 = one per core)");
+		System.err.println("   -format <f>      xml, nt, nq, ttl or rdfb");
+		System.err.println("   -base <iri>      what IDs are relative to in nt/nq/ttl");
+		System.err.println("   -graph <iri>     graph name for nq");
+		System.err.println("   -append          convert only the rows added since the last -append run");
+		System.err.println("   -checkpoint <secs>  save how far it's got this often, for -resume");
+		System.err.println("   -resume          carry on from the last checkpoint (see -checkpoint)");
+		System.err.println("   -shard <how>     several output files: class, hash (-shards n) or size (-shard-size MB)");
+		System.err.println("   -progress <secs> how often to print the progress (default 10, 0 = never)");
+		System.err.println("   -jmx             register an MXBean for each conversion while it runs");
+		System.err.println("   -metrics <file>  write a JSON summary of the conversion to this file");
+		System.err.println("   -rejects <file>  write the rows and typed values that couldn't be converted to this csv");
+	}
+}
@@ -0,0 +1,40 @@
+/*
+	class CountingInputStream
+	counts the bytes read through it, for how far into the input we are (progress, and
+	ConversionServer's bytes in).  Under a GZIPInputStream it counts the compressed bytes,
+	which is what goes with the size of the file.
+*/
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class CountingInputStream extends FilterInputStream {
+	private volatile long count;	// (read by the progress thread)
+
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	public long count() {
+		return count;
+	}
+
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) count++;
+		return b;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n > 0) count += n;
+		return n;
+	}
+
+	public long skip(long n) throws IOException {
+		long k = super.skip(n);
+		count += k;
+		return k;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+	class FingerprintSet
+	a set of 64 bit fingerprints (hashes) that lives outside the Java heap and spills
+	to disk when it gets bigger than its memory budget.
+
+	In memory it's an open addressing hash table in a direct ByteBuffer, 8 bytes a slot
+	(0 means empty, so a fingerprint of 0 is stored as 1).  When the table is 3/4 full
+	its contents are sorted and merged into a spill file of sorted longs, and the table
+	starts over empty.  There is only ever one spill file: each spill merges the old file
+	and the new entries into a new one.  Lookups check the table, then binary search the
+	mapped spill file.  (Sorting borrows a heap array the size of the table for a moment.)
+
+	NOTE: it's a set of hashes, not of the values themselves.  Two different values with
+	the same 64 bit fingerprint look like the same one.  With a good hash the chance of
+	that happening at all is about n*n / 2^65: 1 in 40 million for a million values,
+	1 in 4000 for a hundred million.
+*/
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class FingerprintSet {
+	private static final int SEGMENT_LONGS = 1 << 27;	// spill file is mapped 1 GB at a time
+
+	private final ByteBuffer table;
+	private final int mask;			// slots - 1
+	private final int maxEntries;	// spill when we get here
+	private int entries;
+
+	private Path spillFile;
+	private long spilled;				// number of longs in the spill file
+	private ArrayList<LongBuffer> segments = new ArrayList<LongBuffer>();
+	private int spills;					// how many times we've gone to disk
+
+	public FingerprintSet(long memoryBudget) {
+		// slots is the biggest power of 2 that fits in the budget
+		long slots = Long.highestOneBit(Math.max(1024, Math.min(memoryBudget / 8, 1L << 27)));
+		table = ByteBuffer.allocateDirect((int) (slots * 8));
+		mask = (int) slots - 1;
+		maxEntries = (int) (slots / 4 * 3);
+	}
+
+	public boolean add(long fp) {
+		// returns true if fp wasn't in the set before
+		if (fp == 0) fp = 1;
+		int i = (int) mix(fp) & mask;
+		while (true) {
+			long v = table.getLong(i << 3);
+			if (v == fp) return false;
+			if (v == 0) break;
+			i = (i + 1) & mask;
+		}
+		if (spilled > 0 && inSpill(fp)) return false;
+		table.putLong(i << 3, fp);
+		if (++entries >= maxEntries) spill();
+		return true;
+	}
+
+	public long size() { return entries + spilled; }
+	public int spills() { return spills; }
+
+	public void close() {
+		// get rid of the spill file
+		segments.clear();
+		if (spillFile != null) {
+			try {
+				Files.deleteIfExists(spillFile);
+			}
+			catch (IOException e) { /* it's in the temp directory anyway */ }
+			spillFile = null;
+		}
+	}
+
+	private static long mix(long h) {
+		// spread the bits so the low ones are good for the slot number (murmur3 fmix64)
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private boolean inSpill(long fp) {
+		long lo = 0, hi = spilled - 1;
+		while (lo <= hi) {
+			long mid = (lo + hi) >>> 1;
+			long v = spillAt(mid);
+			if (v < fp) lo = mid + 1;
+			else if (v > fp) hi = mid - 1;
+			else return true;
+		}
+		return false;
+	}
+
+	private long spillAt(long i) {
+		return segments.get((int) (i / SEGMENT_LONGS)).get((int) (i % SEGMENT_LONGS));
+	}
+
+	private void spill() {
+		// sort what's in the table and merge it with the old spill file into a new one
+		long[] sorted = new long[entries];
+		int n = 0;
+		for (int i = 0; i <= mask; i++) {
+			long v = table.getLong(i << 3);
+			if (v != 0) sorted[n++] = v;
+		}
+		Arrays.sort(sorted);
+
+		try {
+			Path newFile = Files.createTempFile("csv2rdf-dedupe", ".spill");
+			long total = 0;
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFile.toFile()), 1 << 16))) {
+				long j = 0;
+				for (int i = 0; i < n; i++) {
+					while (j < spilled && spillAt(j) < sorted[i]) { out.writeLong(spillAt(j++)); total++; }
+					out.writeLong(sorted[i]);
+					total++;
+				}
+				while (j < spilled) { out.writeLong(spillAt(j++)); total++; }
+			}
+			close();	// the old file
+			spillFile = newFile;
+			spilled = total;
+			try (FileChannel ch = FileChannel.open(newFile, StandardOpenOption.READ)) {
+				for (long pos = 0; pos < total * 8; pos += (long) SEGMENT_LONGS * 8) {
+					long len = Math.min((long) SEGMENT_LONGS * 8, total * 8 - pos);
+					segments.add(ch.map(FileChannel.MapMode.READ_ONLY, pos, len).asLongBuffer());
+				}
+			}
+		}
+		catch (IOException e) { throw new UncheckedIOException(e); }
+
+		// empty the table
+		for (int i = 0; i <= mask; i++) table.putLong(i << 3, 0);
+		entries = 0;
+		spills++;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+	class IdCache
+	remembers the IDs we've already sanitized and encoded for the writer.
+
+	Every instance ID and every resource value goes through fixAttributeName and then gets
+	encoded (and for some formats escaped) by the writer, but most of them are the same few
+	thousand shippers, carriers and countries over and over.  This keeps the finished bytes
+	for each one, looked up by the raw cell: for a MappedCSVReader row that's the bytes in the
+	mapped file, so a hit doesn't make a String at all.  (For opencsv rows it's the String.)
+
+	The cache has a fixed number of entries.  When it's full, a new one replaces an old one
+	picked by the clock algorithm: every entry has a "used" bit that a hit sets, and the
+	clock hand goes round clearing the bits until it finds an entry that hasn't been used
+	since the last time round.  That's nearly as good as LRU and a hit only sets a boolean.
+
+	It isn't thread safe.  Each thread gets its own with child(), and report() adds up the
+	hits and misses of the whole family, so the size can be tuned with -id-cache.
+*/
+
+import java.util.ArrayList;
+
+public class IdCache {
+	public static final int DEFAULT_SIZE = 1 << 16;
+	private static final int MAX_KEY = 256;	// longer cells aren't worth keeping
+
+	public static final class Entry {
+		public final String id;			// sanitized (fixAttributeName)
+		public final byte[] encoded;	// as the writer writes it (RDFWriter.encodeId)
+
+		Entry(String id, byte[] encoded) {
+			this.id = id;
+			this.encoded = encoded;
+		}
+	}
+
+	private final RDFWriter writer;
+	private final int size;	// 0 = don't cache anything
+	private final int mask;
+	private final int[] heads;		// bucket -> first entry + 1
+	private final int[] next;		// entry -> next in the bucket + 1
+	private final int[] hashes;
+	private final Object[] keys;	// byte[] from a mapped row, or the String
+	private final Entry[] values;
+	private final boolean[] used;
+	private int count;
+	private int hand;					// the clock
+
+	long hits, misses, evictions;
+	private final ArrayList<IdCache> children = new ArrayList<IdCache>();
+
+	public IdCache(RDFWriter writer, int size) {
+		this.writer = writer;
+		this.size = Math.max(0, size);
+		int buckets = Integer.highestOneBit(Math.max(1, this.size) * 2 - 1) * 2;
+		mask = buckets - 1;
+		heads = new int[this.size == 0 ? 1 : buckets];
+		next = new int[this.size];
+		hashes = new int[this.size];
+		keys = new Object[this.size];
+		values = new Entry[this.size];
+		used = new boolean[this.size];
+	}
+
+	public IdCache child(RDFWriter writer) {
+		// the same size of cache for another thread (and that thread's writer)
+		IdCache c = new IdCache(writer, size);
+		synchronized (children) {
+			children.add(c);
+		}
+		return c;
+	}
+
+	public Entry get(CSVRow row, int col) {
+		// the sanitized, encoded ID in this cell (which has data)
+		MappedCSVReader.Row raw = (row instanceof MappedCSVReader.Row) ? (MappedCSVReader.Row) row : null;
+		String s = null;
+		int h;
+		if (raw != null) {
+			h = raw.cellHash(col);
+		} else {
+			s = row.get(col);
+			h = s.hashCode();
+		}
+
+		if (size > 0) {
+			for (int i = heads[h & mask] - 1; i >= 0; i = next[i] - 1) {
+				if (hashes[i] == h && (raw != null ? raw.cellEquals(col, keys[i]) : s.equals(keys[i]))) {
+					used[i] = true;
+					hits++;
+					return values[i];
+				}
+			}
+		}
+
+		misses++;
+		if (s == null) s = row.get(col);
+		String id = csv2rdf.fixAttributeName(s);
+		Entry e = new Entry(id, writer.encodeId(id));
+		if (size > 0 && (raw != null ? raw.cellLength(col) : s.length()) <= MAX_KEY) {
+			put(h, raw != null ? raw.cellBytes(col) : s, e);
+		}
+		return e;
+	}
+
+	private void put(int h, Object key, Entry e) {
+		int i;
+		if (count < size) {
+			i = count++;
+		} else {
+			// go round until we find one that hasn't been used lately
+			while (used[hand]) {
+				used[hand] = false;
+				hand = (hand + 1) % size;
+			}
+			i = hand;
+			hand = (hand + 1) % size;
+			unlink(i);
+			evictions++;
+		}
+		hashes[i] = h;
+		keys[i] = key;
+		values[i] = e;
+		used[i] = false;
+		int b = h & mask;
+		next[i] = heads[b];
+		heads[b] = i + 1;
+	}
+
+	private void unlink(int i) {
+		int b = hashes[i] & mask;
+		if (heads[b] == i + 1) {
+			heads[b] = next[i];
+			return;
+		}
+		for (int j = heads[b] - 1; j >= 0; j = next[j] - 1) {
+			if (next[j] == i + 1) {
+				next[j] = next[i];
+				return;
+			}
+		}
+	}
+
+	public String report() {
+		long h = hits, m = misses, ev = evictions;
+		synchronized (children) {
+			for (IdCache c : children) {
+				h += c.hits;
+				m += c.misses;
+				ev += c.evictions;
+			}
+		}
+		if (h + m == 0) return "ID cache: not used";
+		return String.format("ID cache: %d hits, %d misses (%.1f%% hits), %d evicted, %d entries per thread",
+			h, m, 100.0 * h / (h + m), ev, size);
+	}
+}
@@ -0,0 +1,277 @@
+/*
+	class IncrementalConverter
+	-append: for a csv file that only ever grows (a feed that gets rows added every hour),
+	converts just the rows added since the last run and adds them to the RDF from then,
+	instead of doing the whole file again.
+
+	Next to the output it keeps <output>.state (a properties file) with
+	   offset        how far into the csv was converted (the end of a whole line)
+	   rows          how many rows that was
+	   hash          SHA-256 of the header, the config and the options that change the output
+	   check         CRC32 of the bytes just before offset, to tell if the file was replaced
+	   outputEnd     where the RDF ends before its closing part (</rdf:RDF> for RDF/XML)
+	   outputSize    how big the output was, to tell if someone changed it
+	The next run checks all that, cuts the output back to outputEnd, converts from offset
+	to the end and writes the closing part again.  If anything doesn't match (the header or
+	config changed, the file got shorter or was replaced, the output isn't what we left)
+	it says why and converts the whole file, and the state starts again from there.
+
+	Only whole lines are converted: a last line without its newline yet is probably still
+	being written, so it's left for next time.
+
+	The input is read as a stream (StreamCSVReader, or opencsv), not memory mapped, so
+	-threads uses RowPipeline.  It can't be used with gzipped input or output, rdfb (the
+	binary format's names are numbered from the start of the file) or -dedupe (the instances
+	from before aren't known).  The state is written after the output is closed, so a run
+	that dies half way leaves a state that doesn't match the output, and the next run is a
+	full one.
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+public class IncrementalConverter {
+	static final int CHECK_BYTES = 4096;	// how much before offset goes into check
+
+	// what's in the .state file
+	static class State {
+		long offset;
+		long rows;
+		String hash;
+		long check;
+		long outputEnd;
+		long outputSize;
+
+		static State load(Path file) {
+			// null if there isn't one (or it's no good)
+			if (!Files.isRegularFile(file)) return null;
+			Properties p = new Properties();
+			try (InputStream in = new FileInputStream(file.toFile())) {
+				p.load(in);
+				State s = new State();
+				s.offset = Long.parseLong(p.getProperty("offset"));
+				s.rows = Long.parseLong(p.getProperty("rows"));
+				s.hash = p.getProperty("hash");
+				s.check = Long.parseLong(p.getProperty("check"));
+				s.outputEnd = Long.parseLong(p.getProperty("outputEnd"));
+				s.outputSize = Long.parseLong(p.getProperty("outputSize"));
+				return s.hash != null ? s : null;
+			}
+			catch (IOException | RuntimeException e) {
+				return null;
+			}
+		}
+
+		void save(Path file, String input) throws IOException {
+			// (written next to it and moved over it, so it's never half written)
+			Properties p = new Properties();
+			p.setProperty("offset", Long.toString(offset));
+			p.setProperty("rows", Long.toString(rows));
+			p.setProperty("hash", hash);
+			p.setProperty("check", Long.toString(check));
+			p.setProperty("outputEnd", Long.toString(outputEnd));
+			p.setProperty("outputSize", Long.toString(outputSize));
+			Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			try (OutputStream out = new FileOutputStream(tmp.toFile())) {
+				p.store(out, "csv2rdf -append state for " + input);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	public static ConversionMetrics convert(ConvertOptions options, String fileName, CSVConfig config) throws IOException {
+		// null if the input was empty (like csv2rdf.convertFile)
+		Path input = Paths.get(fileName);
+		if (CSVRowReader.isGzip(fileName)) {
+			System.err.println("-append needs the csv uncompressed, it can't start in the middle of " + fileName);
+			throw new IOException("gzipped input with -append");
+		}
+		String format = csv2rdf.outputFormat(options);
+		String outputFile = csv2rdf.outputFile(options, fileName, format);
+		Path output = Paths.get(outputFile);
+		Path stateFile = Paths.get(outputFile + ".state");
+		System.out.println("Reading CSV from " + fileName);
+		System.out.println("Writing RDF to " + outputFile);
+
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+			long end = lastLineEnd(in);
+			CSVRowReader reader = open(in, 0, end, options.useOpenCSV);
+			CSVRow row = reader.readNext();
+			if (row == null) {
+				System.out.println("Empty input file:" + fileName);
+				reader.close();
+				return null;
+			}
+			String[] header = row.toArray();
+			String hash = hash(header, config, options, format);
+			byte[] trailer = trailer(format, options);
+
+			State state = State.load(stateFile);
+			String why = state == null ? null : mismatch(state, hash, in, end, output, trailer);
+			boolean appending = state != null && why == null;
+			ConversionMetrics metrics;
+			if (!appending) {
+				if (why != null) System.out.println("Converting all of " + fileName + ": " + why);
+				state = new State();
+				RDFWriter writer = RDFWriter.create(format, new FileOutputStream(outputFile), options.base, options.graph);
+				metrics = csv2rdf.convert(options, fileName, reader, header, config, writer);
+			} else {
+				reader.close();
+				System.out.println("Adding rows " + (state.rows + 1) + " on (from byte " + state.offset + ") to " + outputFile);
+				reader = open(in, state.offset, end, options.useOpenCSV);
+				FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE);
+				out.truncate(state.outputEnd);
+				out.position(state.outputEnd);
+				RDFWriter writer = RDFWriter.create(format, Channels.newOutputStream(out), options.base, options.graph);
+				metrics = csv2rdf.convert(options, fileName, reader, header, config, writer, false, null, state.rows);
+			}
+			metrics.output = outputFile;
+			metrics.format = format;
+
+			state.offset = end;
+			state.rows += metrics.getRowsRead();
+			state.hash = hash;
+			state.check = check(in, end);
+			state.outputSize = Files.size(output);
+			state.outputEnd = state.outputSize - trailer.length;
+			state.save(stateFile, fileName);
+			return metrics;
+		}
+	}
+
+	private static String mismatch(State state, String hash, FileChannel in, long end, Path output, byte[] trailer) throws IOException {
+		// why the last run can't be added to, null if it can
+		if (!state.hash.equals(hash)) return "the header, the config or the options changed";
+		if (state.offset > end) return "it's shorter than it was";
+		if (check(in, state.offset) != state.check) return "it isn't the same file (the lines already converted changed)";
+		if (!Files.isRegularFile(output)) return "there's no output from before";
+		if (Files.size(output) != state.outputSize) return "the output isn't the one from before";
+		try (FileChannel out = FileChannel.open(output, StandardOpenOption.READ)) {
+			ByteBuffer b = ByteBuffer.allocate(trailer.length);
+			out.read(b, state.outputEnd);
+			if (state.outputEnd + trailer.length != state.outputSize || !Arrays.equals(b.array(), trailer))
+				return "the output doesn't end the way it should";
+		}
+		return null;
+	}
+
+	private static CSVRowReader open(FileChannel in, long from, long to, boolean useOpenCSV) throws IOException {
+		// the lines between from and to
+		in.position(from);
+		CountingInputStream s = new CountingInputStream(new Limited(Channels.newInputStream(in), to - from));
+		return CSVRowReader.open(s, to - from, useOpenCSV);
+	}
+
+	static long lastLineEnd(FileChannel in) throws IOException {
+		// just after the last newline in the file (0 if there isn't one)
+		ByteBuffer b = ByteBuffer.allocate(64 * 1024);
+		long pos = in.size();
+		while (pos > 0) {
+			int n = (int) Math.min(b.capacity(), pos);
+			b.clear().limit(n);
+			in.read(b, pos - n);
+			for (int i = n - 1; i >= 0; i--) {
+				if (b.get(i) == '\n') return pos - n + i + 1;
+			}
+			pos -= n;
+		}
+		return 0;
+	}
+
+	static long check(FileChannel in, long offset) throws IOException {
+		// CRC32 of the CHECK_BYTES before offset
+		int n = (int) Math.min(CHECK_BYTES, offset);
+		ByteBuffer b = ByteBuffer.allocate(n);
+		while (b.hasRemaining() && in.read(b, offset - n + b.position()) > 0) { }
+		CRC32 crc = new CRC32();
+		crc.update(b.array(), 0, b.position());
+		return crc.getValue();
+	}
+
+	static String hash(String[] header, CSVConfig config, ConvertOptions options, String format) {
+		// anything that would make the RDF for a row different
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.join(",", header)).append('\n');
+		for (String cName : config.classes()) {
+			CSVConfig.HeaderClass c = config.getClass(cName);
+			sb.append(c).append(';').append(config.superClassOf(c)).append('\n');
+			for (CSVConfig.HeaderProperty p : config.getPropertyItems(cName)) sb.append(p).append('\n');
+		}
+		sb.append(format).append('\n').append(options.base).append('\n').append(options.graph).append('\n').append(options.useOpenCSV)
+			.append(options.dedupe).append(options.merge);
+		try {
+			byte[] d = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte x : d) hex.append(String.format("%02x", x));
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);	// every java has SHA-256
+		}
+	}
+
+	static byte[] trailer(String format, ConvertOptions options) {
+		// what the writer puts after the last instance
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		RDFWriter.create(format, b, options.base, options.graph).endRDF();
+		return b.toByteArray();
+	}
+
+
+	// an InputStream that stops after so many bytes
+	private static final class Limited extends FilterInputStream {
+		private long left;
+
+		Limited(InputStream in, long limit) {
+			super(in);
+			left = limit;
+		}
+
+		public int read() throws IOException {
+			if (left <= 0) return -1;
+			int b = in.read();
+			if (b >= 0) left--;
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (left <= 0) return -1;
+			int n = in.read(b, off, (int) Math.min(len, left));
+			if (n > 0) left -= n;
+			return n;
+		}
+
+		public long skip(long n) throws IOException {
+			long k = in.skip(Math.min(n, left));
+			left -= k;
+			return k;
+		}
+
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), left);
+		}
+
+		public void close() {
+			// the channel is closed by whoever opened it
+		}
+	}
+}
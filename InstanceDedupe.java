@@ -0,0 +1,101 @@
+/*
+	class InstanceDedupe
+	keeps track of which instances (class, ID) have already been written, so each one
+	is written only once even if it shows up on thousands of lines (like the shippers in
+	shipments.csv).
+
+	What we've seen is kept as fingerprints in a FingerprintSet, off the heap and spilling
+	to disk past the memory budget.
+
+	With merge on, when an instance shows up again with property values we haven't
+	written for it yet, those values are written in an extra
+	<rdf:Description rdf:about="#id"> for the same instance (RDF just adds them together).
+	That means also remembering a fingerprint for every (instance, property, value),
+	so it takes more memory.
+
+	With checkpoints (Checkpoint) every fingerprint that's added is also kept in a journal,
+	which the checkpoint takes and saves to disk, so a resumed run can put them all back.
+*/
+
+import java.util.Arrays;
+
+public class InstanceDedupe {
+	private final FingerprintSet seen;
+	private final boolean merge;
+
+	long duplicates;	// instances we didn't write again
+	long merged;		// duplicates that still had new values to add
+
+	private long[] journal;	// fingerprints added since the last takeJournal (null = not kept)
+	private int journaled;
+
+	public InstanceDedupe(long memoryBudget, boolean merge) {
+		this.seen = new FingerprintSet(memoryBudget);
+		this.merge = merge;
+	}
+
+	public boolean merging() { return merge; }
+
+	public boolean firstTime(int classIndex, String id) {
+		// true if this is the first time we've seen this instance of this class
+		long fp = hash(0x9E3779B97F4A7C15L * (classIndex + 1), id);
+		boolean first = seen.add(fp);
+		if (!first) duplicates++;
+		else if (journal != null) journal(fp);
+		return first;
+	}
+
+	public boolean newValue(int classIndex, String id, String property, String value) {
+		// (merge) true if this instance hasn't had this value for this property written yet
+		long h = hash(0x9E3779B97F4A7C15L * (classIndex + 1), id);
+		h = hash(h, property);
+		long fp = hash(h, value);
+		if (!seen.add(fp)) return false;
+		if (journal != null) journal(fp);
+		return true;
+	}
+
+	public void keepJournal() {
+		if (journal == null) journal = new long[1024];
+	}
+
+	public long[] takeJournal() {
+		// the fingerprints added since last time, and start a new journal
+		long[] j = journal.length == journaled ? journal : Arrays.copyOf(journal, journaled);
+		journal = new long[Math.max(1024, journaled)];
+		journaled = 0;
+		return j;
+	}
+
+	public void restore(long fp) {
+		// put back one that was saved from a journal
+		seen.add(fp);
+	}
+
+	private void journal(long fp) {
+		if (journaled == journal.length) journal = Arrays.copyOf(journal, journaled * 2);
+		journal[journaled++] = fp;
+	}
+
+	public void close() {
+		seen.close();
+	}
+
+	public String report() {
+		String s = "Suppressed " + duplicates + " duplicate instances";
+		if (merge) s += " (" + merged + " with new values merged in)";
+		if (seen.spills() > 0) s += ", spilled to disk " + seen.spills() + " times";
+		return s;
+	}
+
+	static long hash(long h, String s) {
+		// 64 bit FNV-1a over the chars, then a separator so ("ab","c") != ("a","bc")
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= 0xFFFF;
+		h *= 0x100000001b3L;
+		return h;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+	class LiteralType
+	the datatype of a property's values, from the optional 4th column of its config line:
+	   Weight,property,shipment,integer
+	   Total_Charge,property,shipment,decimal
+	   Ship_Date,property,shipment,dateTime(M/d/yy H:mm)
+	(with or without "xsd:" in front).  Blank or "string" is what there always was, a plain
+	literal and an xsd:string range.
+
+	The values are written as typed literals in their canonical form ("0078" is 78, "626.610"
+	is 626.61, "5/6/11 0:00" is 2011-05-06T00:00:00), so the store doesn't have to parse them
+	again at query time.  The pattern of a dateTime is a java DateTimeFormatter pattern for how
+	the dates are written in the csv; a pattern with only a date gives midnight.  Parsing is
+	done by TypedValues.
+
+	Dates are parsed strictly, so one that doesn't exist (2/30/11, 4/31/11, 2/29/11) doesn't
+	parse, instead of being moved to the end of the month.  Strict needs an era for y (the
+	year of the era), so y in the pattern is taken as u (the year): yy and uu are the same,
+	2000 to 2099.
+*/
+
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.util.Locale;
+
+public final class LiteralType {
+	static final int INTEGER = 0;
+	static final int DECIMAL = 1;
+	static final int DATETIME = 2;
+	static final int KINDS = 3;
+	static final String[] NAMES = { "integer", "decimal", "dateTime" };
+
+	// xsd:dateTime's own form, seconds always there and a fraction only if there is one
+	static final DateTimeFormatter XSD_DATETIME = new DateTimeFormatterBuilder()
+		.appendPattern("uuuu-MM-dd'T'HH:mm:ss")
+		.optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+		.toFormatter(Locale.ROOT);
+
+	private static final LiteralType[] PLAIN = { new LiteralType(INTEGER, null), new LiteralType(DECIMAL, null), new LiteralType(DATETIME, null) };
+
+	final int kind;
+	final String pattern;				// how a dateTime is written in the csv, null otherwise
+	final DateTimeFormatter format;		// the pattern, ready to parse with
+	final String iri;
+
+	private LiteralType(int kind, String pattern) {
+		this.kind = kind;
+		this.pattern = pattern;
+		this.format = pattern != null ? DateTimeFormatter.ofPattern(strict(pattern), Locale.ROOT).withResolverStyle(ResolverStyle.STRICT) : null;
+		this.iri = RDFWriter.XSD_NS + NAMES[kind];
+	}
+
+	public static LiteralType parse(String spec) {
+		// the 4th column of a config line, null for a plain string
+		String s = spec.trim();
+		if (s.startsWith("xsd:")) s = s.substring(4).trim();
+		if (s.length() == 0 || s.equals("string")) return null;
+		if (s.equals("integer")) return PLAIN[INTEGER];
+		if (s.equals("decimal")) return PLAIN[DECIMAL];
+		if (s.startsWith("dateTime")) {
+			String rest = s.substring("dateTime".length()).trim();
+			if (!rest.startsWith("(") || !rest.endsWith(")") || rest.length() < 3)
+				throw new IllegalArgumentException("dateTime needs the pattern the dates are written in, like dateTime(M/d/yy H:mm), not " + spec);
+			String pattern = rest.substring(1, rest.length() - 1).trim();
+			try {
+				return new LiteralType(DATETIME, pattern);
+			}
+			catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Bad dateTime pattern " + pattern + ": " + e.getMessage());
+			}
+		}
+		throw new IllegalArgumentException("Unknown datatype " + spec + " (integer, decimal, dateTime(pattern) or string)");
+	}
+
+	private static String strict(String pattern) {
+		// the pattern with y as u (see above), not inside quoted text
+		char[] c = pattern.toCharArray();
+		boolean quoted = false;
+		for (int i = 0; i < c.length; i++) {
+			if (c[i] == '\'') quoted = !quoted;
+			else if (c[i] == 'y' && !quoted) c[i] = 'u';
+		}
+		return new String(c);
+	}
+
+		public static LiteralType ofIRI(String iri) {
+		// for BinaryRDFReader, which only needs to know what to write (no pattern), null if it isn't one
+		for (LiteralType t : PLAIN) if (t.iri.equals(iri)) return t;
+		return null;
+	}
+
+	public String spec() {
+		// the way it's written in the config
+		return pattern != null ? NAMES[kind] + "(" + pattern + ")" : NAMES[kind];
+	}
+
+	public String toString() {
+		return spec();
+	}
+}
@@ -0,0 +1,349 @@
+/*
+	class MappedCSVReader
+	reads the csv file by memory mapping it (FileChannel.map) instead of going through
+	a Reader and opencsv.
+
+	The file is never decoded as a whole.  Each line is tokenized in place: for every cell
+	we just keep where it starts and ends in the mapped buffer, with the quotes and the
+	leading/trailing blanks already left out.  Checking for data (empty or "null") works
+	on the bytes, and a cell only becomes a String when get() is called for it.
+
+	Follows RFC 4180:
+	   - cells are separated by commas, lines end with \n, \r\n or \r
+	   - a cell may be in double quotes, and then can contain commas and newlines
+	   - a double quote inside a quoted cell is written twice ("")
+	Unlike opencsv, backslash is not an escape character.
+	The bytes are taken to be UTF-8.
+
+	Looking for the end of a cell goes through CSVScanner, 8 bytes at a time.
+
+	project() says which columns will actually be used (the ones in the config).  The
+	others aren't trimmed or recorded, and once we're past the last column that's used,
+	the rest of the line is skipped a cell at a time, just counting them so we can still tell
+	if the line has the right number of cells.  Quotes are handled the same as in the cells
+	that are kept (one only opens a quoted cell at its start), so which columns are used never
+	changes where the lines end.  (If something wants all the cells of such a line, for an
+	error message, toArray() goes over it again.)
+
+	Big files are mapped a window at a time.  A line can't be longer than one window.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class MappedCSVReader implements CSVRowReader {
+	static final int WINDOW_SIZE = 1 << 30;	// how much of the file to map at a time
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int windowSize;
+
+	private MappedByteBuffer window;
+	private long windowStart;	// file position of window[0]
+	private int pos;				// next byte to read in the window
+
+	private final Row row = new Row();
+
+	public MappedCSVReader(String fileName) throws IOException {
+		this(Paths.get(fileName), WINDOW_SIZE);
+	}
+
+	MappedCSVReader(Path path, int windowSize) throws IOException {
+		if (!Files.isRegularFile(path)) throw new UnsupportedOperationException("Can't map " + path);
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.fileSize = channel.size();
+		this.windowSize = windowSize;
+		map(0);
+		// skip a UTF-8 byte order mark
+		if (fileSize >= 3 && (window.get(0) & 0xFF) == 0xEF && (window.get(1) & 0xFF) == 0xBB && (window.get(2) & 0xFF) == 0xBF) pos = 3;
+	}
+
+	private void map(long start) throws IOException {
+		windowStart = start;
+		long size = Math.min(windowSize, fileSize - start);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		pos = 0;
+		row.buf = window;
+	}
+
+	public CSVRow readNext() throws IOException {
+		if (windowStart + pos >= fileSize) return null;
+
+		int end = row.tokenize(pos, window.limit(), windowStart + window.limit() >= fileSize);
+		if (end < 0) {
+			// ran off the end of the window in the middle of the line, map again starting at this line
+			if (pos == 0) throw new IOException("Line at byte " + windowStart + " is longer than " + windowSize + " bytes");
+			map(windowStart + pos);
+			end = row.tokenize(pos, window.limit(), windowStart + window.limit() >= fileSize);
+			if (end < 0) throw new IOException("Line at byte " + windowStart + " is longer than " + windowSize + " bytes");
+		}
+		pos = end;
+		return row;
+	}
+
+	public void project(boolean[] columns) {
+		row.project(columns);
+	}
+
+	public long size() {
+		return fileSize;
+	}
+
+	public void seek(long position) throws IOException {
+		// carry on reading from here (the start of a line)
+		map(position);
+	}
+
+	public long position() {
+		// how far into the file we are (bytes)
+		return windowStart + pos;
+	}
+
+	public boolean exactPosition() {
+		return true;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+
+	static class Row implements CSVRow {
+		ByteBuffer buf;
+		int count;								// number of cells
+		int[] starts = new int[64];		// first byte of each cell (after quotes and blanks)
+		int[] ends = new int[64];			// one past the last byte
+		boolean[] escaped = new boolean[64];	// cell has "" in it that has to be collapsed
+		byte[] scratch = new byte[256];	// for building Strings
+
+		boolean[] wanted;		// columns to keep (null = all of them)
+		int lastWanted = Integer.MAX_VALUE;	// after this column just count the rest
+		int lineStart, lineLimit;	// where the line was, so we can go over it again
+		boolean lineLastWindow;
+
+		void project(boolean[] columns) {
+			wanted = columns;
+			lastWanted = Integer.MAX_VALUE;
+			if (columns != null) {
+				lastWanted = -1;
+				for (int i = 0; i < columns.length; i++) if (columns[i]) lastWanted = i;
+			}
+		}
+
+		int tokenize(int p, int limit, boolean lastWindow) {
+			// split up the line starting at p.  returns where the next line starts,
+			// or -1 if the line doesn't end before limit and there's more file after it.
+			ByteBuffer b = buf;
+			count = 0;
+			lineStart = p;
+			lineLimit = limit;
+			lineLastWindow = lastWindow;
+			while (true) {
+				if (count > lastWanted) return skipRest(p, limit, lastWindow);
+
+				// skip blanks in front of the cell
+				while (p < limit && isBlank(b.get(p))) p++;
+
+				int start, end;
+				boolean esc = false;
+				if (p < limit && b.get(p) == '"') {
+					// quoted: runs to the next quote that isn't doubled
+					start = ++p;
+					while (true) {
+						p = CSVScanner.indexOfQuote(b, p, limit);
+						if (p >= limit) {
+							if (!lastWindow) return -1;
+							end = p;	// unterminated quote, take the rest of the file
+							break;
+						}
+						if (p + 1 < limit && b.get(p + 1) == '"') {
+							esc = true;
+							p += 2;
+							continue;
+						}
+						if (p + 1 >= limit && !lastWindow) return -1;	// can't tell yet
+						end = p++;
+						break;
+					}
+					// ignore anything between the closing quote and the comma
+					p = CSVScanner.indexOfDelimiter(b, p, limit);
+				} else {
+					start = p;
+					p = CSVScanner.indexOfDelimiter(b, p, limit);
+					end = p;
+				}
+				if (p >= limit && !lastWindow) return -1;
+
+				if (wanted != null && (count >= wanted.length || !wanted[count])) {
+					add(start, start, false);	// not used, don't bother
+				} else {
+					// trim the blanks off the end (and the start too, for a quoted cell)
+					while (start < end && isBlank(b.get(start))) start++;
+					while (end > start && isBlank(b.get(end - 1))) end--;
+					add(start, end, esc);
+				}
+
+				if (p >= limit) return p;	// end of the file
+				byte c = b.get(p++);
+				if (c == ',') continue;
+				if (c == '\r' && p < limit && b.get(p) == '\n') p++;
+				else if (c == '\r' && p >= limit && !lastWindow) return -1;	// might be a \r\n split across windows
+				return p;
+			}
+		}
+
+		private int skipRest(int p, int limit, boolean lastWindow) {
+			// we're at the start of a cell after the last one we want.  count the cells
+			// to the end of the line without keeping them.  a quote only opens a quoted
+			// cell at the start of the cell, the same as in tokenize, so the rows split in
+			// the same places whichever columns are kept.
+			ByteBuffer b = buf;
+			while (true) {
+				while (p < limit && isBlank(b.get(p))) p++;
+				if (p < limit && b.get(p) == '"') {
+					p++;
+					while (true) {
+						p = CSVScanner.indexOfQuote(b, p, limit);
+						if (p >= limit) {
+							if (!lastWindow) return -1;
+							break;	// unterminated quote, the rest of the file
+						}
+						if (p + 1 < limit && b.get(p + 1) == '"') {
+							p += 2;
+							continue;
+						}
+						if (p + 1 >= limit && !lastWindow) return -1;	// can't tell yet
+						p++;
+						break;
+					}
+				}
+				p = CSVScanner.indexOfDelimiter(b, p, limit);
+				if (p >= limit && !lastWindow) return -1;
+				count++;
+
+				if (p >= limit) return p;	// end of the file
+				byte c = b.get(p++);
+				if (c == ',') continue;
+				if (c == '\r' && p < limit && b.get(p) == '\n') p++;
+				else if (c == '\r' && p >= limit && !lastWindow) return -1;	// might be a \r\n split across windows
+				return p;
+			}
+		}
+
+		public String[] toArray() {
+			if (wanted == null) return CSVRow.super.toArray();
+			// some cells were skipped, go over the line again keeping everything
+			Row all = new Row();
+			all.buf = buf;
+			all.tokenize(lineStart, lineLimit, lineLastWindow);
+			return all.toArray();
+		}
+
+		private static boolean isBlank(byte c) {
+			// same as String.trim, but a newline ends the line instead
+			return c >= 0 && c <= ' ' && c != '\n' && c != '\r';
+		}
+
+		private void add(int start, int end, boolean esc) {
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				ends = Arrays.copyOf(ends, count * 2);
+				escaped = Arrays.copyOf(escaped, count * 2);
+			}
+			starts[count] = start;
+			ends[count] = end;
+			escaped[count] = esc;
+			count++;
+		}
+
+		public int length() { return count; }
+
+		public boolean containsData(int col) {
+			// not empty and not "null" (any case), looking at the bytes
+			int s = starts[col];
+			int len = ends[col] - s;
+			if (len == 0) return false;
+			if (len != 4) return true;
+			ByteBuffer b = buf;
+			return ((b.get(s) | 0x20) != 'n') || ((b.get(s + 1) | 0x20) != 'u')
+				|| ((b.get(s + 2) | 0x20) != 'l') || ((b.get(s + 3) | 0x20) != 'l');
+		}
+
+		public String get(int col) {
+			int s = starts[col];
+			int len = ends[col] - s;
+			if (len > scratch.length) scratch = new byte[Math.max(len, scratch.length * 2)];
+			buf.get(s, scratch, 0, len);
+			if (escaped[col]) {
+				// collapse the doubled quotes
+				int n = 0;
+				for (int i = 0; i < len; i++) {
+					scratch[n++] = scratch[i];
+					if (scratch[i] == '"') i++;
+				}
+				len = n;
+			}
+			return new String(scratch, 0, len, StandardCharsets.UTF_8);
+		}
+
+		// the raw bytes of a cell (doubled quotes not collapsed), for IdCache
+
+		int cellLength(int col) { return ends[col] - starts[col]; }
+
+		int cellHash(int col) {
+			ByteBuffer b = buf;
+			int h = 0;
+			for (int i = starts[col], e = ends[col]; i < e; i++) h = 31 * h + b.get(i);
+			return h;
+		}
+
+		boolean cellEquals(int col, Object key) {
+			if (!(key instanceof byte[])) return false;
+			byte[] k = (byte[]) key;
+			int s = starts[col];
+			if (ends[col] - s != k.length) return false;
+			ByteBuffer b = buf;
+			for (int i = 0; i < k.length; i++) if (b.get(s + i) != k[i]) return false;
+			return true;
+		}
+
+		byte[] cellBytes(int col) {
+			byte[] k = new byte[ends[col] - starts[col]];
+			buf.get(starts[col], k);
+			return k;
+		}
+
+		// and for TypedValues, without making anything
+
+		boolean cellEscaped(int col) { return escaped[col]; }
+
+		void copyCell(int col, byte[] to) {
+			buf.get(starts[col], to, 0, ends[col] - starts[col]);
+		}
+
+		public CSVRow copy() {
+			// the buffer is shared (read only), everything else is copied
+			Row r = new Row();
+			r.buf = buf;
+			r.count = count;
+			r.starts = Arrays.copyOf(starts, count);
+			r.ends = Arrays.copyOf(ends, count);
+			r.escaped = Arrays.copyOf(escaped, count);
+			r.scratch = new byte[64];
+			r.wanted = wanted;
+			r.lastWanted = lastWanted;
+			r.lineStart = lineStart;
+			r.lineLimit = lineLimit;
+			r.lineLastWindow = lineLastWindow;
+			return r;
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/*
+	class NTriplesWriter
+	writes N-Triples (or N-Quads, if there's a graph name) instead of RDF/XML.
+
+	Same calls as RDFWriter, but every statement is one line:
+	   <subject> <predicate> <object or "literal"> .
+	so the output can be cut anywhere between lines and loaded in parallel.
+
+	RDF/XML can use IDs relative to the document, here everything has to be a whole IRI,
+	so classes, properties and instance IDs all go under base (by default the sample
+	namespace, which is what the rdf:ID's in the XML are meant to be).
+	Characters that aren't allowed in an IRI are %-encoded, literals get \ escapes.
+
+	The pieces that repeat (predicates, the current subject, the " ." at the end) are
+	encoded once.
+*/
+
+import java.io.OutputStream;
+import java.util.HashMap;
+
+public class NTriplesWriter extends RDFWriter {
+	protected final String base;
+	protected final String graph;	// null for N-Triples
+
+	private final byte[] baseStart;	// "<" + base
+	private final byte[] endStatement;	// " .\n" or " <graph> .\n"
+	private byte[] subject;				// "<base + id>" for the instance we're writing
+
+	private final HashMap<String, byte[]> predicates = new HashMap<String, byte[]>();
+	private final byte[][] datatypes = new byte[LiteralType.KINDS][];	// "^^<xsd iri> for each kind
+
+	private static final String HEX = "0123456789ABCDEF";
+	private static final byte[] TYPE = ByteOut.encode("<" + RDF_NS + "type> ");
+	private static final byte[] END_IRI = ByteOut.encode(">");
+
+	public NTriplesWriter(OutputStream os, String base, String graph) {
+		super(os);
+		this.base = base;
+		this.graph = graph;
+		baseStart = ByteOut.encode("<" + base);
+		endStatement = ByteOut.encode(graph == null ? " .\n" : " <" + graph + "> .\n");
+	}
+
+	protected NTriplesWriter(ByteOut buffer, String base, String graph) {
+		super(buffer);
+		this.base = base;
+		this.graph = graph;
+		baseStart = ByteOut.encode("<" + base);
+		endStatement = ByteOut.encode(graph == null ? " .\n" : " <" + graph + "> .\n");
+	}
+
+	public static String defaultGraph(String base) {
+		// the base without its "#"
+		return base.endsWith("#") ? base.substring(0, base.length() - 1) : base;
+	}
+
+	public RDFWriter fragmentWriter(ByteOut buffer) {
+		return new NTriplesWriter(buffer, base, graph);
+	}
+
+	public void startRDF() {
+		// nothing like the rdf:RDF header, just the ontology statement
+		statement("<" + RDFS_NS + ">", "<" + RDF_NS + "type>", "<" + OWL_NS + "Ontology>");
+	}
+
+	public void endRDF() {
+		out.close();
+	}
+
+	public void writeClassInfo(String className, String superclass) {
+		if (superclass.length() == 0) superclass = "Thing";
+		String c = iri(base, className);
+		statement(c, "<" + RDF_NS + "type>", "<" + RDFS_NS + "Class>");
+		statement(c, "<" + RDFS_NS + "subClassOf>", iri(base, superclass));
+	}
+
+	public void writePropertyTag(String attributeName, String className, String rangeType) {
+		String p = iri(base, attributeName);
+		statement(p, "<" + RDF_NS + "type>", "<" + RDF_NS + "Property>");
+		statement(p, "<" + RDFS_NS + "domain>", iri(base, className));
+		statement(p, "<" + RDFS_NS + "range>", rangeIRI(rangeType));
+	}
+
+	protected String rangeIRI(String rangeType) {
+		// same rules as the xml: empty is string, with a "#" it's already a whole IRI
+		if (rangeType.length() == 0) return "<" + STRING_RANGE + ">";
+		if (rangeType.contains("#")) return "<" + escapeIRI(rangeType) + ">";
+		return iri(base, rangeType);
+	}
+
+	public byte[] encodeId(String id) {
+		return ByteOut.encode("<" + base + escapeIRI(id) + ">");
+	}
+
+	public void startInstance(String id, String className) {
+		subject = encodeId(id);
+		writeType(className);
+	}
+
+	public void startInstance(IdCache.Entry id, String className) {
+		subject = id.encoded;
+		writeType(className);
+	}
+
+	private void writeType(String className) {
+		writeSubject();
+		out.write(TYPE);
+		out.write(baseStart);
+		writeIRIPart(className);
+		out.write(END_IRI);
+		out.write(endStatement);
+	}
+
+	public void continueInstance(String id) {
+		subject = encodeId(id);
+	}
+
+	public void continueInstance(IdCache.Entry id) {
+		subject = id.encoded;
+	}
+
+	public void endInstance() {
+		// nothing to close
+	}
+
+	public void writeAttributeData(String attName, String attData) {
+		writeSubject();
+		out.write(predicate(attName));
+		writeLiteral(attData);
+		out.write(endStatement);
+	}
+
+	public void writeTypedData(String attName, byte[] value, int length, LiteralType type) {
+		// "78"^^<http://www.w3.org/2001/XMLSchema#decimal>
+		writeSubject();
+		out.write(predicate(attName));
+		out.write((byte) '"');
+		out.write(value, 0, length);
+		out.write(datatype(type));
+		out.write(endStatement);
+	}
+
+	private byte[] datatype(LiteralType type) {
+		byte[] d = datatypes[type.kind];
+		if (d == null) {
+			d = ByteOut.encode("\"^^<" + type.iri + ">");
+			datatypes[type.kind] = d;
+		}
+		return d;
+	}
+
+	public void writeAttributeDataResource(String attName, String attData) {
+		writeSubject();
+		out.write(predicate(attName));
+		out.write(baseStart);
+		writeIRIPart(attData);
+		out.write(END_IRI);
+		out.write(endStatement);
+	}
+
+	public void writeAttributeDataResource(String attName, IdCache.Entry attData) {
+		writeSubject();
+		out.write(predicate(attName));
+		out.write(attData.encoded);
+		out.write(endStatement);
+	}
+
+	private void writeSubject() {
+		out.write(subject);
+		out.write((byte) ' ');
+	}
+
+	private byte[] predicate(String attName) {
+		byte[] p = predicates.get(attName);
+		if (p == null) {
+			p = ByteOut.encode("<" + base + escapeIRI(attName) + "> ");	// (the same IRI writePropertyTag declared)
+			predicates.put(attName, p);
+		}
+		return p;
+	}
+
+	private void statement(String s, String p, String o) {
+		out.write(s);
+		out.write((byte) ' ');
+		out.write(p);
+		out.write((byte) ' ');
+		out.write(o);
+		out.write(endStatement);
+	}
+
+	protected void writeIRIPart(String s) {
+		out.write(escapeIRI(s));
+	}
+
+	protected void writeLiteral(String s) {
+		out.write((byte) '"');
+		out.write(escapeLiteral(s));
+		out.write((byte) '"');
+	}
+
+	static String iri(String ns, String local) {
+		return "<" + ns + escapeIRI(local) + ">";
+	}
+
+	static String escapeIRI(String s) {
+		// %-encode the characters an IRI can't have (the IDs are already sanitized, so this is rare)
+		int i = 0;
+		while (i < s.length() && !badInIRI(s.charAt(i))) i++;
+		if (i == s.length()) return s;
+
+		StringBuilder sb = new StringBuilder(s.length() + 8);
+		sb.append(s, 0, i);
+		for (; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (badInIRI(c)) sb.append('%').append(HEX.charAt(c >> 4)).append(HEX.charAt(c & 0xF));
+			else sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private static boolean badInIRI(char c) {
+		return c <= ' ' || c == '<' || c == '>' || c == '"' || c == '{' || c == '}'
+			|| c == '|' || c == '^' || c == '`' || c == '\\';
+	}
+
+	static String escapeLiteral(String s) {
+		// backslash escapes for the characters that can't be in a "..." literal
+		int i = 0;
+		while (i < s.length() && !badInLiteral(s.charAt(i))) i++;
+		if (i == s.length()) return s;
+
+		StringBuilder sb = new StringBuilder(s.length() + 8);
+		sb.append(s, 0, i);
+		for (; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				default: sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static boolean badInLiteral(char c) {
+		return c == '"' || c == '\\' || c == '\n' || c == '\r';
+	}
+}
@@ -0,0 +1,190 @@
+/*
+	class ParallelGzipOutputStream
+	gzips the output on several threads, the way pigz does, so compressing doesn't hold
+	back the conversion.
+
+	What's written is cut into blocks of BLOCK_SIZE.  Each block is deflated on its own on
+	a thread pool and the blocks are written out in order as they finish.  Every block but
+	the last ends with a sync flush (an empty stored block that ends on a byte boundary), so
+	the compressed blocks can just be put one after another and together they're one deflate
+	stream, with one gzip header and trailer around it.  Anything that reads gzip can read it.
+
+	Like pigz, each block is compressed with the last 32K of the block before it as a
+	preset dictionary, so cutting it up costs almost nothing in size.  The CRC is worked out
+	on the writing thread as the blocks come in (that part is fast).
+
+	Only a few blocks per thread are in flight at a time, so a slow disk slows down the
+	writer instead of filling up memory.
+
+	Each block gets its own Deflater, ended as soon as the block is done.  (Kept per thread
+	they were never ended, and with -batch or -serve opening a stream per output the native
+	zlib memory piled up until a GC got round to them.)  Making one is nothing next to
+	deflating a megabyte.
+
+	If the conversion fails, abort() stops the pool and closes the stream under it without
+	finishing the gzip (the blocks still being compressed are thrown away).  Otherwise the
+	pool's threads would stay around until the process ends, one lot per failed output.
+*/
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+public class ParallelGzipOutputStream extends OutputStream {
+	public static final int BLOCK_SIZE = 1 << 20;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	// gzip header: magic, deflate, no flags, no time, no extra flags, unknown OS
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 255 };
+
+	private final OutputStream out;
+	private final int level;
+	private final ExecutorService pool;
+	private final int maxPending;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int count;
+	private byte[] dictionary;	// end of the last block handed out
+	private final CRC32 crc = new CRC32();
+	private long size;			// uncompressed, for the trailer
+	private boolean closed;
+
+	public ParallelGzipOutputStream(OutputStream out, int threads) throws IOException {
+		this(out, threads, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	public ParallelGzipOutputStream(OutputStream out, int threads, int level) throws IOException {
+		this.out = out;
+		this.level = level;
+		this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread t = new Thread(r, "gzip");
+			t.setDaemon(true);
+			return t;
+		});
+		this.maxPending = Math.max(1, threads) * 2;
+		out.write(HEADER);
+	}
+
+	public void write(int b) throws IOException {
+		if (count == block.length) submit(false);
+		block[count++] = (byte) b;
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (count == block.length) submit(false);
+			int n = Math.min(len, block.length - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	public void flush() throws IOException {
+		// (the blocks still being compressed aren't waited for, that would make small blocks)
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			submit(true);
+			while (!pending.isEmpty()) writeOldest();
+			long c = crc.getValue();
+			byte[] trailer = new byte[8];
+			for (int i = 0; i < 4; i++) {
+				trailer[i] = (byte) (c >>> (8 * i));
+				trailer[4 + i] = (byte) (size >>> (8 * i));	// size mod 2^32
+			}
+			out.write(trailer);
+			out.close();
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	public void abort() throws IOException {
+		// (a failed conversion) no last block, no trailer, just let go of everything.
+		// (also after a close that failed part way, the stream under it may still be open)
+		closed = true;
+		pool.shutdownNow();
+		pending.clear();
+		out.close();
+	}
+
+	public static void abort(OutputStream os) {
+		// abort() if it's one of these, otherwise just close it.  Doesn't throw, it's for
+		// cleaning up after something else already went wrong
+		try {
+			if (os instanceof ParallelGzipOutputStream) ((ParallelGzipOutputStream) os).abort();
+			else os.close();
+		}
+		catch (IOException e) { }
+	}
+
+	private void submit(boolean last) throws IOException {
+		final byte[] data = block;
+		final int len = count;
+		final byte[] dict = dictionary;
+		crc.update(data, 0, len);
+		size += len;
+		dictionary = Arrays.copyOfRange(data, Math.max(0, len - DICTIONARY_SIZE), len);
+		pending.add(pool.submit(() -> compress(data, len, dict, last)));
+		block = new byte[BLOCK_SIZE];
+		count = 0;
+
+		while (pending.size() > maxPending) writeOldest();
+	}
+
+	private byte[] compress(byte[] data, int len, byte[] dict, boolean last) {
+		// (runs on the pool) one block as raw deflate
+		Deflater d = new Deflater(level, true);
+		try {
+			if (dict != null) d.setDictionary(dict);
+			d.setInput(data, 0, len);
+			ByteOut result = new ByteOut(len / 2 + 64);
+			byte[] buf = new byte[64 * 1024];
+			if (last) {
+				d.finish();
+				while (!d.finished()) {
+					int n = d.deflate(buf);
+					result.write(buf, 0, n);
+				}
+			} else {
+				while (true) {
+					int n = d.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+					result.write(buf, 0, n);
+					if (n < buf.length) break;	// otherwise there's more to come
+				}
+			}
+			return result.toByteArray();
+		}
+		finally {
+			d.end();
+		}
+	}
+
+	private void writeOldest() throws IOException {
+		try {
+			out.write(pending.remove().get());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing", e);
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Compression failed", e.getCause());
+		}
+	}
+}
@@ -4,6 +4,17 @@
    July 2012
    	
 	changes:
+   26.10.18 writeTypedData, a typed literal (the value already in its canonical form, TypedValues)
+   26.10.18 documentBase (xml:base) and continueInstance with the class, for ShardedWriter
+   26.10.18 encodeId and IdCache.Entry versions of the ID calls, to write IDs encoded before
+   26.10.18 rdfb, a dictionary encoded binary format (BinaryRDFWriter, read back with BinaryRDFReader)
+   26.10.18 other formats: NTriplesWriter (N-Triples, N-Quads) and TurtleWriter are subclasses
+            driven by the same calls.  create() picks one by name, formatOf() by file extension.
+   26.10.18 continueInstance, to add properties to an instance written before (dedupe merge)
+   26.10.18 fragmentWriter/writeFragment so instances can be rendered in memory on other threads
+   26.10.18 write through a ByteOut instead of Out.printf.  The fixed parts of each line are
+            encoded to UTF-8 once (per property for the <sample:...> tags) and the values are
+            copied straight into one big buffer, which is only flushed when full or at endRDF.
    12.09.24 add a "#" in writeAttributeDataResource!
    12.09.18 when writing properties, allow different "ranges" (types) besides String.
             when writing attribute data, write other types besides string (references to properties)	
@@ -11,80 +22,256 @@
 	         (tried to do this before, but was checking for empty string incorrectly, oops)
 */
 	
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+
 public class RDFWriter {
 // for now this just writes very simple RDF to the file specified, or to the stdout
 // but I'm doing it as a class to abstract it away from reading from the csv
 
 	// instance variables
-	private  Out out;
+	protected ByteOut out;
+	protected String documentBase;	// xml:base, if the rdf:IDs are relative to some other file
 	public final String STRING_RANGE = "http://www.w3.org/2001/XMLSchema#string";
 	
+	public static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+	public static final String RDFS_NS = "http://www.w3.org/2000/01/rdf-schema#";
+	public static final String OWL_NS = "http://www.w3.org/2002/07/owl#";
+	public static final String XSD_NS = "http://www.w3.org/2001/XMLSchema#";
+	public static final String SAMPLE_NS = "http://www.test.nql.org/schemas/sample#";
+	
+	public static final String[] FORMATS = { "xml", "nt", "nq", "ttl", "rdfb" };
+	
+	// same line ending println used to give us
+	private static final String NL = System.lineSeparator();
+	
+	// the fixed parts of the instance lines, encoded once
+	private static final byte[] START_INSTANCE = ByteOut.encode("<rdf:Description rdf:ID=\"");
+	private static final byte[] START_TYPE = ByteOut.encode("\">\n  <rdf:type rdf:resource=\"");
+	private static final byte[] END_TYPE = ByteOut.encode("\"/>\n");
+	private static final byte[] CONTINUE_INSTANCE = ByteOut.encode("<rdf:Description rdf:about=\"#");
+	private static final byte[] END_ABOUT = ByteOut.encode("\">\n");
+	private static final byte[] END_INSTANCE = ByteOut.encode("</rdf:Description>\n " + NL);
+	
+	// tags for each property, encoded the first time we see the property.
+	// [0] is the opening part, [1] goes after the value.
+	private final HashMap<String, byte[][]> literalTags = new HashMap<String, byte[][]>();
+	private final HashMap<String, byte[][]> resourceTags = new HashMap<String, byte[][]>();
+	// and for typed literals, [2 * kind] and [2 * kind + 1] for each LiteralType kind
+	private final HashMap<String, byte[][]> typedTags = new HashMap<String, byte[][]>();
+	
 	// constructor
 	public RDFWriter() {
 		// no params = write to stdout
-		out = new Out();
-		
-	
+		this(System.out);
 	}
 	
 	public RDFWriter(String s) {
 	// file name
-		out = new Out(s);
+		this(openFile(s));
+	}
+	
+	public RDFWriter(OutputStream os) {
+		out = new ByteOut(os);
+	}
+	
+	public RDFWriter(ByteOut out) {
+		this.out = out;
+	}
+	
+	public RDFWriter fragmentWriter(ByteOut buffer) {
+		// a writer in the same format that renders instances into buffer,
+		// used by the parallel pipeline.  Only the instance calls make sense on it.
+		return new RDFWriter(buffer);
+	}
+	
+	public void writeFragment(byte[] b) {
+		// copy in instances already rendered by a fragmentWriter
+		out.write(b);
+	}
+	
+	public static RDFWriter create(String format, OutputStream os, String base, String graph) {
+		// format is one of FORMATS.  base is what IDs are relative to (the line formats need
+		// whole IRIs), graph is the graph name for N-Quads.  Either can be null for the default.
+		if (base == null) base = SAMPLE_NS;
+		if (format.equals("nt")) return new NTriplesWriter(os, base, null);
+		if (format.equals("nq")) return new NTriplesWriter(os, base, graph != null ? graph : NTriplesWriter.defaultGraph(base));
+		if (format.equals("ttl")) return new TurtleWriter(os, base);
+		if (format.equals("rdfb")) return new BinaryRDFWriter(os);
+		if (format.equals("xml")) return new RDFWriter(os);
+		throw new IllegalArgumentException("Unknown format " + format);
+	}
+	
+	public static String formatOf(String fileName) {
+		// guess the format from the file extension (.rdf and anything else is RDF/XML)
+		if (fileName.endsWith(".gz")) fileName = fileName.substring(0, fileName.length() - 3);
+		String ext = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
+		for (String f : FORMATS) if (f.equals(ext)) return f;
+		return "xml";
+	}
+	
+	public static String extensionOf(String format) {
+		// the file extension to use for a format
+		return format.equals("xml") ? "rdf" : format;
+	}
+	
+	protected static OutputStream openFile(String s) {
+		try {
+			return new FileOutputStream(s);
+		}
+		catch (FileNotFoundException e) { throw new UncheckedIOException(e); }
 	}
 	
+	private void println(String s) {
+		out.write(s);
+		out.write(NL);
+	}
 
 	public void endRDF() {
 		// write whatever goes at the botom of the rdf file
 		// and close the file.
-		out.println("</rdf:RDF>");
+		println("</rdf:RDF>");
 		out.close();
 	}
 	
+	public void abort() {
+		// the conversion failed: close the file without the end, and let go of anything
+		// still running (the gzip threads).  Instead of endRDF, or after it failed.
+		out.abort();
+	}
+	
 	public void writePropertyTag(String attributeName, String className, String rangeType) {
 	   // allow for rangeTypes other than "String".  If rangeType is empty, use "#string"
 	   // have to put a "#" before a primitive type but not in front of a "schema" type.
 	   // grr.  Maybe just check if the string has a # and add one to the beginning if not.
 	   
-		out.printf( "<rdf:Property rdf:ID=\"%s\">\n", attributeName);
-		out.printf( "  <rdfs:domain rdf:resource=\"#%s\"/>\n", className);  
+		out.write("<rdf:Property rdf:ID=\"" + attributeName + "\">\n");
+		out.write("  <rdfs:domain rdf:resource=\"#" + className + "\"/>\n");  
 		if (rangeType.length() == 0) rangeType = STRING_RANGE;
 		else if (!rangeType.contains("#")) rangeType = "#" + rangeType;
 		
-		out.printf("  <rdfs:range rdf:resource=\"%s\"/>\n", rangeType); 
-		out.println("</rdf:Property>");
-		out.println(" ");
+		out.write("  <rdfs:range rdf:resource=\"" + rangeType + "\"/>\n"); 
+		println("</rdf:Property>");
+		println(" ");
 	}
 	
 	
 	public void writeClassInfo(String className, String superclass) {
-		out.printf("<rdf:Description rdf:ID=\"%s\">\n", className);   
-		out.println("  <rdf:type rdf:resource=\"http://www.w3.org/2000/01/rdf-schema#Class\"/>");
+		out.write("<rdf:Description rdf:ID=\"" + className + "\">\n");   
+		println("  <rdf:type rdf:resource=\"http://www.w3.org/2000/01/rdf-schema#Class\"/>");
 		if (superclass.length() == 0) superclass = "Thing";
-		out.printf("  <rdfs:subClassOf rdf:resource=\"#%s\"/>", superclass);
-		out.println("\n</rdf:Description>");
-		out.println(" ");
+		out.write("  <rdfs:subClassOf rdf:resource=\"#" + superclass + "\"/>");
+		println("\n</rdf:Description>");
+		println(" ");
 	}
 
 	public void startInstance(String id, String className) {
 		// start a new instance, writes the opening rdf:description tag, and the rdf:type tag
-		out.printf("<rdf:Description rdf:ID=\"%s\">\n", id);
-		out.printf("  <rdf:type rdf:resource=\"%s\"/>\n", className);
+		out.write(START_INSTANCE);
+		out.write(id);
+		out.write(START_TYPE);
+		out.write(className);
+		out.write(END_TYPE);
+	}
+
+	public byte[] encodeId(String id) {
+		// an (already sanitized) ID the way startInstance and writeAttributeDataResource
+		// write it, so IdCache can keep the bytes
+		return ByteOut.encode(id);
+	}
+
+	public void startInstance(IdCache.Entry id, String className) {
+		// same as startInstance(String...), with the ID already encoded
+		out.write(START_INSTANCE);
+		out.write(id.encoded);
+		out.write(START_TYPE);
+		out.write(className);
+		out.write(END_TYPE);
+	}
+
+	public void continueInstance(IdCache.Entry id) {
+		out.write(CONTINUE_INSTANCE);
+		out.write(id.encoded);
+		out.write(END_ABOUT);
+	}
+
+	public void continueInstance(IdCache.Entry id, String className) {
+		// the class is only for writers that care which class it is (ShardedWriter)
+		continueInstance(id);
+	}
+
+	public void documentBase(String base) {
+		// (RDF/XML) what the rdf:IDs are relative to, instead of the file itself
+		documentBase = base;
+	}
+
+	public void continueInstance(String id) {
+		// more properties for an instance that was already written (startInstance) earlier
+		out.write(CONTINUE_INSTANCE);
+		out.write(id);
+		out.write(END_ABOUT);
 	}
 
 	public void endInstance() {
-		out.printf("</rdf:Description>\n");
-		out.println(" ");
-}
+		out.write(END_INSTANCE);
+	}
 	
 	
 	public void writeAttributeData(String attName, String attData) {
 	   // <sample:price>14.00</sample:price>
-		out.printf("  <sample:%s>%s</sample:%s>\n", attName, attData, attName);
+		byte[][] tags = literalTags.get(attName);
+		if (tags == null) {
+			tags = new byte[][] { ByteOut.encode("  <sample:" + attName + ">"), ByteOut.encode("</sample:" + attName + ">\n") };
+			literalTags.put(attName, tags);
+		}
+		out.write(tags[0]);
+		out.write(attData);
+		out.write(tags[1]);
+	}
+
+	public void writeTypedData(String attName, byte[] value, int length, LiteralType type) {
+	   // <sample:Weight rdf:datatype="http://www.w3.org/2001/XMLSchema#decimal">78</sample:Weight>
+	   // (value is ascii and never needs escaping)
+		byte[][] tags = typedTags.get(attName);
+		if (tags == null) {
+			tags = new byte[2 * LiteralType.KINDS][];
+			typedTags.put(attName, tags);
+		}
+		int k = 2 * type.kind;
+		if (tags[k] == null) {
+			tags[k] = ByteOut.encode("  <sample:" + attName + " rdf:datatype=\"" + type.iri + "\">");
+			tags[k + 1] = ByteOut.encode("</sample:" + attName + ">\n");
+		}
+		out.write(tags[k]);
+		out.write(value, 0, length);
+		out.write(tags[k + 1]);
 	}
 
 	public void writeAttributeDataResource(String attName, String attData) {
 	   // <sample:fromcountry rdf:resource="Thailand" />
-		out.printf("  <sample:%s rdf:resource=\"#%s\"/>\n", attName, attData);
+		byte[][] tags = resourceTags(attName);
+		out.write(tags[0]);
+		out.write(attData);
+		out.write(tags[1]);
+	}
+
+	public void writeAttributeDataResource(String attName, IdCache.Entry attData) {
+		byte[][] tags = resourceTags(attName);
+		out.write(tags[0]);
+		out.write(attData.encoded);
+		out.write(tags[1]);
+	}
+
+	private byte[][] resourceTags(String attName) {
+		byte[][] tags = resourceTags.get(attName);
+		if (tags == null) {
+			tags = new byte[][] { ByteOut.encode("  <sample:" + attName + " rdf:resource=\"#"), ByteOut.encode("\"/>\n") };
+			resourceTags.put(attName, tags);
+		}
+		return tags;
 	}
 	
 	
@@ -93,13 +280,14 @@ public class RDFWriter {
 		// write whatever goes at the top of the rdf file
 				
 		// open the rdf tag, and write header info
-		out.println("<rdf:RDF");
-  		out.println("  xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"");
-  		out.println("  xmlns:rdfs=\"http://www.w3.org/2000/01/rdf-schema#\"");
-  		out.println("  xmlns:owl=\"http://www.w3.org/2002/07/owl#\"");
-  		out.println("  xmlns:sample=\"http://www.test.nql.org/schemas/sample#\">");
-  		out.println("<owl:Ontology rdf:about=\"http://www.w3.org/2000/01/rdf-schema#\"/>");
-		out.println(" ");
+		println("<rdf:RDF");
+  		println("  xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"");
+  		println("  xmlns:rdfs=\"http://www.w3.org/2000/01/rdf-schema#\"");
+  		println("  xmlns:owl=\"http://www.w3.org/2002/07/owl#\"");
+  		if (documentBase != null) println("  xml:base=\"" + documentBase + "\"");
+  		println("  xmlns:sample=\"http://www.test.nql.org/schemas/sample#\">");
+  		println("<owl:Ontology rdf:about=\"http://www.w3.org/2000/01/rdf-schema#\"/>");
+		println(" ");
 	
 		// classes and property descriptions will be written by the caller
 	}
@@ -0,0 +1,89 @@
+/*
+	class Rejects
+	-rejects <file>: what couldn't be converted, as a csv file to look at (or fix and convert
+	again), instead of just being counted:
+	   row,offset,property,problem,value
+	   812,96532,Weight,not decimal,78 lbs
+	   1204,143187,,12 cells (the header has 33),"75594,17,INTERNATIONAL AIR,..."
+	row is the line's number in the csv (1 is the one after the header), counting the rows
+	converted before this run with -resume or -append, and offset is where it starts in the
+	file.  Either is left blank when it isn't known exactly: the split input (-threads) knows
+	where a row is but not its number, and only the memory mapped reader knows where a row
+	starts (opencsv and streams read ahead, and -append reads from where it got to).
+	With -resume and -append the file is added to, not started again.
+	A value that didn't parse has the property it was for.  A row with the wrong number of
+	cells has all of it, put back together.
+
+	It's shared by all the threads, each line is written whole.  Lines from different
+	threads may not be in row order.  (SplitConverter makes the lines of a range with
+	rowLine/valueLine and writes them when the range is written, a range can be parsed twice.)
+	A row -resume converts again (after the last checkpoint) can be in it twice.
+*/
+
+import au.com.bytecode.opencsv.CSVWriter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class Rejects {
+	private final String fileName;
+	private final CSVWriter out;
+	private final long rowsBefore;		// rows converted by earlier runs (-resume, -append)
+	private final boolean offsets;		// the offsets we're given are where the rows start
+	private long lines;
+
+	public Rejects(String fileName, boolean append, long rowsBefore, boolean offsets) throws IOException {
+		// append: add to what an earlier run of the same conversion wrote
+		this.fileName = fileName;
+		this.rowsBefore = rowsBefore;
+		this.offsets = offsets;
+		boolean header = !append || !Files.exists(Paths.get(fileName)) || Files.size(Paths.get(fileName)) == 0;
+		out = new CSVWriter(new OutputStreamWriter(new FileOutputStream(fileName, append), StandardCharsets.UTF_8));
+		if (header) out.writeNext(new String[] { "row", "offset", "property", "problem", "value" });
+	}
+
+	public String fileName() {
+		return fileName;
+	}
+
+	public void row(long row, long offset, CSVRow cells, int expected) {
+		write(rowLine(row, offset, cells, expected));
+	}
+
+	public void value(long row, long offset, String property, String problem, String value) {
+		write(valueLine(row, offset, property, problem, value));
+	}
+
+	public synchronized void write(String[] line) {
+		lines++;
+		out.writeNext(line);
+	}
+
+	public String[] rowLine(long row, long offset, CSVRow cells, int expected) {
+		// a row with the wrong number of cells.  row counts from 1 in this run, -1 (and offset -1) if not known
+		return new String[] { row(row), offset(offset), "", cells.length() + " cells (the header has " + expected + ")",
+			String.join(",", cells.toArray()) };
+	}
+
+	public String[] valueLine(long row, long offset, String property, String problem, String value) {
+		// a value that didn't parse
+		return new String[] { row(row), offset(offset), property, problem, value };
+	}
+
+	private String row(long n) {
+		return n >= 0 ? Long.toString(rowsBefore + n) : "";
+	}
+
+	private String offset(long n) {
+		return offsets && n >= 0 ? Long.toString(n) : "";
+	}
+
+	public synchronized void close() throws IOException {
+		out.close();
+		if (lines > 0) System.out.println(lines + " rows or values that couldn't be converted are in " + fileName);
+	}
+}
@@ -0,0 +1,145 @@
+/*
+	class RowPipeline
+	converts rows on several threads and still writes them out in input order.
+
+	The reader (the caller's thread) collects rows into batches and hands each batch
+	to a ForkJoinPool.  A worker renders the instances for its rows into a private
+	in-memory buffer with a fragmentWriter of the real writer.  The caller also
+	acts as the sequencer: the batches are kept in a queue in the order they were
+	submitted, and the oldest one is written out as soon as it is done, so the output
+	is byte for byte the same as the single threaded loop.
+
+	Each worker counts its rows in its own ConversionMetrics.Counts, and records a
+	ConvertBatch event for each batch.
+
+	The queue is bounded (a few batches per worker) so a slow disk holds back the reader
+	instead of piling up rendered batches in memory.
+*/
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public class RowPipeline {
+	public static final int DEFAULT_BATCH_SIZE = 1024;	// rows per batch
+
+	private final CSVPlan plan;
+	private final RDFWriter writer;
+	private final ConversionMetrics metrics;
+	private final ForkJoinPool pool;
+	private final int batchSize;
+	private final int maxPending;	// how many batches can be in flight before the reader waits
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+	// each worker thread keeps its own buffer, writer (the writer caches its tags) and IdCache
+	private final ThreadLocal<RDFWriter> fragmentWriters;
+	private final ThreadLocal<ByteOut> fragmentBuffers = ThreadLocal.withInitial(() -> new ByteOut(64 * 1024));
+	private final ThreadLocal<IdCache> idCaches;
+	private final ThreadLocal<TypedValues> typedValues;
+
+	private CSVRow[] batch;
+	private long[] numbers;		// the row number of each one in batch
+	private int batchCount;
+	private long batchStart;	// where in the input the batch started
+
+	public RowPipeline(CSVPlan plan, RDFWriter writer, int threads, IdCache ids) {
+		this(plan, writer, threads, ids, new ConversionMetrics("", plan));
+	}
+
+	public RowPipeline(CSVPlan plan, RDFWriter writer, int threads, IdCache ids, ConversionMetrics metrics) {
+		this(plan, writer, threads, ids, metrics, new TypedValues(null, TypedValues.DEFAULT_DATES));
+	}
+
+	public RowPipeline(CSVPlan plan, RDFWriter writer, int threads, IdCache ids, ConversionMetrics metrics, TypedValues typed) {
+		this(plan, writer, threads, ids, metrics, typed, DEFAULT_BATCH_SIZE);
+	}
+
+	public RowPipeline(CSVPlan plan, RDFWriter writer, int threads, IdCache ids, ConversionMetrics metrics, TypedValues typed, int batchSize) {
+		this.plan = plan;
+		this.writer = writer;
+		this.metrics = metrics;
+		this.pool = new ForkJoinPool(threads);
+		this.batchSize = batchSize;
+		this.maxPending = threads * 4;
+		this.fragmentWriters = ThreadLocal.withInitial(() -> writer.fragmentWriter(fragmentBuffers.get()));
+		this.idCaches = ThreadLocal.withInitial(() -> ids.child(fragmentWriters.get()));
+		this.typedValues = ThreadLocal.withInitial(typed::child);
+		this.batch = new CSVRow[batchSize];
+		this.numbers = new long[batchSize];
+		this.batchStart = metrics.position();
+	}
+
+	public void add(CSVRow row) throws IOException {
+		add(row, -1);
+	}
+
+	public void add(CSVRow row, long number) throws IOException {
+		// row must already be the right length, and must not be reused by the reader (copy()).
+		// number is its row number (for a SlowRow event, -1 if not known)
+		numbers[batchCount] = number;
+		batch[batchCount++] = row;
+		if (batchCount == batchSize) submitBatch();
+	}
+
+	public void finish() throws IOException {
+		// write out everything that's left and stop the workers
+		try {
+			if (batchCount > 0) submitBatch();
+			while (!pending.isEmpty()) writeOldest();
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private void submitBatch() throws IOException {
+		final CSVRow[] rows = batch;
+		final long[] rowNumbers = numbers;
+		final int n = batchCount;
+		long position = metrics.position();
+		final long bytesIn = position >= 0 && batchStart >= 0 ? position - batchStart : -1;
+		batchStart = position;
+		pending.add(pool.submit(() -> render(rows, rowNumbers, n, bytesIn)));
+		batch = new CSVRow[batchSize];
+		numbers = new long[batchSize];
+		batchCount = 0;
+
+		while (pending.size() > maxPending) writeOldest();
+	}
+
+	private byte[] render(CSVRow[] rows, long[] numbers, int n, long bytesIn) {
+		ConversionEvents.ConvertBatch event = new ConversionEvents.ConvertBatch();
+		event.begin();
+		ByteOut buffer = fragmentBuffers.get();
+		RDFWriter w = fragmentWriters.get();
+		IdCache ids = idCaches.get();
+		TypedValues typed = typedValues.get();
+		ConversionMetrics.Counts counts = metrics.counts();
+		buffer.reset();
+		for (int i = 0; i < n; i++) {
+			counts.convert(rows[i], plan, w, null, ids, typed, numbers[i], -1);
+		}
+		event.rows = n;
+		event.bytesIn = bytesIn;
+		event.bytesOut = buffer.size();
+		event.commit();
+		return buffer.toByteArray();
+	}
+
+	private void writeOldest() throws IOException {
+		try {
+			writer.writeFragment(pending.remove().get());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while converting", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IOException("Conversion failed", cause);
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*
+	class ServerAbortCheck
+	checks that a gzipped conversion that fails in the server leaves nothing running behind
+	it.  The server carries on after a bad request, so anything a failed conversion doesn't
+	let go of (the gzip threads, the writer's stream) piles up until it runs out.
+
+	   java -cp csv2rdf.jar ServerAbortCheck [-config <file>] [-rows n] [-requests n] [-port n]
+
+	It starts a ConversionServer in this java with the config (default shipments-config.csv),
+	makes -rows rows (default 100000) for it with WorkloadGenerator and gzips them, then sends
+	-requests (default 5) POSTs with gzip=1 whose body is only the first half of that.  Each one
+	starts converting (so the RDF has started coming back) and fails when the csv runs out.
+
+	For each one the client has to see an error (the connection dropped, not a response that
+	looks finished), /status has to count it as failed, and afterwards there mustn't be more
+	"gzip" threads than before it started.  Then a whole body is sent, which has to work.
+	It says what went wrong and exits with 1 if any of that doesn't hold.
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+public class ServerAbortCheck {
+	static final long WAIT_MILLIS = 5000;	// for the threads of a request that's over to go
+
+	String configFile = "shipments-config.csv";
+	int rows = 100000;
+	int requests = 5;
+	int port = 0;	// 0 = any free one
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		ServerAbortCheck c = new ServerAbortCheck();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String a = args[i];
+				if (a.equals("-config")) c.configFile = ConvertOptions.stringArg(args, ++i, a);
+				else if (a.equals("-rows")) c.rows = ConvertOptions.intArg(args, ++i, a);
+				else if (a.equals("-requests")) c.requests = Math.max(1, ConvertOptions.intArg(args, ++i, a));
+				else if (a.equals("-port")) c.port = ConvertOptions.intArg(args, ++i, a);
+				else throw new IllegalArgumentException("Unknown option " + a);
+			}
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: java -cp csv2rdf.jar ServerAbortCheck [-config <file>] [-rows n] [-requests n] [-port n]");
+			return;
+		}
+		boolean ok = false;
+		try {
+			ok = c.run();
+		}
+		catch (Throwable e) {
+			e.printStackTrace();
+		}
+		System.out.println(ok ? "OK" : "FAILED");
+		System.exit(ok ? 0 : 1);	// (the server's threads would keep it running)
+	}
+
+	boolean run() throws IOException, InterruptedException {
+		if (port == 0) {
+			try (ServerSocket s = new ServerSocket(0)) {
+				port = s.getLocalPort();
+			}
+		}
+		Path config = Paths.get(configFile).toAbsolutePath();
+		String name = config.getFileName().toString();
+		String[] args = { "-serve", Integer.toString(port), "-config-dir", config.getParent().toString(), "-progress", "0" };
+		ConversionServer.run(args, ConvertOptions.parse(args));
+
+		WorkloadGenerator g = new WorkloadGenerator();
+		g.rows = rows;
+		g.columns(csv2rdf.readConfigLines(configFile));
+		ByteArrayOutputStream gz = new ByteArrayOutputStream();
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));	// (the server's log too, from here on)
+		try (GZIPOutputStream os = new GZIPOutputStream(gz)) {
+			g.write(new ByteOut(os));
+		}
+		byte[] whole = gz.toByteArray();
+		byte[] half = Arrays.copyOf(whole, whole.length / 2);
+		String query = "config=" + name + "&gzip=1";
+
+		boolean ok = true;
+		int before = gzipThreads();
+		for (int i = 1; i <= requests; i++) {
+			String got = post(query, half);
+			if (got != null) {
+				stdout.println("request " + i + ": cut off csv, but the response ended normally (" + got + ")");
+				ok = false;
+			}
+			int after = settledGzipThreads(before);
+			if (after > before) {
+				stdout.println("request " + i + ": " + (after - before) + " gzip threads left behind");
+				ok = false;
+			}
+		}
+		String failed = status().getOrDefault("failed", "?");
+		if (!failed.equals(Integer.toString(requests))) {
+			stdout.println("/status says failed " + failed + ", after " + requests + " failed requests");
+			ok = false;
+		}
+
+		String got = post(query, whole);
+		if (got == null || !got.startsWith("ok")) {
+			stdout.println("the whole csv didn't convert: " + (got == null ? "the response was cut off" : got));
+			ok = false;
+		}
+		int after = settledGzipThreads(before);
+		if (after > before) {
+			stdout.println("the whole csv left " + (after - before) + " gzip threads behind");
+			ok = false;
+		}
+		System.setOut(stdout);
+		return ok;
+	}
+
+	private String post(String query, byte[] body) throws IOException, InterruptedException {
+		// what came back ("ok, n MB" or the status line), or null if the response was cut off.
+		// on a plain socket: the server answers as it converts, so the RDF has to be read
+		// while the csv is still going up (the java clients send all of it first), and the
+		// only way to tell a dropped connection from the end is the last chunk
+		try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			String head = "POST /convert?" + query + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+				+ "Content-Length: " + body.length + "\r\n\r\n";
+			Thread sender = new Thread(() -> {
+				try {
+					OutputStream os = s.getOutputStream();
+					os.write(head.getBytes(StandardCharsets.US_ASCII));
+					os.write(body);
+					os.flush();
+				}
+				catch (IOException e) { }	// (it's dropped the connection, the reading side sees that)
+			});
+			sender.setDaemon(true);
+			sender.start();
+			byte[] response;
+			try {
+				response = s.getInputStream().readAllBytes();
+			}
+			catch (IOException e) {
+				return null;	// reset
+			}
+			sender.join();
+			String text = new String(response, StandardCharsets.ISO_8859_1);
+			String status = text.substring(0, Math.max(0, text.indexOf("\r\n")));
+			if (!status.startsWith("HTTP/1.1 200")) return status;
+			if (!text.endsWith("\r\n0\r\n\r\n")) return null;
+			return String.format("ok, %.1f MB", response.length / 1e6);
+		}
+	}
+
+	private Map<String, String> status() throws IOException {
+		Map<String, String> m = new HashMap<String, String>();
+		URL url = new URL("http://localhost:" + port + "/status");
+		try (InputStream in = url.openStream()) {
+			for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+				int sp = line.lastIndexOf(' ');
+				if (sp > 0) m.put(line.substring(0, sp), line.substring(sp + 1).trim());
+			}
+		}
+		return m;
+	}
+
+	private static int settledGzipThreads(int before) throws InterruptedException {
+		// the threads are stopped, not waited for, give them a moment to go
+		long end = System.currentTimeMillis() + WAIT_MILLIS;
+		int n = gzipThreads();
+		while (n > before && System.currentTimeMillis() < end) {
+			Thread.sleep(50);
+			n = gzipThreads();
+		}
+		return n;
+	}
+
+	private static int gzipThreads() {
+		int n = 0;
+		for (Thread t : Thread.getAllStackTraces().keySet()) if (t.getName().equals("gzip") && t.isAlive()) n++;
+		return n;
+	}
+}
@@ -0,0 +1,384 @@
+/*
+	class ShardedWriter
+	-shard: writes the instances to several output files instead of one, so writing isn't
+	held up by one stream to one disk, and a loader can read the pieces in parallel.
+
+	   -shard class         a file per class in the config (<output>-<Class>.rdf), only for the
+	                        classes that have instances
+	   -shard hash          -shards files (default 4), an instance goes to the one its ID hashes
+	                        to, so the same ID (and everything merged into it) is always in the same one
+	   -shard size          a new file when the last one is past -shard-size MB (default 1024)
+
+	Each shard is a whole document in the output format: the top of the file and the class and
+	property descriptions are written to every one of them (the calls are kept and played again
+	when a shard is opened), then its instances, then the end.  For RDF/XML the shards get an
+	xml:base of the unsharded file's name, so the rdf:IDs mean the same as they would in one file.
+
+	The rows are converted on one thread, into a writer (and buffer) per shard.  (So it's never
+	used for fragments by RowPipeline or SplitConverter: -shard with -threads is an error.)  When a shard's
+	buffer fills up it's handed to that shard's own thread, which writes it to its file (and
+	gzips it, with -gzip), so the shards are written at the same time.  Only a few buffers per
+	shard wait to be written before the converter has to wait for the disk.
+
+	At the end <output base>.manifest.json lists the shards with their instances, triples (the
+	instance's rdf:type and its values, not the class and property descriptions) and bytes.
+*/
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+public class ShardedWriter extends RDFWriter {
+	public static final String[] MODES = { "class", "hash", "size" };
+	static final int DEFAULT_SHARDS = 4;
+	static final int DEFAULT_SIZE_MB = 1024;
+	static final int QUEUE = 4;		// buffers waiting per shard before the converter waits
+	private static final byte[] END = new byte[0];	// tells a shard's thread that's all
+
+	private final String by;
+	private final String format, base, graph;
+	private final String stem, extension;	// a shard is stem + "-" + its name + extension
+	private final String documentBase;
+	private final boolean gzip;
+	private final long maxBytes;
+	private final RDFWriter prototype;	// for encodeId (the shards all encode the same)
+	private final ArrayList<Consumer<RDFWriter>> schema = new ArrayList<Consumer<RDFWriter>>();
+	private final ArrayList<Shard> shards = new ArrayList<Shard>();	// in the order for the manifest
+	private final HashMap<String, Shard> classShards = new HashMap<String, Shard>();
+	private final Total total;
+	private final String manifest;
+	private Shard current;		// the one the instance we're writing goes to
+
+	public ShardedWriter(ConvertOptions options, String format, String outputFile, List<String> classNames) {
+		this(options, format, outputFile, classNames, new Total());
+	}
+
+	private ShardedWriter(ConvertOptions options, String format, String outputFile, List<String> classNames, Total total) {
+		super(total);
+		this.total = total;
+		this.by = options.shard;
+		this.format = format;
+		this.base = options.base;
+		this.graph = options.graph;
+		this.gzip = options.gzip || outputFile.endsWith(".gz");
+		this.maxBytes = options.shardSize;
+		String name = gzip && outputFile.endsWith(".gz") ? outputFile.substring(0, outputFile.length() - 3) : outputFile;
+		int dot = name.lastIndexOf('.');
+		if (dot <= name.lastIndexOf('/') || dot <= name.lastIndexOf('\\')) dot = name.length();
+		this.stem = name.substring(0, dot);
+		this.extension = name.substring(dot) + (gzip ? ".gz" : "");
+		this.documentBase = Paths.get(name).getFileName().toString();
+		this.manifest = stem + ".manifest.json";
+		this.prototype = RDFWriter.create(format, OutputStream.nullOutputStream(), base, graph);
+
+		if (by.equals("class")) {
+			for (String c : classNames) {
+				Shard s = new Shard(c);
+				shards.add(s);
+				classShards.put(c, s);
+			}
+		} else if (by.equals("hash")) {
+			for (int i = 0; i < options.shards; i++) shards.add(new Shard(String.format("%03d", i + 1)));
+		}
+	}
+
+	public String manifestFile() {
+		return manifest;
+	}
+
+	// the top of the file and the descriptions, for every shard when it's opened
+
+	public void startRDF() {
+		schema.add(w -> w.startRDF());
+	}
+
+	public void writeClassInfo(String className, String superclass) {
+		schema.add(w -> w.writeClassInfo(className, superclass));
+	}
+
+	public void writePropertyTag(String attributeName, String className, String rangeType) {
+		schema.add(w -> w.writePropertyTag(attributeName, className, rangeType));
+	}
+
+	public byte[] encodeId(String id) {
+		return prototype.encodeId(id);
+	}
+
+	// the instances, to the shard each one goes to
+
+	public void startInstance(String id, String className) {
+		route(id, className).writer.startInstance(id, className);
+		current.instances++;
+		current.triples++;
+	}
+
+	public void startInstance(IdCache.Entry id, String className) {
+		route(id.id, className).writer.startInstance(id, className);
+		current.instances++;
+		current.triples++;
+	}
+
+	public void continueInstance(String id) {
+		route(id, null).writer.continueInstance(id);
+	}
+
+	public void continueInstance(IdCache.Entry id) {
+		route(id.id, null).writer.continueInstance(id);
+	}
+
+	public void continueInstance(IdCache.Entry id, String className) {
+		route(id.id, className).writer.continueInstance(id);
+	}
+
+	public void writeAttributeData(String attName, String attData) {
+		current.writer.writeAttributeData(attName, attData);
+		current.triples++;
+	}
+
+	public void writeTypedData(String attName, byte[] value, int length, LiteralType type) {
+		current.writer.writeTypedData(attName, value, length, type);
+		current.triples++;
+	}
+
+	public void writeAttributeDataResource(String attName, String attData) {
+		current.writer.writeAttributeDataResource(attName, attData);
+		current.triples++;
+	}
+
+	public void writeAttributeDataResource(String attName, IdCache.Entry attData) {
+		current.writer.writeAttributeDataResource(attName, attData);
+		current.triples++;
+	}
+
+	public void endInstance() {
+		current.writer.endInstance();
+		if (by.equals("size") && current.size() >= maxBytes) {
+			close(current);
+			current = null;		// the next instance starts a new one
+		}
+	}
+
+	private Shard route(String id, String className) {
+		Shard s;
+		if (by.equals("class")) {
+			// (without the class, it goes with the last instance)
+			s = className == null && current != null ? current : classShards.get(className);
+			if (s == null) {
+				s = new Shard(className != null ? className : "other");
+				shards.add(s);
+				classShards.put(className, s);
+			}
+		} else if (by.equals("hash")) {
+			s = shards.get(Math.floorMod(id.hashCode() * 0x9E3779B9, shards.size()));
+		} else {
+			s = current;
+			if (s == null) {
+				s = new Shard(String.format("%03d", shards.size() + 1));
+				shards.add(s);
+			}
+		}
+		if (s.writer == null) open(s);
+		return current = s;
+	}
+
+	private void open(Shard s) {
+		s.file = stem + "-" + s.name + extension;
+		s.out = openFile(s.file);
+		s.thread = new Thread(s, "shard " + s.name);
+		s.thread.setDaemon(true);
+		s.thread.start();
+		RDFWriter w = RDFWriter.create(format, s, base, graph);
+		w.documentBase(documentBase);
+		for (Consumer<RDFWriter> c : schema) c.accept(w);
+		s.writer = w;
+		total.open.add(s);
+	}
+
+	private void close(Shard s) {
+		s.writer.endRDF();	// (puts END on its queue, the thread finishes on its own)
+		total.closed(s);
+	}
+
+	public void endRDF() {
+		// end every shard, wait for them to be written, then the manifest
+		if (by.equals("hash")) {
+			for (Shard s : shards) if (s.writer == null) open(s);	// so there are always -shards of them
+		}
+		for (Shard s : shards) if (s.writer != null && !s.closed) close(s);
+		IOException failed = null;
+		for (Shard s : shards) {
+			if (s.thread == null) continue;
+			try {
+				s.thread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted waiting for " + s.file, e);
+			}
+			if (s.error != null && failed == null) failed = s.error;
+		}
+		if (failed != null) throw new UncheckedIOException(failed);
+		try {
+			writeManifest();
+		}
+		catch (IOException e) { throw new UncheckedIOException(e); }
+		int n = 0;
+		for (Shard s : shards) if (s.file != null) n++;
+		System.out.println("Wrote " + n + " shards (by " + by + "), listed in " + manifest);
+	}
+
+	public void abort() {
+		// the conversion failed: each open shard's thread drops what it has and closes its
+		// file (no end, no gzip trailer), and there's no manifest
+		for (Shard s : shards) {
+			if (s.writer == null || s.closed) continue;
+			s.aborted = true;
+			s.writer.abort();	// (puts END on its queue, the thread sees aborted)
+		}
+	}
+
+		private void writeManifest() throws IOException {
+		StringBuilder sb = new StringBuilder("{\n");
+		sb.append("  \"output\": ").append(ConversionMetrics.quote(documentBase)).append(",\n");
+		sb.append("  \"format\": ").append(ConversionMetrics.quote(format)).append(",\n");
+		sb.append("  \"shardBy\": ").append(ConversionMetrics.quote(by)).append(",\n");
+		sb.append("  \"shards\": [");
+		long instances = 0, triples = 0;
+		boolean first = true;
+		for (Shard s : shards) {
+			if (s.file == null) continue;
+			sb.append(first ? "\n" : ",\n");
+			first = false;
+			sb.append(String.format("    {\"file\": %s, \"instances\": %d, \"triples\": %d, \"bytes\": %d}",
+				ConversionMetrics.quote(Paths.get(s.file).getFileName().toString()), s.instances, s.triples, Files.size(Paths.get(s.file))));
+			instances += s.instances;
+			triples += s.triples;
+		}
+		sb.append("\n  ],\n");
+		sb.append(String.format("  \"instances\": %d,%n  \"triples\": %d%n}%n", instances, triples));
+		Path tmp = Paths.get(manifest + ".tmp");
+		Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp, Paths.get(manifest), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+
+	/*
+		one output file: the converter's writer for it writes into this stream, which
+		hands the buffers to the shard's thread to write to the file
+	*/
+	private final class Shard extends OutputStream implements Runnable {
+		final String name;
+		String file;
+		volatile RDFWriter writer;	// null until it's opened
+		OutputStream out;
+		Thread thread;
+		final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE);
+		volatile IOException error;
+		boolean closed;
+		volatile boolean aborted;
+		long instances, triples;
+
+		Shard(String name) {
+			this.name = name;
+		}
+
+		long size() {
+			return writer.out.written() + writer.out.size();
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			// (the writer reuses its buffer, so this has to be a copy)
+			if (error != null) throw error;
+			put(Arrays.copyOfRange(b, off, off + len));
+		}
+
+		public void close() throws IOException {
+			closed = true;
+			put(END);
+		}
+
+		private void put(byte[] b) throws IOException {
+			try {
+				queue.put(b);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted writing " + file, e);
+			}
+		}
+
+		public void run() {
+			// (the shard's thread) write what comes until END
+			byte[] b = null;
+			OutputStream os = out;
+			try {
+				if (gzip) os = new ParallelGzipOutputStream(out, 1);
+				while ((b = queue.take()) != END) os.write(b);
+				if (!aborted) {
+					os.close();
+					return;
+				}
+			}
+			catch (IOException e) {
+				error = e;
+				// keep taking them so the converter doesn't wait forever, it'll see the error
+				try {
+					while (b != END) b = queue.take();
+				}
+				catch (InterruptedException ie) { }
+			}
+			catch (InterruptedException e) {
+				error = new IOException("Interrupted writing " + file, e);
+			}
+			ParallelGzipOutputStream.abort(os);	// (and the file under it)
+		}
+	}
+
+	/*
+		what writer.out is for the metrics and the ConvertBatch events: the bytes and the
+		write time of all the shards
+	*/
+	private static final class Total extends ByteOut {
+		final List<Shard> open = new CopyOnWriteArrayList<Shard>();
+		private volatile long closedWritten, closedNanos;	// from shards that are finished with
+
+		Total() {
+			super(0);
+		}
+
+		void closed(Shard s) {
+			closedWritten += s.writer.out.written();
+			closedNanos += s.writer.out.writeNanos();
+			open.remove(s);
+		}
+
+		public long written() {
+			long n = closedWritten;
+			for (Shard s : open) n += s.writer.out.written();
+			return n;
+		}
+
+		public long writeNanos() {
+			long n = closedNanos;
+			for (Shard s : open) n += s.writer.out.writeNanos();
+			return n;
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/*
+	class SplitConverter
+	parses AND converts one csv file on several threads by cutting it into byte ranges.
+
+	RowPipeline still has one thread doing all the parsing.  Here each range of the file
+	(CHUNK_SIZE bytes) is tokenized and rendered by its own task, and the caller writes
+	the results back out in file order.
+
+	The hard part is where a range starts.  Cutting at a byte offset usually lands in the
+	middle of a line, and it can land inside a quoted cell with newlines in it, so "skip to
+	the next newline" isn't always right.  So each task guesses (speculates) that its
+	offset is not inside quotes, and starts at the first line break after it where it has
+	seen an even number of quotes.  A range owns the lines that START inside it, so it parses
+	on past its end to finish its last line.  Its real end (the start of the line after that)
+	is exactly where the next range has to start.
+	When the caller gets the results in order it checks the guess: if the next range started
+	somewhere else, it was wrong (it began inside a quoted cell) and that range is parsed
+	again from the right place.  With real data that almost never happens.
+
+	Each range counts its rows in its own ConversionMetrics.Counts, which are only added to
+	the totals when the range is written out, so a range that's parsed again isn't counted twice.
+	Its lines for the Rejects file are kept the same way.
+	(Its ConvertBatch event is recorded each time though, it's work that was done.)
+
+	This assumes quotes are used the RFC 4180 way (only around whole cells), same as
+	MappedCSVReader.
+*/
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public class SplitConverter {
+	public static final int CHUNK_SIZE = 4 * 1024 * 1024;	// bytes of input per task
+	static final int OVERLAP = 1024 * 1024;	// how far past its end a range maps to finish its last line
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int numAttributes;
+	private final CSVPlan plan;
+	private final RDFWriter writer;
+	private final ConversionMetrics metrics;
+	private final int threads;
+	private final int chunkSize;
+	private boolean[] wanted;	// columns the plan uses (null = all)
+	private volatile long position;	// how far it's written out to
+	private Checkpoint checkpoint;
+
+	private final ThreadLocal<RDFWriter> fragmentWriters;
+	private final ThreadLocal<ByteOut> fragmentBuffers = ThreadLocal.withInitial(() -> new ByteOut(256 * 1024));
+	private final ThreadLocal<IdCache> idCaches;
+	private final ThreadLocal<TypedValues> typedValues;
+	private final Rejects rejects;		// (null = none)
+
+	static class Chunk {
+		long start;			// where this range's first line starts (guessed or known)
+		long limit;			// where the range was cut (lines starting before this are ours)
+		long end;			// where the line after its last line starts
+		byte[] rdf;			// the rendered instances
+		ArrayList<CSVRow> badRows = new ArrayList<CSVRow>();
+		ArrayList<String[]> rejects = new ArrayList<String[]>();	// lines for the Rejects file
+		ConversionMetrics.Counts counts;
+		boolean failed;	// speculative parse ran off the mapped area, do it again
+	}
+
+	public SplitConverter(String fileName, int numAttributes, CSVPlan plan, RDFWriter writer, int threads, IdCache ids) throws IOException {
+		this(fileName, numAttributes, plan, writer, threads, ids, new ConversionMetrics(fileName, plan));
+	}
+
+	public SplitConverter(String fileName, int numAttributes, CSVPlan plan, RDFWriter writer, int threads, IdCache ids,
+	                      ConversionMetrics metrics) throws IOException {
+		this(fileName, numAttributes, plan, writer, threads, ids, metrics, new TypedValues(null, TypedValues.DEFAULT_DATES));
+	}
+
+	public SplitConverter(String fileName, int numAttributes, CSVPlan plan, RDFWriter writer, int threads, IdCache ids,
+	                      ConversionMetrics metrics, TypedValues typed) throws IOException {
+		this(Paths.get(fileName), numAttributes, plan, writer, threads, ids, metrics, typed, CHUNK_SIZE);
+	}
+
+	SplitConverter(Path path, int numAttributes, CSVPlan plan, RDFWriter writer, int threads, IdCache ids, int chunkSize) throws IOException {
+		this(path, numAttributes, plan, writer, threads, ids, new ConversionMetrics(path.toString(), plan),
+			new TypedValues(null, TypedValues.DEFAULT_DATES), chunkSize);
+	}
+
+	SplitConverter(Path path, int numAttributes, CSVPlan plan, RDFWriter writer, int threads, IdCache ids,
+	               ConversionMetrics metrics, TypedValues typed, int chunkSize) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.fileSize = channel.size();
+		this.numAttributes = numAttributes;
+		this.plan = plan;
+		this.writer = writer;
+		this.metrics = metrics;
+		this.threads = threads;
+		this.chunkSize = chunkSize;
+		this.fragmentWriters = ThreadLocal.withInitial(() -> writer.fragmentWriter(fragmentBuffers.get()));
+		this.idCaches = ThreadLocal.withInitial(() -> ids.child(fragmentWriters.get()));
+		this.typedValues = ThreadLocal.withInitial(typed::child);
+		this.rejects = typed.rejects();
+	}
+
+	public void project(boolean[] columns) {
+		// only tokenize these columns (see MappedCSVReader.project)
+		wanted = columns;
+	}
+
+	public void checkpoint(Checkpoint c) {
+		// take checkpoints between ranges (null = don't)
+		checkpoint = c;
+	}
+
+	public long position() {
+		// bytes of the file converted and written out so far
+		return position;
+	}
+
+	public long size() {
+		return fileSize;
+	}
+
+	public void convert(long dataStart) throws IOException {
+		// convert everything from dataStart (the line after the header) to the end of the file
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+		long next = dataStart;		// start of the next range to hand out
+		long expected = dataStart;	// where the next range we write out must start
+		ConversionMetrics.Counts counts = metrics.counts();
+		position = dataStart;
+		try {
+			while (next < fileSize || !pending.isEmpty()) {
+				// keep a few ranges per thread in flight
+				while (next < fileSize && pending.size() < threads * 2) {
+					final long from = next;
+					final boolean known = (from == dataStart);
+					final long to = Math.min(fileSize, from + chunkSize);
+					pending.add(pool.submit(() -> parseRange(from, to, known)));
+					next = to;
+				}
+
+				Chunk c = pending.remove().get();
+				if (c.failed || c.start != expected) {
+					// the guess was wrong, we know the right place now
+					c = parseFrom(expected, c.limit);
+				}
+				for (CSVRow row : c.badRows) csv2rdf.printBadlyFormed(row);
+				if (rejects != null) for (String[] line : c.rejects) rejects.write(line);
+				writer.writeFragment(c.rdf);
+				if (c.counts != null) counts.add(c.counts);
+				expected = c.end;
+				position = expected;
+				if (checkpoint != null) checkpoint.reached(expected, counts.rows, writer.out, null);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while converting", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IOException("Conversion failed", cause);
+		}
+		finally {
+			pool.shutdownNow();
+			channel.close();
+		}
+	}
+
+	private Chunk parseRange(long from, long to, boolean startKnown) throws IOException {
+		// (runs on a worker) find where the first line starts, then parse the range
+		long start = startKnown ? from : guessLineStart(from, to);
+		if (start < 0) {
+			// no line starts in this range at all (one very long line), it's all the previous range's
+			Chunk c = new Chunk();
+			c.start = c.end = c.limit = to;
+			c.rdf = new byte[0];
+			return c;
+		}
+		return parse(start, to, OVERLAP);
+	}
+
+	private Chunk parseFrom(long start, long to) throws IOException {
+		// (runs on the caller) start is known to be right, so keep mapping more until the last line fits
+		int overlap = OVERLAP;
+		while (true) {
+			Chunk c = parse(start, to, overlap);
+			if (!c.failed) return c;
+			overlap *= 2;
+		}
+	}
+
+	private Chunk parse(long start, long to, int overlap) throws IOException {
+		// parse the lines starting in [start, to)
+		Chunk c = new Chunk();
+		c.start = start;
+		c.limit = to;
+		if (start >= to) {
+			// the previous range's last line ran past all of this one
+			c.end = start;
+			c.rdf = new byte[0];
+			return c;
+		}
+		long mapEnd = Math.min(fileSize, to + overlap);
+		if (mapEnd - start > Integer.MAX_VALUE) throw new IOException("Line at byte " + start + " is too long");
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, mapEnd - start);
+		boolean lastWindow = (mapEnd == fileSize);
+		int limit = (int) (to - start);	// lines starting before this are ours
+
+		ConversionEvents.ConvertBatch event = new ConversionEvents.ConvertBatch();
+		event.begin();
+		MappedCSVReader.Row row = new MappedCSVReader.Row();
+		row.buf = buf;
+		row.project(wanted);
+		ByteOut buffer = fragmentBuffers.get();
+		RDFWriter w = fragmentWriters.get();
+		IdCache ids = idCaches.get();
+		TypedValues typed = typedValues.get();
+		typed.hold(c.rejects);
+		ConversionMetrics.Counts counts = c.counts = new ConversionMetrics.Counts(plan);
+		buffer.reset();
+
+		int p = 0;
+		while (p < limit) {
+			long t0 = System.nanoTime();
+			int end = row.tokenize(p, buf.limit(), lastWindow);
+			counts.parseNanos += System.nanoTime() - t0;
+			if (end < 0) {
+				c.failed = true;	// didn't find the end of the line in what we mapped
+				return c;
+			}
+			counts.rows++;
+			if (row.length() == numAttributes) {
+				counts.convert(row, plan, w, null, ids, typed, -1, start + p);	// (the row number isn't known here)
+			} else {
+				counts.rejected++;
+				c.badRows.add(row.copy());
+				if (rejects != null) c.rejects.add(rejects.rowLine(-1, start + p, row, numAttributes));
+			}
+			p = end;
+		}
+		c.end = start + p;
+		c.rdf = buffer.toByteArray();
+		event.rows = counts.rows;
+		event.rejected = counts.rejected;
+		event.bytesIn = p;
+		event.bytesOut = c.rdf.length;
+		event.commit();
+		return c;
+	}
+
+	private long guessLineStart(long from, long to) throws IOException {
+		// assume from is not inside quotes, and find the first line that starts at or after it.
+		long mapStart = from - 1;	// (look at the byte before, so a line that starts right at from counts)
+		long mapEnd = Math.min(fileSize, to + 1);
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+		int n = buf.limit();
+		byte before = buf.get(0);
+		if (before == '\n' || (before == '\r' && buf.get(1) != '\n')) return from;
+
+		// 64 bytes at a time: line breaks that aren't inside quotes
+		boolean inQuotes = false;
+		long[] masks = new long[3];
+		for (int i = 1; i < n - 1; i += 64) {
+			CSVScanner.classify(buf, i, n - 1, masks);
+			long quotes = masks[CSVScanner.QUOTES];
+			long breaks = masks[CSVScanner.NEWLINES] & ~CSVScanner.insideQuotes(quotes, inQuotes);
+			if (breaks != 0) {
+				int k = i + Long.numberOfTrailingZeros(breaks);
+				if (buf.get(k) == '\r' && buf.get(k + 1) == '\n') k++;
+				if (mapStart + k + 1 < to) return mapStart + k + 1;
+				return -1;
+			}
+			if ((Long.bitCount(quotes) & 1) != 0) inQuotes = !inQuotes;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+	class StreamCSVReader
+	reads the csv from a stream (stdin, in pipe mode) with the same tokenizer as
+	MappedCSVReader, since a pipe can't be memory mapped.
+
+	The bytes are read into one big buffer and each line is tokenized in place.  When a line
+	runs off the end of what we've read, the unread part is moved to the front and the
+	rest of the buffer is filled again.  So memory stays the same however big the input is
+	(the buffer only grows for a line longer than the whole buffer).
+
+	Because the buffer gets reused, copy() has to copy the line's bytes, unlike the
+	mapped reader where the copies can keep pointing into the file.
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class StreamCSVReader implements CSVRowReader {
+	public static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+	private final InputStream in;
+	private byte[] bytes;
+	private int pos;		// next byte to tokenize
+	private int limit;	// end of what we've read
+	private boolean eof;
+	private boolean started;
+	private final CountingInputStream source;	// the file under the gunzipping, if there's one
+	private final long size;
+	private long consumed;	// bytes read from in
+
+	private final StreamRow row = new StreamRow();
+
+	public StreamCSVReader(InputStream in) {
+		this(in, BUFFER_SIZE);
+	}
+
+	public StreamCSVReader(InputStream in, CountingInputStream source, long size) {
+		// source is what in reads from (it may be gunzipping), for position()
+		this(in, BUFFER_SIZE, source, size);
+	}
+
+	StreamCSVReader(InputStream in, int bufferSize) {
+		this(in, bufferSize, null, -1);
+	}
+
+	StreamCSVReader(InputStream in, int bufferSize, CountingInputStream source, long size) {
+		this.in = in;
+		this.source = source;
+		this.size = size;
+		this.bytes = new byte[bufferSize];
+		row.buf = ByteBuffer.wrap(bytes);
+	}
+
+	public CSVRow readNext() throws IOException {
+		while (true) {
+			if (pos < limit) {
+				int end = row.tokenize(pos, limit, eof);
+				if (end >= 0) {
+					row.lineEnd = end;
+					pos = end;
+					return row;
+				}
+			} else if (eof) {
+				return null;
+			}
+			fill();
+		}
+	}
+
+	private void fill() throws IOException {
+		// keep the line we're in the middle of, and read more after it
+		if (pos > 0) {
+			System.arraycopy(bytes, pos, bytes, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+		if (limit == bytes.length) {
+			// one line bigger than the whole buffer
+			bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			row.buf = ByteBuffer.wrap(bytes);
+		}
+		int n = in.read(bytes, limit, bytes.length - limit);
+		if (n < 0) {
+			eof = true;
+			return;
+		}
+		limit += n;
+		consumed += n;
+		if (!started && limit >= 3) {
+			// skip a UTF-8 byte order mark
+			started = true;
+			if ((bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB && (bytes[2] & 0xFF) == 0xBF) pos = 3;
+		}
+	}
+
+	public void project(boolean[] columns) {
+		row.project(columns);
+	}
+
+	public long position() {
+		return source != null ? source.count() : consumed;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+
+	static final class StreamRow extends MappedCSVReader.Row {
+		int lineEnd;	// where the next line starts
+
+		public CSVRow copy() {
+			// tokenize a copy of just this line
+			byte[] line = new byte[lineEnd - lineStart];
+			buf.get(lineStart, line);
+			MappedCSVReader.Row r = new MappedCSVReader.Row();
+			r.buf = ByteBuffer.wrap(line);
+			r.project(wanted);
+			r.tokenize(0, line.length, true);
+			return r;
+		}
+	}
+}
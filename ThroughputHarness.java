@@ -0,0 +1,238 @@
+/*
+	class ThroughputHarness
+	times whole conversions of a big generated file and fails if they've got slower than
+	they were, so a change that makes the converter slower gets noticed.
+
+	   java -cp csv2rdf.jar ThroughputHarness [-config <file>] [-rows n] [-runs n] [-threshold pct]
+	                                          [-baseline <file>] [-update] [-dir <dir>] [case...]
+
+	It makes a file of -rows rows (default 1000000) for the config (default
+	shipments-config.csv) with WorkloadGenerator, then converts it with each case's options:
+
+	   serial     no options
+	   threads    -threads 0
+	   opencsv    -opencsv
+	   nt         -format nt
+	   dedupe     -dedupe
+
+	(or just the cases named on the command line).  Each conversion runs in its own java,
+	so they don't warm each other up or share a heap, and the peak RSS is the conversion's own.
+	Each case is run -runs times (default 3) and the fastest counts, the others are mostly
+	noise from whatever else the machine was doing.
+
+	For each case it prints rows/s, MB/s of csv, the peak RSS and the time spent in GC, and
+	compares rows/s with the baseline file (default throughput-baseline.properties).  If any
+	case is more than -threshold percent (default 10) slower than its baseline, it says so
+	and exits with 1.  -update writes the results as the new baseline, and a case with no
+	baseline yet gets one.  The baseline belongs to the machine it was made on, so it isn't
+	kept with the source.
+*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+public class ThroughputHarness {
+	static final String RESULT = "RESULT ";	// how the child's numbers come back on its stdout
+
+	static final Map<String, String[]> CASES = new LinkedHashMap<String, String[]>();
+	static {
+		CASES.put("serial", new String[0]);
+		CASES.put("threads", new String[] { "-threads", "0" });
+		CASES.put("opencsv", new String[] { "-opencsv" });
+		CASES.put("nt", new String[] { "-format", "nt" });
+		CASES.put("dedupe", new String[] { "-dedupe" });
+	}
+
+	// the best run of one case
+	static class Result {
+		final String name;
+		long nanos = Long.MAX_VALUE;
+		long gcMillis;
+		long peakRss;	// bytes, -1 if we couldn't tell
+
+		Result(String name) {
+			this.name = name;
+		}
+	}
+
+	String configFile = "shipments-config.csv";
+	int rows = 1000000;
+	int runs = 3;
+	double threshold = 10;
+	String baselineFile = "throughput-baseline.properties";
+	boolean update = false;
+	String dir = null;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length > 0 && args[0].equals("-child")) {
+			child(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		ThroughputHarness h = new ThroughputHarness();
+		ArrayList<String> cases = new ArrayList<String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String a = args[i];
+				if (a.equals("-config")) h.configFile = ConvertOptions.stringArg(args, ++i, a);
+				else if (a.equals("-rows")) h.rows = ConvertOptions.intArg(args, ++i, a);
+				else if (a.equals("-runs")) h.runs = Math.max(1, ConvertOptions.intArg(args, ++i, a));
+				else if (a.equals("-threshold")) h.threshold = ConvertOptions.intArg(args, ++i, a);
+				else if (a.equals("-baseline")) h.baselineFile = ConvertOptions.stringArg(args, ++i, a);
+				else if (a.equals("-update")) h.update = true;
+				else if (a.equals("-dir")) h.dir = ConvertOptions.stringArg(args, ++i, a);
+				else if (a.startsWith("-")) throw new IllegalArgumentException("Unknown option " + a);
+				else if (!CASES.containsKey(a)) throw new IllegalArgumentException("Unknown case " + a + ", there's " + CASES.keySet());
+				else cases.add(a);
+			}
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: java -cp csv2rdf.jar ThroughputHarness [-config <file>] [-rows n] [-runs n] [-threshold pct]");
+			System.err.println("       [-baseline <file>] [-update] [-dir <dir>] [case...]");
+			return;
+		}
+		if (cases.isEmpty()) cases.addAll(CASES.keySet());
+		if (!h.run(cases)) System.exit(1);
+	}
+
+	boolean run(List<String> cases) throws IOException, InterruptedException {
+		// true if nothing got slower
+		Path work = dir != null ? Paths.get(dir) : Files.createTempDirectory("csv2rdf-throughput");
+		Path csv = work.resolve("workload.csv");
+		Files.copy(Paths.get(configFile), work.resolve("workload-config.csv"), StandardCopyOption.REPLACE_EXISTING);
+		WorkloadGenerator g = new WorkloadGenerator();
+		g.rows = rows;
+		g.columns(csv2rdf.readConfigLines(configFile));
+		System.out.println("Generating " + rows + " rows in " + csv);
+		g.write(new ByteOut(new FileOutputStream(csv.toFile())));
+		long size = Files.size(csv);
+
+		Properties baseline = new Properties();
+		File bf = new File(baselineFile);
+		if (bf.exists()) {
+			try (FileInputStream in = new FileInputStream(bf)) {
+				baseline.load(in);
+			}
+			String baseRows = baseline.getProperty("rows");
+			if (baseRows != null && !baseRows.equals(Integer.toString(rows)))
+				System.out.println("(the baseline was made with " + baseRows + " rows, this is " + rows + ")");
+		}
+
+		boolean ok = true, changed = false;
+		System.out.println(String.format("%n%-10s %12s %8s %10s %8s %10s %12s", "case", "rows/s", "MB/s", "RSS MB", "GC ms", "baseline", ""));
+		for (String name : cases) {
+			Result r = new Result(name);
+			for (int i = 0; i < runs; i++) runChild(r, CASES.get(name), work, csv);
+			double rate = rows * 1e9 / r.nanos;
+			String key = name + ".rows_per_sec";
+			String base = baseline.getProperty(key);
+			String verdict;
+			if (base == null || update) {
+				baseline.setProperty(key, String.format("%.0f", rate));
+				changed = true;
+				verdict = base == null ? "new baseline" : "updated";
+			} else {
+				double b = Double.parseDouble(base);
+				double change = 100 * (rate - b) / b;
+				if (change < -threshold) {
+					ok = false;
+					verdict = String.format("%+.1f%% SLOWER", change);
+				} else {
+					verdict = String.format("%+.1f%%", change);
+				}
+			}
+			System.out.println(String.format("%-10s %12.0f %8.1f %10s %8d %10s %12s", name, rate, size * 1e3 / r.nanos,
+				r.peakRss < 0 ? "?" : String.format("%.0f", r.peakRss / 1e6), r.gcMillis, base != null ? base : "-", verdict));
+		}
+		if (changed) {
+			baseline.setProperty("rows", Integer.toString(rows));
+			try (FileOutputStream out = new FileOutputStream(bf)) {
+				baseline.store(out, "csv2rdf ThroughputHarness, rows/s on this machine");
+			}
+			System.out.println("Baseline written to " + bf);
+		}
+		if (!ok) System.out.println("Throughput went down more than " + threshold + "% from the baseline");
+		if (dir == null) {
+			for (File f : work.toFile().listFiles()) f.delete();
+			work.toFile().delete();
+		}
+		return ok;
+	}
+
+	private static void runChild(Result r, String[] options, Path work, Path csv) throws IOException, InterruptedException {
+		// one conversion in a new java, keeps the fastest
+		ArrayList<String> cmd = new ArrayList<String>();
+		cmd.add(ProcessHandle.current().info().command().orElse(Paths.get(System.getProperty("java.home"), "bin", "java").toString()));
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add("ThroughputHarness");
+		cmd.add("-child");
+		cmd.addAll(Arrays.asList(options));
+		cmd.add(csv.toString());
+		Process p = new ProcessBuilder(cmd).directory(work.toFile()).redirectErrorStream(true).start();
+		String result = null;
+		StringBuilder log = new StringBuilder();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(RESULT)) result = line.substring(RESULT.length());
+				else log.append(line).append('\n');
+			}
+		}
+		if (p.waitFor() != 0 || result == null) throw new IOException("Conversion failed: " + cmd + "\n" + log);
+		String[] f = result.split(" ");
+		long nanos = Long.parseLong(f[0]);
+		if (nanos < r.nanos) {
+			r.nanos = nanos;
+			r.gcMillis = Long.parseLong(f[1]);
+			r.peakRss = Long.parseLong(f[2]);
+		}
+		for (File out : work.toFile().listFiles()) {
+			String n = out.getName();
+			if (n.startsWith("workload.") && !n.equals("workload.csv")) out.delete();	// the RDF
+		}
+	}
+
+	private static void child(String[] args) throws IOException {
+		// (in the new java) convert, and print how long it took and what it used
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		long t0 = System.nanoTime();
+		csv2rdf.main(args);
+		long nanos = System.nanoTime() - t0;
+		System.setOut(console);
+		long gc = 0;
+		for (GarbageCollectorMXBean b : ManagementFactory.getGarbageCollectorMXBeans()) gc += Math.max(0, b.getCollectionTime());
+		System.out.println(RESULT + nanos + " " + gc + " " + peakRss());
+	}
+
+	static long peakRss() {
+		// the high water mark of resident memory, from linux (-1 anywhere else)
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+				if (line.startsWith("VmHWM:")) return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+			}
+		}
+		catch (IOException | RuntimeException e) { }
+		return -1;
+	}
+}
@@ -0,0 +1,177 @@
+/*
+	class TurtleWriter
+	writes Turtle instead of RDF/XML, the smallest of the text formats.
+
+	   @prefix sample: <http://www.test.nql.org/schemas/sample#> .
+	   sample:75594 a sample:Shipment ;
+	       sample:Carrier "17" ;
+	       sample:Weight "78"^^xsd:integer ;
+	       sample:fromshipper sample:INGRAM_MICRO .
+
+	All of an instance's properties are grouped under its subject (startInstance to
+	endInstance), and anything in one of the prefixed namespaces is written with its
+	prefix when the name is simple enough to be a Turtle local name.  Anything else
+	gets the whole <IRI>, escaped like NTriplesWriter does it.
+*/
+
+import java.io.OutputStream;
+import java.util.HashMap;
+
+public class TurtleWriter extends RDFWriter {
+	protected final String base;
+	private final boolean baseIsSample;	// then IDs can be written as sample:ID
+
+	private boolean needSemicolon;	// a property has been written for this subject already
+
+	private final HashMap<String, byte[]> predicates = new HashMap<String, byte[]>();
+
+	private static final byte[] NEXT_PROPERTY = ByteOut.encode(" ;\n    ");
+	private static final byte[] FIRST_PROPERTY = ByteOut.encode("\n    ");
+	private static final byte[] END_SUBJECT = ByteOut.encode(" .\n\n");
+	private static final byte[] IS_A = ByteOut.encode(" a ");
+	private static final byte[][] DATATYPES = new byte[LiteralType.KINDS][];	// "^^xsd:integer...
+	static {
+		for (int k = 0; k < LiteralType.KINDS; k++) DATATYPES[k] = ByteOut.encode("\"^^xsd:" + LiteralType.NAMES[k]);
+	}
+
+	public TurtleWriter(OutputStream os, String base) {
+		super(os);
+		this.base = base;
+		this.baseIsSample = base.equals(SAMPLE_NS);
+	}
+
+	protected TurtleWriter(ByteOut buffer, String base) {
+		super(buffer);
+		this.base = base;
+		this.baseIsSample = base.equals(SAMPLE_NS);
+	}
+
+	public RDFWriter fragmentWriter(ByteOut buffer) {
+		return new TurtleWriter(buffer, base);
+	}
+
+	public void startRDF() {
+		out.write("@prefix rdf: <" + RDF_NS + "> .\n");
+		out.write("@prefix rdfs: <" + RDFS_NS + "> .\n");
+		out.write("@prefix owl: <" + OWL_NS + "> .\n");
+		out.write("@prefix xsd: <" + XSD_NS + "> .\n");
+		out.write("@prefix sample: <" + SAMPLE_NS + "> .\n\n");
+		out.write("<" + RDFS_NS + "> a owl:Ontology .\n\n");
+	}
+
+	public void endRDF() {
+		out.close();
+	}
+
+	public void writeClassInfo(String className, String superclass) {
+		if (superclass.length() == 0) superclass = "Thing";
+		out.write(local(className) + " a rdfs:Class ;\n    rdfs:subClassOf " + local(superclass) + " .\n\n");
+	}
+
+	public void writePropertyTag(String attributeName, String className, String rangeType) {
+		String range;
+		if (rangeType.length() == 0) range = "xsd:string";
+		else if (rangeType.startsWith(XSD_NS)) range = prefixed("xsd:", XSD_NS, rangeType.substring(XSD_NS.length()));
+		else if (rangeType.contains("#")) range = "<" + NTriplesWriter.escapeIRI(rangeType) + ">";
+		else range = local(rangeType);
+		out.write(local(attributeName) + " a rdf:Property ;\n    rdfs:domain " + local(className)
+			+ " ;\n    rdfs:range " + range + " .\n\n");
+	}
+
+	public void startInstance(String id, String className) {
+		out.write(local(id));
+		out.write(IS_A);
+		out.write(local(className));
+		needSemicolon = true;
+	}
+
+	public void startInstance(IdCache.Entry id, String className) {
+		out.write(id.encoded);
+		out.write(IS_A);
+		out.write(local(className));
+		needSemicolon = true;
+	}
+
+	public void continueInstance(String id) {
+		out.write(local(id));
+		needSemicolon = false;
+	}
+
+	public void continueInstance(IdCache.Entry id) {
+		out.write(id.encoded);
+		needSemicolon = false;
+	}
+
+	public byte[] encodeId(String id) {
+		return ByteOut.encode(local(id));
+	}
+
+	public void endInstance() {
+		out.write(END_SUBJECT);
+	}
+
+	public void writeAttributeData(String attName, String attData) {
+		out.write(needSemicolon ? NEXT_PROPERTY : FIRST_PROPERTY);
+		out.write(predicate(attName));
+		out.write((byte) '"');
+		out.write(NTriplesWriter.escapeLiteral(attData));
+		out.write((byte) '"');
+		needSemicolon = true;
+	}
+
+	public void writeTypedData(String attName, byte[] value, int length, LiteralType type) {
+		out.write(needSemicolon ? NEXT_PROPERTY : FIRST_PROPERTY);
+		out.write(predicate(attName));
+		out.write((byte) '"');
+		out.write(value, 0, length);
+		out.write(DATATYPES[type.kind]);
+		needSemicolon = true;
+	}
+
+	public void writeAttributeDataResource(String attName, String attData) {
+		out.write(needSemicolon ? NEXT_PROPERTY : FIRST_PROPERTY);
+		out.write(predicate(attName));
+		out.write(local(attData));
+		needSemicolon = true;
+	}
+
+	public void writeAttributeDataResource(String attName, IdCache.Entry attData) {
+		out.write(needSemicolon ? NEXT_PROPERTY : FIRST_PROPERTY);
+		out.write(predicate(attName));
+		out.write(attData.encoded);
+		needSemicolon = true;
+	}
+
+	private byte[] predicate(String attName) {
+		byte[] p = predicates.get(attName);
+		if (p == null) {
+			p = ByteOut.encode(local(attName) + " ");	// (the same IRI writePropertyTag declared)
+			predicates.put(attName, p);
+		}
+		return p;
+	}
+
+	private String local(String name) {
+		// a class, property or instance ID (relative to base)
+		if (baseIsSample) return prefixed("sample:", SAMPLE_NS, name);
+		return "<" + base + NTriplesWriter.escapeIRI(name) + ">";
+	}
+
+	static String prefixed(String prefix, String ns, String name) {
+		if (isLocalName(name)) return prefix + name;
+		return "<" + ns + NTriplesWriter.escapeIRI(name) + ">";
+	}
+
+	static boolean isLocalName(String s) {
+		// a (simple) Turtle PN_LOCAL: letters, digits, _ and -, with dots inside but not at the end.
+		// anything fancier just gets written as a whole IRI.
+		int n = s.length();
+		if (n == 0 || s.charAt(0) == '-' || s.charAt(0) == '.' || s.charAt(n - 1) == '.') return false;
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+					|| c == '_' || c == '-' || c == '.')) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,270 @@
+/*
+	class TypedValues
+	turns the cells of typed properties (LiteralType) into the canonical form they're written in.
+
+	Numbers are checked and rewritten straight from the cell's bytes (MappedCSVReader) or
+	chars into a buffer that's kept, so an integer or a decimal doesn't make a String or
+	anything else:
+	   integer   [+-]digits                   leading zeros and + dropped, -0 is 0
+	   decimal   [+-]digits[.digits]           the same, trailing zeros of the fraction dropped,
+	             (either side may be empty)    and no point at all if it's a whole number
+	Anything else (1,234  $5  1e5  N/A) doesn't parse.
+
+	Dates go through the property's DateTimeFormatter, which is slow and makes garbage, but
+	the same few hundred dates come up over and over (a row per package, all shipped the same
+	week), so the results are remembered: a table of DEFAULT_DATES slots, each the cell's bytes
+	and what they came to (or that they didn't parse), picked by the hash of the bytes.  A
+	different date that lands on the same slot just replaces it.  A hit costs a hash and a
+	compare.
+
+	A value that doesn't parse isn't written (there's no right typed literal for it).  It's
+	counted (ConversionMetrics.Counts.invalid, by writeInstances), and sent to the Rejects file
+	if there is one, with the row it was on.  With hold() the rejects lines are kept in a list
+	instead, for SplitConverter to write when the range they're in is written.
+
+	It isn't thread safe.  Each thread gets its own with child(), like IdCache, and report()
+	adds up the date table's hits.
+*/
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+
+public class TypedValues {
+	public static final int DEFAULT_DATES = 4096;
+	private static final int MAX_KEY = 64;				// longer cells aren't worth keeping
+	private static final byte[] FAILED = new byte[0];	// (in the date table) didn't parse
+
+	private final Rejects rejects;
+	private final int dates;
+	private byte[] in = new byte[64];		// the cell
+	private int inLength;
+	private byte[] value = new byte[64];	// what it came to
+	private int length;
+
+	// the date table, made the first time there's a date
+	private LiteralType[] cacheTypes;
+	private byte[][] cacheKeys;
+	private byte[][] cacheValues;
+
+	private long row = -1, offset = -1;	// where the row being converted is, -1 if not known
+	private ArrayList<String[]> held;	// rejects lines to keep instead of writing (null = write them)
+	long dateHits, dateMisses;
+	private final ArrayList<TypedValues> children = new ArrayList<TypedValues>();
+
+	public TypedValues(Rejects rejects, int dates) {
+		this.rejects = rejects;
+		this.dates = Integer.highestOneBit(Math.max(1, dates));
+	}
+
+	public TypedValues child() {
+		// the same for another thread
+		TypedValues t = new TypedValues(rejects, dates);
+		synchronized (children) {
+			children.add(t);
+		}
+		return t;
+	}
+
+	public Rejects rejects() {
+		return rejects;
+	}
+
+	public void hold(ArrayList<String[]> lines) {
+		// keep the rejects lines in lines from now on (null = write them again)
+		held = lines;
+	}
+
+	public void at(long row, long offset) {
+		// the row the next values come from (for the rejects), -1 for what isn't known
+		this.row = row;
+		this.offset = offset;
+	}
+
+	public boolean parse(CSVRow row, int col, LiteralType type) {
+		// the cell (which has data) as type, in value()/length().  false if it isn't one
+		read(row, col);
+		if (type.kind == LiteralType.INTEGER) return integer();
+		if (type.kind == LiteralType.DECIMAL) return decimal();
+		return date(type);
+	}
+
+	public byte[] value() { return value; }
+	public int length() { return length; }
+
+	public String valueString() {
+		// (dedupe -merge needs the value as a String)
+		return new String(value, 0, length, StandardCharsets.US_ASCII);
+	}
+
+	public void reject(CSVRow row, int col, String property, LiteralType type) {
+		// a cell that didn't parse as type
+		if (rejects == null) return;
+		String[] line = rejects.valueLine(this.row, offset, property, "not " + type.spec(), row.get(col));
+		if (held != null) held.add(line);
+		else rejects.write(line);
+	}
+
+	private void read(CSVRow row, int col) {
+		// the cell's bytes into in
+		if (row instanceof MappedCSVReader.Row) {
+			MappedCSVReader.Row raw = (MappedCSVReader.Row) row;
+			if (!raw.cellEscaped(col)) {
+				int n = raw.cellLength(col);
+				if (n > in.length) in = new byte[Math.max(n, in.length * 2)];
+				raw.copyCell(col, in);
+				inLength = n;
+				return;
+			}
+		}
+		String s = row.get(col);
+		int n = s.length();
+		if (n > in.length) in = new byte[Math.max(n, in.length * 2)];
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				// (not a number, but a date could have a month name with an accent)
+				byte[] b = s.getBytes(StandardCharsets.UTF_8);
+				if (b.length > in.length) in = new byte[b.length];
+				System.arraycopy(b, 0, in, 0, b.length);
+				inLength = b.length;
+				return;
+			}
+			in[i] = (byte) c;
+		}
+		inLength = n;
+	}
+
+	private boolean integer() {
+		int n = inLength;
+		int i = 0;
+		boolean negative = false;
+		if (n > 0 && (in[0] == '+' || in[0] == '-')) {
+			negative = in[0] == '-';
+			i = 1;
+		}
+		if (i == n) return false;
+		for (int k = i; k < n; k++) if (in[k] < '0' || in[k] > '9') return false;
+		while (i < n - 1 && in[i] == '0') i++;
+		if (n - i == 1 && in[i] == '0') negative = false;
+		start(n - i + 1);
+		if (negative) value[length++] = '-';
+		copy(i, n);
+		return true;
+	}
+
+	private boolean decimal() {
+		int n = inLength;
+		int i = 0;
+		boolean negative = false;
+		if (n > 0 && (in[0] == '+' || in[0] == '-')) {
+			negative = in[0] == '-';
+			i = 1;
+		}
+		int intStart = i;
+		while (i < n && in[i] >= '0' && in[i] <= '9') i++;
+		int intEnd = i;
+		int fracStart = i, fracEnd = i;
+		if (i < n && in[i] == '.') {
+			fracStart = ++i;
+			while (i < n && in[i] >= '0' && in[i] <= '9') i++;
+			fracEnd = i;
+		}
+		if (i != n || (intEnd - intStart) + (fracEnd - fracStart) == 0) return false;
+		while (intStart < intEnd && in[intStart] == '0') intStart++;
+		while (fracEnd > fracStart && in[fracEnd - 1] == '0') fracEnd--;
+		if (intStart == intEnd && fracStart == fracEnd) negative = false;	// zero
+		start(intEnd - intStart + fracEnd - fracStart + 3);
+		if (negative) value[length++] = '-';
+		if (intStart == intEnd) value[length++] = '0';
+		else copy(intStart, intEnd);
+		if (fracStart < fracEnd) {
+			value[length++] = '.';
+			copy(fracStart, fracEnd);
+		}
+		return true;
+	}
+
+	private boolean date(LiteralType type) {
+		int n = inLength;
+		int h = 0;
+		for (int i = 0; i < n; i++) h = 31 * h + in[i];
+		if (cacheKeys == null) {
+			cacheTypes = new LiteralType[dates];
+			cacheKeys = new byte[dates][];
+			cacheValues = new byte[dates][];
+		}
+		int slot = (h ^ (h >>> 16)) & (dates - 1);
+		byte[] key = cacheKeys[slot];
+		if (key != null && key.length == n && sameFormat(cacheTypes[slot], type) && sameBytes(key, n)) {
+			dateHits++;
+			return dateValue(cacheValues[slot]);
+		}
+
+		dateMisses++;
+		byte[] result;
+		try {
+			TemporalAccessor t = type.format.parseBest(new String(in, 0, n, StandardCharsets.UTF_8), LocalDateTime::from, LocalDate::from);
+			LocalDateTime d = t instanceof LocalDate ? ((LocalDate) t).atStartOfDay() : (LocalDateTime) t;
+			result = LiteralType.XSD_DATETIME.format(d).getBytes(StandardCharsets.US_ASCII);
+		}
+		catch (DateTimeParseException e) {
+			result = FAILED;
+		}
+		if (n <= MAX_KEY) {
+			byte[] k = new byte[n];
+			System.arraycopy(in, 0, k, 0, n);
+			cacheTypes[slot] = type;
+			cacheKeys[slot] = k;
+			cacheValues[slot] = result;
+		}
+		return dateValue(result);
+	}
+
+	private static boolean sameFormat(LiteralType a, LiteralType b) {
+		return a == b || a.pattern.equals(b.pattern);
+	}
+
+	private boolean sameBytes(byte[] key, int n) {
+		for (int i = 0; i < n; i++) if (key[i] != in[i]) return false;
+		return true;
+	}
+
+	private boolean dateValue(byte[] d) {
+		if (d == FAILED) return false;
+		start(d.length);
+		System.arraycopy(d, 0, value, 0, d.length);
+		length = d.length;
+		return true;
+	}
+
+	private void start(int most) {
+		// an empty value with room for most bytes
+		if (most > value.length) value = new byte[Math.max(most, value.length * 2)];
+		length = 0;
+	}
+
+	private void copy(int from, int to) {
+		System.arraycopy(in, from, value, length, to - from);
+		length += to - from;
+	}
+
+	public String report(long p, long f) {
+		// p values written and f that didn't parse (from ConversionMetrics), null if there weren't any
+		if (p + f == 0) return null;
+		long h = dateHits, m = dateMisses;
+		synchronized (children) {
+			for (TypedValues t : children) {
+				h += t.dateHits;
+				m += t.dateMisses;
+			}
+		}
+		String s = String.format("Typed values: %d written, %d didn't parse", p, f);
+		if (f > 0) s += rejects != null ? " (in " + rejects.fileName() + ")" : " (not written, -rejects <file> to see them)";
+		if (h + m > 0) s += String.format(", dates %.1f%% from the cache", 100.0 * h / (h + m));
+		return s;
+	}
+}
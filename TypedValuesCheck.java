@@ -0,0 +1,89 @@
+/*
+	class TypedValuesCheck
+	checks what TypedValues makes of cells of each LiteralType: the canonical form of the ones
+	that parse, and that the ones that don't (including dates that don't exist) are turned
+	down, so they go to -rejects instead of being written as something else.
+
+	   java -cp csv2rdf.jar TypedValuesCheck
+
+	Each cell is parsed twice, the second time from the date table, and as a String cell and
+	as a mapped one.  It prints the ones that came out wrong and exits with 1 if there were any.
+*/
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class TypedValuesCheck {
+	static final String DATES = "dateTime(M/d/yy H:mm)";
+
+	// type, cell, what it should come to (null = it shouldn't parse)
+	static final String[][] CASES = {
+		{ "integer", "0078", "78" },
+		{ "integer", "-0", "0" },
+		{ "integer", "+12", "12" },
+		{ "integer", "1,234", null },
+		{ "integer", "1.5", null },
+		{ "decimal", "626.610", "626.61" },
+		{ "decimal", "-.50", "-0.5" },
+		{ "decimal", "12.000", "12" },
+		{ "decimal", "$5", null },
+		{ "decimal", "1e5", null },
+		{ DATES, "5/6/11 0:00", "2011-05-06T00:00:00" },
+		{ DATES, "12/31/19 23:59", "2019-12-31T23:59:00" },
+		{ DATES, "2/29/12 0:00", "2012-02-29T00:00:00" },
+		{ DATES, "2/30/11 0:00", null },	// (not moved to 2/28)
+		{ DATES, "4/31/11 0:00", null },
+		{ DATES, "2/29/11 0:00", null },
+		{ DATES, "13/1/11 0:00", null },
+		{ DATES, "5/6/11 24:00", null },
+		{ DATES, "N/A", null },
+		{ "dateTime(yyyy-MM-dd)", "2011-04-31", null },
+		{ "dateTime(yyyy-MM-dd)", "2011-04-30", "2011-04-30T00:00:00" },
+		{ "dateTime(d 'of' MMMM yyyy)", "6 of May 2011", "2011-05-06T00:00:00" },
+	};
+
+	public static void main(String[] args) throws IOException {
+		int wrong = 0;
+		TypedValues typed = new TypedValues(null, TypedValues.DEFAULT_DATES);
+		for (String[] c : CASES) {
+			LiteralType type = LiteralType.parse(c[0]);
+			for (int pass = 0; pass < 2; pass++) {
+				String got = parse(typed, new CSVRow.Strings(new String[] { c[1] }), type);
+				String mapped = parse(typed, mapped(c[1]), type);
+				for (String g : new String[] { got, mapped }) {
+					if (g == null ? c[2] == null : g.equals(c[2])) continue;
+					System.out.println(c[0] + " \"" + c[1] + "\": " + (g == null ? "didn't parse" : g) + ", should be "
+						+ (c[2] == null ? "turned down" : c[2]) + (g == mapped ? " (mapped)" : "") + (pass > 0 ? " (again)" : ""));
+					wrong++;
+				}
+			}
+		}
+		System.out.println(wrong == 0 ? "OK, " + CASES.length + " cells" : wrong + " wrong");
+		if (wrong > 0) System.exit(1);
+	}
+
+	private static String parse(TypedValues typed, CSVRow row, LiteralType type) {
+		return typed.parse(row, 0, type) ? new String(typed.value(), 0, typed.length(), StandardCharsets.US_ASCII) : null;
+	}
+
+	private static CSVRow mapped(String cell) throws IOException {
+		// the cell as MappedCSVReader gives it, from a file of a header and the one cell
+		Path f = Files.createTempFile("typed", ".csv");
+		try {
+			Files.write(f, ("value\n" + (cell.indexOf(',') >= 0 ? "\"" + cell + "\"" : cell) + "\n").getBytes(StandardCharsets.UTF_8));
+			MappedCSVReader reader = new MappedCSVReader(f.toString());
+			try {
+				reader.readNext();
+				return reader.readNext().copy();
+			}
+			finally {
+				reader.close();
+			}
+		}
+		finally {
+			Files.delete(f);
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/*
+	class WorkloadGenerator
+	makes up a big csv file to go with a config file, for trying the converter at sizes
+	shipments.csv (88 lines) can't show.
+
+	   java -cp csv2rdf.jar WorkloadGenerator -config shipments-config.csv -rows 1000000 [options] [-o file]
+
+	The columns are the csv names in the config, in the order they're first listed.  The
+	values look like what's in those columns in real feeds, going by the column's name:
+	dates, zip codes, country codes, amounts, account numbers, streets, company names...
+
+	   -rows <n>          how many rows (default 1000000)
+	   -cardinality <n>   how many different values a column has (default 1000).  Some are used
+	                      a lot more than others, like real carriers and shippers.
+	   -cardinality <column>=<n>   just for that column (can be given more than once)
+	   -ids <n>           different IDs in the first class column (default every row is new)
+	   -nulls <p>         fraction of cells that are empty or NULL (default 0.05)
+	   -quotes <p>        fraction of cells in quotes, some with commas or "" in them (default 0.02)
+	   -bad <p>           fraction of rows with the wrong number of cells (default 0)
+	   -seed <n>          the same seed makes the same file (default 1)
+	   -o <file>          where to write it, gzipped if it ends in .gz ("-" or nothing is stdout)
+
+	ThroughputHarness uses it to make the files it times.
+*/
+
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+public class WorkloadGenerator {
+
+	static final String[] WORDS = { "ACME", "GLOBAL", "PACIFIC", "NORTHERN", "SUMMIT", "HARBOR", "UNITED",
+		"PIONEER", "VALLEY", "METRO", "EAGLE", "COASTAL", "FRONTIER", "CRESCENT", "ATLAS", "LIBERTY",
+		"MERIDIAN", "GRANITE", "CEDAR", "BEACON", "REDWOOD", "ORION", "KEYSTONE", "PRAIRIE" };
+	static final String[] KINDS = { "TRADING", "LOGISTICS", "SUPPLY", "SYSTEMS", "INDUSTRIES", "MEDICAL",
+		"FOODS", "ELECTRONICS", "PARTNERS", "HOLDINGS" };
+	static final String[] PLACES = { "CITY", "SPRINGS", "FALLS", "HEIGHTS", "PARK", "BEACH" };
+	static final String[] COUNTRIES = { "US", "US", "US", "CA", "MX", "GB", "DE", "AU", "JP", "CN", "FR", "NL" };
+	static final String[] STATES = { "CA", "TX", "NY", "FL", "IL", "PA", "OH", "GA", "WA", "UT", "VA", "NJ" };
+	static final String[] SERVICES = { "GROUND", "AIR DEFERRED", "NEXT DAY AIR", "INTERNATIONAL AIR",
+		"2ND DAY AIR", "3 DAY SELECT", "FREIGHT", "EXPRESS SAVER" };
+
+	// what kind of values a column has, from its name
+	enum Kind { ID, DATE, TIME, ZIP, COUNTRY, STATE, SERVICE, AMOUNT, COUNT, CODE, STREET, CITY, TEXT }
+
+	int rows = 1000000;
+	int cardinality = 1000;
+	Map<String, Integer> cardinalities = new HashMap<String, Integer>();
+	int ids = 0;	// 0 = all different
+	double nulls = 0.05;
+	double quotes = 0.02;
+	double bad = 0;
+	long seed = 1;
+
+	private String[] columns;
+	private Kind[] kinds;
+	private int[] cards;
+
+	public static void main(String[] args) throws IOException {
+		WorkloadGenerator g = new WorkloadGenerator();
+		String configFile = null, outputFile = ConvertOptions.STDIO;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String a = args[i];
+				if (a.equals("-config")) configFile = ConvertOptions.stringArg(args, ++i, a);
+				else if (a.equals("-rows")) g.rows = ConvertOptions.intArg(args, ++i, a);
+				else if (a.equals("-cardinality")) g.cardinality(ConvertOptions.stringArg(args, ++i, a));
+				else if (a.equals("-ids")) g.ids = ConvertOptions.intArg(args, ++i, a);
+				else if (a.equals("-nulls")) g.nulls = fraction(args, ++i, a);
+				else if (a.equals("-quotes")) g.quotes = fraction(args, ++i, a);
+				else if (a.equals("-bad")) g.bad = fraction(args, ++i, a);
+				else if (a.equals("-seed")) g.seed = ConvertOptions.intArg(args, ++i, a);
+				else if (a.equals("-o")) outputFile = ConvertOptions.stringArg(args, ++i, a);
+				else throw new IllegalArgumentException("Unknown option " + a);
+			}
+			if (configFile == null) throw new IllegalArgumentException("Which config file?  (-config)");
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: java -cp csv2rdf.jar WorkloadGenerator -config <config file> [-rows n] [-cardinality n | column=n]");
+			System.err.println("       [-ids n] [-nulls p] [-quotes p] [-bad p] [-seed n] [-o file]");
+			return;
+		}
+
+		boolean toStdout = outputFile.equals(ConvertOptions.STDIO);
+		if (toStdout) System.setOut(System.err);
+		g.columns(csv2rdf.readConfigLines(configFile));
+		OutputStream os = toStdout ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(outputFile);
+		if (outputFile.endsWith(".gz")) os = new ParallelGzipOutputStream(os, Runtime.getRuntime().availableProcessors());
+		long badRows = g.write(new ByteOut(os));
+		System.out.println("Wrote " + g.rows + " rows (" + badRows + " bad) of " + g.columns.length + " columns to "
+			+ (toStdout ? "stdout" : outputFile));
+	}
+
+	void cardinality(String s) {
+		int eq = s.indexOf('=');
+		try {
+			if (eq < 0) cardinality = Integer.parseInt(s);
+			else cardinalities.put(csv2rdf.fixAttributeName(s.substring(0, eq)).toLowerCase(), Integer.parseInt(s.substring(eq + 1)));
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("-cardinality needs a number or column=number, not " + s);
+		}
+	}
+
+	private static double fraction(String[] args, int i, String option) {
+		String s = ConvertOptions.stringArg(args, i, option);
+		try {
+			double p = Double.parseDouble(s);
+			if (p >= 0 && p <= 1) return p;
+		}
+		catch (NumberFormatException e) { }
+		throw new IllegalArgumentException(option + " needs a fraction between 0 and 1, not " + s);
+	}
+
+	void columns(List<String[]> configLines) {
+		// the csv names, in order, and what goes in each
+		LinkedHashSet<String> names = new LinkedHashSet<String>();
+		String idColumn = null;
+		for (String[] line : configLines) {
+			if (line.length != 3 && line.length != 4) continue;	// (the 4th is a datatype)
+			String name = line[0].trim();
+			names.add(name);
+			if (idColumn == null && line[1].trim().toLowerCase().startsWith("class")) idColumn = name;
+		}
+		columns = names.toArray(new String[names.size()]);
+		kinds = new Kind[columns.length];
+		cards = new int[columns.length];
+		for (int c = 0; c < columns.length; c++) {
+			kinds[c] = columns[c].equals(idColumn) ? Kind.ID : kindOf(columns[c]);
+			Integer n = cardinalities.get(csv2rdf.fixAttributeName(columns[c]).toLowerCase());
+			cards[c] = Math.max(1, n != null ? n : kinds[c] == Kind.ID ? (ids > 0 ? ids : Integer.MAX_VALUE) : cardinality);
+		}
+	}
+
+	static Kind kindOf(String column) {
+		String n = column.toLowerCase();
+		if (n.contains("date")) return Kind.DATE;
+		if (n.contains("time")) return Kind.TIME;
+		if (n.contains("zip") || n.contains("postal")) return Kind.ZIP;
+		if (n.contains("country") || n.contains("origin") || n.contains("destination")) return Kind.COUNTRY;
+		if (n.contains("state")) return Kind.STATE;
+		if (n.contains("service")) return Kind.SERVICE;
+		if (n.contains("amount") || n.contains("charge") || n.contains("price") || n.contains("total")) return Kind.AMOUNT;
+		if (n.contains("number") || n.contains("num") || n.contains("code") || n.contains("account")) return Kind.CODE;
+		if (n.contains("weight") || n.contains("quantity") || n.contains("count") || n.endsWith("_id")) return Kind.COUNT;
+		if (n.contains("street") || n.contains("address")) return Kind.STREET;
+		if (n.contains("city")) return Kind.CITY;
+		return Kind.TEXT;
+	}
+
+	long write(ByteOut out) {
+		// returns how many bad rows it wrote
+		SplittableRandom random = new SplittableRandom(seed);
+		StringBuilder line = new StringBuilder(512);
+		for (int c = 0; c < columns.length; c++) {
+			if (c > 0) line.append(',');
+			line.append(columns[c]);
+		}
+		out.write(line.append('\n').toString());
+
+		long badRows = 0;
+		for (int r = 0; r < rows; r++) {
+			line.setLength(0);
+			int cells = columns.length;
+			if (bad > 0 && random.nextDouble() < bad) {
+				// a few cells short, or one too many
+				cells = random.nextBoolean() ? Math.max(1, cells - 1 - random.nextInt(3)) : cells + 1;
+				badRows++;
+			}
+			for (int c = 0; c < cells; c++) {
+				if (c > 0) line.append(',');
+				if (c >= columns.length) {
+					line.append("EXTRA");
+					continue;
+				}
+				if (kinds[c] != Kind.ID && random.nextDouble() < nulls) {
+					if (random.nextBoolean()) line.append("NULL");
+					continue;
+				}
+				long n = kinds[c] == Kind.ID ? r % cards[c] : skewed(random, cards[c]);
+				String v = value(kinds[c], n);
+				if (random.nextDouble() < quotes) quoted(line, v, kinds[c], random);
+				else line.append(v);
+			}
+			out.write(line.append('\n').toString());
+		}
+		out.close();
+		return badRows;
+	}
+
+	private static long skewed(SplittableRandom random, int n) {
+		// low numbers come up much more often (about like the top shippers in a real feed)
+		double u = random.nextDouble();
+		return (long) (n * u * u * u);
+	}
+
+	private static void quoted(StringBuilder line, String v, Kind kind, SplittableRandom random) {
+		line.append('"');
+		if (kind == Kind.TEXT && random.nextInt(4) == 0) {
+			line.append(v).append(", INC");			// a comma that isn't a separator
+		} else if (kind == Kind.TEXT && random.nextInt(8) == 0) {
+			line.append("\"\"").append(v).append("\"\"");	// quotes in the value
+		} else {
+			line.append(v);
+		}
+		line.append('"');
+	}
+
+	static String value(Kind kind, long n) {
+		// the nth value of this kind (the same n always gives the same value)
+		int i = (int) (n % Integer.MAX_VALUE);
+		switch (kind) {
+			case ID: return Long.toString(100000 + n);
+			case DATE: return (1 + i % 12) + "/" + (1 + i / 12 % 28) + "/" + (10 + i / 336 % 10) + " 0:00";
+			case TIME: return (i % 24) + ":" + String.format("%02d", i / 24 % 60);
+			case ZIP: return String.format("%05d", (i * 7919L + 10001) % 100000);
+			case COUNTRY: return COUNTRIES[i % COUNTRIES.length];
+			case STATE: return STATES[i % STATES.length];
+			case SERVICE: return SERVICES[i % SERVICES.length];
+			case AMOUNT: return (i * 37L % 5000) + "." + String.format("%02d", i * 13 % 100);
+			case COUNT: return Integer.toString(1 + i % 500);
+			case CODE: return (char) ('A' + i % 26) + String.format("%09d", (i * 104729L) % 1000000000L);
+			case STREET: return (1 + i * 31L % 9999) + " " + WORDS[i % WORDS.length] + (i % 3 == 0 ? " AVE" : " ST");
+			case CITY: return WORDS[i % WORDS.length] + " " + PLACES[i / WORDS.length % PLACES.length];
+			default: return WORDS[i % WORDS.length] + " " + KINDS[i / WORDS.length % KINDS.length] + (i >= WORDS.length * KINDS.length ? " " + i : "");
+		}
+	}
+}
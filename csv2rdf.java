@@ -20,6 +20,44 @@
 	
 	
 	changes:
+	26.10.18 a property can have a datatype (integer, decimal, dateTime(pattern)) as a 4th column
+	         in the config.  its values are written as typed literals (TypedValues), ones that
+	         don't parse are counted and, like badly formed rows, go to -rejects <file>
+	26.10.18 the config is compiled once and kept next to it (CompiledConfig), later runs map
+	         that instead of reading the config again.  -no-compiled-config to not
+	26.10.18 the config compiles its class order and inherited properties once (CSVConfig), and
+	         the header and the plan use them instead of looking each property up again
+	26.10.18 -shard class|hash|size writes the instances to several files (ShardedWriter), each
+	         on its own thread, with a manifest of them
+	26.10.18 -checkpoint <secs> saves how far a conversion got (Checkpoint) and -resume carries
+	         on from there after a crash instead of starting again
+	26.10.18 Flight Recorder events (ConversionEvents) for reading the config, mapping the header,
+	         each batch of rows, the writer's flushes and rows slower than a threshold
+	26.10.18 ConversionMetrics counts rows, instances, triples, bytes and where the time goes.
+	         it's an MXBean while it runs (-jmx), prints progress every -progress seconds and
+	         -metrics <file> gets a JSON summary at the end
+	26.10.18 -serve <port>: ConversionServer converts csv POSTed to it and streams the RDF back.
+	         the part of convertFile after the header and the output are sorted out is convert()
+	26.10.18 -batch: convert many files in one run (BatchConverter).  main's conversion is now
+	         convertFile, config files can be read once and built into a CSVConfig per file,
+	         and the blank name counting is local instead of the static blankCounter
+	26.10.18 gzipped input is read as it is, -gzip (or -o x.rdf.gz) gzips the output in parallel
+	26.10.18 pipe mode: "-" reads the csv from stdin and writes the RDF to stdout, -config <file>
+	26.10.18 fixAttributeName in one pass without regular expressions, and IdCache so the IDs
+	         that repeat are only sanitized and encoded once (-id-cache)
+	26.10.18 -format rdfb, binary output (BinaryRDFWriter)
+	26.10.18 -format (xml, nt, nq, ttl) and -o to pick the output, see RDFWriter.create
+	26.10.18 -dedupe: write each instance (class, ID) only once, -merge to add new values to it
+	26.10.18 tell the reader which columns the plan uses (project) so it can skip the others
+	26.10.18 with -threads on a mapped file, SplitConverter parses byte ranges of the file in parallel
+	         (the row loop moved to convertRows for the other cases)
+	26.10.18 read the input through CSVRowReader: memory mapped (MappedCSVReader) by default,
+	         opencsv with -opencsv.  writeInstances works on CSVRow so cells without data
+	         are never turned into Strings.
+	26.10.18 -threads option: rows are converted in batches on a pool of threads by RowPipeline,
+	         which writes the batches back out in input order
+	26.10.18 compile the config into a CSVPlan after the header is read, so the row loop
+	         doesn't look up classes and properties by name for every line (writeInstances)
 	12.09.24 be sure to use the actual rdf_name of the class, not the name in the class list
 	         when writing the data (class names are lower case in the list for lookup)
 	12.09.18 check for properties which are classes when writing out property tags and instance data
@@ -36,20 +74,30 @@
 import au.com.bytecode.opencsv.CSVReader;
 import au.com.bytecode.opencsv.CSVWriter;
 
-import java.io.FileReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 
 public class csv2rdf {
-	private static final String INPUT_FILE="input.csv";
    public static final Boolean DEBUG = false;
+   private static final Pattern TYPE_INFO = Pattern.compile("[\\(\\)]");	// type(rdf_name) in the config
 
-	static int blankCounter;	// keep track of blanks seen in config file and then in header file.
-	
 	public static String BaseFileName(String name) {
 		// takes a file name (like input.csv) and returns it without the extension
+		// (input.csv.gz too)
+		if (name.endsWith(".gz")) name = name.substring(0, name.length() - 3);
 		int p = name.lastIndexOf(".");
 		
 		if (p == -1) {
@@ -60,26 +108,50 @@ public class csv2rdf {
 	}
 	
 	public static CSVConfig readConfigFile(String configFile) throws IOException {
-		CSVConfig config = new CSVConfig();
-		
+		return buildConfig(readConfigLines(configFile));
+	}
+	
+	public static List<String[]> readConfigLines(String configFile) throws IOException {
+		// just the lines of the config file.
+		return readConfigLines(configFile, Files.readAllBytes(Paths.get(configFile)));	// if there's a config file this will read it.
+	}
+	
+	public static List<String[]> readConfigLines(String configFile, byte[] text) throws IOException {
+		// the lines of a config file that's been read already (text, in the default charset like FileReader)
+		ConversionEvents.ConfigRead event = new ConversionEvents.ConfigRead();
+		event.begin();
 		CSVReader configReader;
-		configReader = new CSVReader(new FileReader(configFile));	// if there's a config file this will open it.
+		configReader = new CSVReader(new StringReader(new String(text, Charset.defaultCharset())));
 		
 		System.out.println("Reading Configuration File: " + configFile);
+		List<String[]> lines = configReader.readAll();
+		configReader.close();
+		event.file = configFile;
+		event.lines = lines.size();
+		event.commit();
+		return lines;
+	}
+	
+	public static CSVConfig buildConfig(List<String[]> lines) {
+		ConversionEvents.ConfigBuild event = new ConversionEvents.ConfigBuild();
+		event.begin();
+		CSVConfig config = new CSVConfig();
 		
-		String [] nextLine;
-		while ((nextLine = configReader.readNext()) != null) {
+		int blanks = 0;	// blank csv names become unlabeled1, unlabeled2... (same as in the header)
+		for (String[] nextLine : lines) {
 			// process one line at a time.
-			// of the form csv_name type(rdf_name)	class_name
+			// of the form csv_name type(rdf_name)	class_name [datatype]
 			// type can be "class" or "property"
 			// class_name is the name of the rdf class to use or the superclass
+			// datatype (optional) is what a property's values are, see LiteralType
 			// if any of these fields is blank, at least the tab must be there.
 			// minimal error checking
 			
-			if (nextLine.length == 3) {
-				String csv_name = renameBlankAttribute(fixAttributeName(nextLine[0]));	// fixes this name like the header (trim, underscores for blanks, unlabeled1, etc)
+			if (nextLine.length == 3 || nextLine.length == 4) {
+				String csv_name = fixAttributeName(nextLine[0]);	// fixes this name like the header (trim, underscores for blanks, unlabeled1, etc)
+				if (csv_name.length() == 0) csv_name = blankName(++blanks);
 				
-				String [] typeInfo = nextLine[1].split("[\\(\\)]");		// split out what's inside the parenthesis
+				String [] typeInfo = TYPE_INFO.split(nextLine[1]);		// split out what's inside the parenthesis
 				
 				String itemType = typeInfo[0].trim().toLowerCase();
 				
@@ -92,11 +164,13 @@ public class csv2rdf {
 				String class_name = nextLine[2].trim();
 				if (class_name.length() > 1) class_name = fixAttributeName(class_name);   // in case there are quotes, etc
 				// OK now add this. Config object will look at the type and do the right thing.
-				config.addItem(itemType, csv_name, rdf_name, class_name);
+				LiteralType type = nextLine.length == 4 ? LiteralType.parse(nextLine[3]) : null;
+				config.addItem(itemType, csv_name, rdf_name, class_name, type);
 
 				
 			} else {
 				System.out.println("Badly formed instance, skipping");
+				config.skipped++;
 				System.out.print("   <");
 				for (int i=0;i<nextLine.length; i++) {
 					System.out.print(nextLine[i] + " ");
@@ -104,8 +178,14 @@ public class csv2rdf {
 				System.out.println(">");
 			}
 		}
-		configReader.close();	
+		config.classOrder();	// compile it now, so a class that's its own superclass is found here
 		
+		if (event.shouldCommit()) {
+			event.lines = lines.size();
+			event.classes = config.numClasses();
+			for (String cName : config.classes()) event.properties += config.getProperties(cName).size();
+			event.commit();
+		}
 		return config;
 	}
 	
@@ -114,7 +194,7 @@ public class csv2rdf {
 		try {
 
 			CSVReader reader;
-			reader = new CSVReader(new FileReader(fileName));	// if no file, will be caught by outer call
+			reader = new CSVReader(new InputStreamReader(CSVRowReader.openStream(fileName)));	// if no file, will be caught by outer call (.gz is fine)
 			
 			String [] attributes = reader.readNext(); // header line
 			reader.close();	// done with the file for our test
@@ -137,31 +217,45 @@ public class csv2rdf {
 		// used to sanitize attributes read from the csv or the config file
 		// to make them work for the rdf file.	
 		// need to remove # characters?
+		// (one pass over the chars, this is done for every ID in the file)
+		
+		int start = 0, end = att.length();
+		while (start < end && att.charAt(start) <= ' ') start++;	// same as trim()
+		while (end > start && att.charAt(end - 1) <= ' ') end--;
+		int i = start;
+		while (i < end) {
+			char c = att.charAt(i);
+			if (c == ' ' || c == '"' || c == '/') break;
+			i++;
+		}
+		if (i == end) return (start == 0 && end == att.length()) ? att : att.substring(start, end);	// nothing to change inside
 		
-		att = att.trim();
-		att = att.replaceAll(" ","_");
-		att = att.replaceAll("\"", "");	// remove any quotes, too;
-		att = att.replaceAll("/", "-");
-		return att;
+		char[] fixed = new char[end - start];
+		att.getChars(start, i, fixed, 0);
+		int n = i - start;
+		for (; i < end; i++) {
+			char c = att.charAt(i);
+			if (c == ' ') fixed[n++] = '_';
+			else if (c == '/') fixed[n++] = '-';
+			else if (c != '"') fixed[n++] = c;	// remove any quotes, too
+		}
+		return new String(fixed, 0, n);
 	}
 	
-	public static String renameBlankAttribute(String att) {
-		// uses the global blankCounter to keep track of how many blanks we've seen.
-		// and change empty strings to "unlabeled1", "unlabeled2" ...
-		// this is used only to sanitize the csv header data and the csv name in the config
-	
-		if (att.length() == 0) {
-			blankCounter++;
-			att = "unlabeled" + blankCounter;
-		} 
-		return att;
+	public static String blankName(int n) {
+		// what the nth empty name is called, "unlabeled1", "unlabeled2" ...
+		// this is used only for the csv header data and the csv name in the config
+		// (they count separately, so they come out the same)
+		return "unlabeled" + n;
 	}
 	public static void fixAttributes(String[] attributes) {
 		// replace any spaces in the attributes with underscores
 		// replace any blank attributes with "unlabeled1", "unlabeled2" -- RH 12.07.03
 		// (now that happens in fixAttributeName)
+		int blanks = 0;
 		for (int i = 0; i < attributes.length; i++) {
-			attributes[i] = renameBlankAttribute(fixAttributeName(attributes[i]));
+			attributes[i] = fixAttributeName(attributes[i]);
+			if (attributes[i].length() == 0) attributes[i] = blankName(++blanks);
 		}
 	}
 	
@@ -179,6 +273,166 @@ public class csv2rdf {
 		}
 	}
 	
+	public static void fixInputLine(String[] data, boolean[] wanted) {
+		// same, but only for the columns we're going to use
+		int n = Math.min(data.length, wanted.length);
+		for (int i = 0; i < n; i++) {
+			if (wanted[i]) data[i] = data[i].trim();
+		}
+	}
+	
+	public static void writeInstances(CSVRow data, CSVPlan plan, RDFWriter writer, InstanceDedupe dedupe, IdCache ids,
+	                                  ConversionMetrics.Counts counts, TypedValues typed) {
+		// write out all the instances for one (already trimmed) line of the csv file
+		// drive the writing of the data from the classes/properties in the plan
+		// cells only get turned into Strings once we know they have data.
+		// with dedupe, an instance that was already written is skipped (or just gets its new values)
+		// IDs come sanitized and encoded from the cache (for the writer that goes with it)
+		// counts (if not null) gets the instances and triples written
+		// typed properties are parsed by typed, a value that isn't one is left out (and counted)
+		CSVPlan.PlanClass[] classes = plan.classes;
+		for (int ci = 0; ci < classes.length; ci++) {
+			CSVPlan.PlanClass c = classes[ci];
+			if (!data.containsData(c.column)) continue;	// if there is no data for the class field, don't write this line at all for that class
+			
+			// (need to sanitize this data (underscores, etc) because it's an ID)
+			IdCache.Entry id = ids.get(data, c.column);
+			boolean first = true;
+			if (dedupe != null) {
+				first = dedupe.firstTime(ci, id.id);
+				if (!first && !dedupe.merging()) continue;
+			}
+			boolean started = first;
+			if (first) {
+				writer.startInstance(id, c.rdf_name);
+				if (counts != null) counts.instances[ci]++;
+			}
+			if (DEBUG) System.out.println("Instance of " + c.rdf_name + " " +'"' + id.id + '"');
+			int[] columns = c.propColumns;
+			for (int p = 0; p < columns.length; p++) {
+				// write a line for each property that has data
+				if (!data.containsData(columns[p])) continue;
+				IdCache.Entry resource = null;
+				LiteralType type = c.propTypes[p];
+				String value = null;
+				if (c.propIsResource[p]) {
+					resource = ids.get(data, columns[p]);	// in this case it is an ID so sanitize
+					value = resource.id;
+				} else if (type != null) {
+					if (!typed.parse(data, columns[p], type)) {
+						typed.reject(data, columns[p], c.propNames[p], type);
+						if (counts != null) counts.invalid++;
+						continue;
+					}
+				} else {
+					value = data.get(columns[p]);
+				}
+				
+				if (dedupe != null && dedupe.merging()) {
+					if (type != null) value = typed.valueString();
+					// only write values this instance doesn't have yet
+					if (!dedupe.newValue(ci, id.id, c.propNames[p], value)) continue;
+					if (!started) {
+						writer.continueInstance(id, c.rdf_name);
+						started = true;
+						dedupe.merged++;
+					}
+				}
+				
+				// write the data differently if it's also a class
+				if (resource != null)
+					writer.writeAttributeDataResource(c.propNames[p], resource);
+				else if (type != null) {
+					writer.writeTypedData(c.propNames[p], typed.value(), typed.length(), type);
+					if (counts != null) counts.typed++;
+				}
+				else
+					writer.writeAttributeData(c.propNames[p], value);
+				if (counts != null) counts.triples[ci][p]++;
+			}
+			if (started) writer.endInstance();
+		}
+	}
+	
+	public static void convertRows(CSVRowReader reader, int numAttributes, CSVPlan plan, RDFWriter writer, int threads) throws IOException {
+		convertRows(reader, numAttributes, plan, writer, threads, null, new IdCache(writer, IdCache.DEFAULT_SIZE), new ConversionMetrics("", plan));
+	}
+	
+	public static void convertRows(CSVRowReader reader, int numAttributes, CSVPlan plan, RDFWriter writer, int threads,
+	                               InstanceDedupe dedupe, IdCache ids, ConversionMetrics metrics) throws IOException {
+		convertRows(reader, numAttributes, plan, writer, threads, dedupe, ids, metrics, null, new TypedValues(null, TypedValues.DEFAULT_DATES));
+	}
+	
+	public static void convertRows(CSVRowReader reader, int numAttributes, CSVPlan plan, RDFWriter writer, int threads,
+	                               InstanceDedupe dedupe, IdCache ids, ConversionMetrics metrics, Checkpoint checkpoint,
+	                               TypedValues typed) throws IOException {
+		// write the instances for the rest of the lines from reader
+		// (dedupe has to see the lines in order, so it always runs on this thread)
+		// rows with the wrong number of cells go to typed's rejects too, if there are any
+		RowPipeline pipeline = null;
+		if (threads > 1 && dedupe == null) {
+			System.out.println("Converting on " + threads + " threads");
+			pipeline = new RowPipeline(plan, writer, threads, ids, metrics, typed);
+		}
+		Rejects rejects = typed.rejects();
+		ConversionMetrics.Counts counts = metrics.counts();
+		ConversionEvents.ConvertBatch batch = pipeline != null ? null	// (the pipeline has its own)
+			: new ConversionEvents.ConvertBatch(counts.rows, counts.rejected, reader.position(), writer.out.written());
+		CSVRow nextLine;
+		long lineStart = reader.position();
+		long t0 = System.nanoTime();
+		while ((nextLine = reader.readNext()) != null) {
+			// process one line at a time.
+			// assuming well formed input - length of each line is exactly the same as length of header.
+			// add some error checking
+			counts.parseNanos += System.nanoTime() - t0;
+			counts.rows++;
+			
+			if (nextLine.length() == numAttributes) {
+				if (pipeline != null) {
+					pipeline.add(nextLine.copy(), counts.rows);	// written by the pipeline, in order
+				} else {
+					counts.convert(nextLine, plan, writer, dedupe, ids, typed, counts.rows, lineStart);	// writeInstances (cells are already trimmed by the reader)
+					// done with this line of the file.
+					if (DEBUG) System.out.println("---");
+				}
+			} else {
+				counts.rejected++;
+				printBadlyFormed(nextLine);
+				if (rejects != null) rejects.row(counts.rows, lineStart, nextLine, numAttributes);
+			}
+			lineStart = reader.position();
+			if (batch != null && counts.rows % ConversionEvents.BATCH == 0) {
+				batch.finish(counts.rows, counts.rejected, lineStart, writer.out.written());
+				batch = new ConversionEvents.ConvertBatch(counts.rows, counts.rejected, lineStart, writer.out.written());
+				if (checkpoint != null) checkpoint.reached(lineStart, counts.rows, writer.out, dedupe);
+			}
+			t0 = System.nanoTime();
+		}
+		if (batch != null) batch.finish(counts.rows, counts.rejected, reader.position(), writer.out.written());
+		if (pipeline != null) pipeline.finish();
+	}
+	
+	public static void printBadlyFormed(CSVRow row) {
+		// line doesn't have the same number of items as the header
+		System.out.println("Badly formed instance, skipping");
+		System.out.print("   <");
+		for (String cell : row.toArray()) {
+			System.out.print(cell + " ");
+		}
+		System.out.println(">");
+	}
+	
+	public static void writeMetrics(String metricsFile, String json) {
+		// (a conversion that worked isn't a failure because its metrics couldn't be written)
+		try {
+			Files.write(Paths.get(metricsFile), (json + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		catch (IOException e) {
+			System.err.println("Could not write metrics to " + metricsFile + ": " + e);
+		}
+	}
+	
 	public static String configFileName(String fileName) {
 	
 		return BaseFileName(fileName) + "-config.csv";
@@ -189,24 +443,54 @@ public class csv2rdf {
 	public static void main(String[] args) throws IOException {
 		
 		
-		String fileName, outputFile;
+		String fileName;
+		ConvertOptions options;
 		
-		if (args.length > 0) {
-			fileName = args[0];
-		} else {
-			fileName = INPUT_FILE;	// default if none is specified.
+		try {
+			options = ConvertOptions.parse(args);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			ConvertOptions.printUsage();
+			return;
+		}
+		if (options.batch != null) {
+			// lots of files at once
+			BatchConverter.run(options);
+			return;
+		}
+		if (options.serve >= 0) {
+			// stay up and convert what's sent to us
+			ConversionServer.run(args, options);
+			return;
+		}
+		fileName = options.fileName;	// defaults to input.csv if none is specified.
+		
+		// in pipe mode stdout is for the RDF, everything we print goes to stderr instead
+		OutputStream stdout = null;
+		if (options.toStdout()) {
+			stdout = new FileOutputStream(FileDescriptor.out);
+			System.setOut(System.err);
 		}
 		
 		
-		String baseFileName = BaseFileName(fileName);
 		CSVConfig config;	
 		
-		blankCounter = 0;	// before we read the file, reset the blank counter
 		// is there a configuration file?
 	  	try {  
-			config = readConfigFile(configFileName(fileName));
+			config = CompiledConfig.load(options.configFile != null ? options.configFile : configFileName(fileName), options.compiledConfig);
 		}		
+		catch (IllegalArgumentException e) {
+			// the config doesn't make sense (a class that's its own superclass)
+			System.err.println(e.getMessage());
+			return;
+		}
 	   catch (IOException ioe) {
+			if (options.configFile != null || fileName.equals(ConvertOptions.STDIO)) {
+				// asked for this one, don't make one up instead
+				System.err.println("Could not read config file:" + options.configFile);
+				return;
+			}
 			// no configuration file, just ask a few questions and do simple configuration from that.
 			// use info from the header of the main file.
 			System.out.println("No configuration file, will construct one from " + fileName);
@@ -242,116 +526,221 @@ public class csv2rdf {
 		   
 		   		 		   	
 	
+	
 		// Now read in the input file and process it using the information we stored from the configuration step.
 	  	try {  // handle error where file doesn't exist.
-			CSVReader reader;
-			reader = new CSVReader(new FileReader(fileName));
-			System.out.println("Reading CSV from " + fileName);
-			
-		   blankCounter = 0;	// before we read the file, reset the blank counter
-			String [] attributes = reader.readNext(); // header line
-			
-			if (attributes != null) {
-				int numAttributes = attributes.length;
-				
-				fixAttributes(attributes);	 //  consistent with the config file... 
-				
-				// go through header line and put the column numbers into the config file.
-				for (int i = 0; i < numAttributes; i++) {
-					// is is the column
-					config.setItemColumn(attributes[i], i);
-				}
-				
-
-				outputFile = baseFileName + ".rdf";
-				System.out.println("Writing RDF to " + outputFile);
-				RDFWriter writer = new RDFWriter(outputFile);		
-				writer.startRDF();	// this writes header and beginning part of the file.
-				// write out the classes and property descriptions
-				for (String cName : config.classes()) {
-					// write the class description
-					CSVConfig.HeaderClass c = config.getClass(cName);	// definitely there.
-					String superClassName = config.superClassOf(c);   // make sure we get the right name RH 12.09.24
-					String className = c.rdf_name();   // make sure we get the right capitalization
-					writer.writeClassInfo(className, superClassName);
-					// write the property descriptions
-					for (String propName : config.getProperties(cName)) {
-						String propClass = config.propertyIsClass(config.getProperty(className, propName));
-						writer.writePropertyTag(propName, className, propClass);
-					}
-				}
-				
-				// now write the individual instances
-				String [] nextLine;
-				while ((nextLine = reader.readNext()) != null) {
-					// process one line at a time.
-					// assuming well formed input - length of each line is exactly the same as length of header.
-					// add some error checking
-					
-					if (nextLine.length == numAttributes) {
-						fixInputLine(nextLine);	// trims each string
-						// drive the writing of the data from the classes/properties in config
-						for (String cName : config.classes()) {
-							CSVConfig.HeaderItem item = config.getClass(cName);
-							int col = item.column();
-							if ((col != -1) && containsData(nextLine[col]))	{
-								// if there is no data for the class field, don't write this line at all for that class
-								// (or this could be unlabeledx...?
-								
-								 // (need to sanitize this data (underscores, etc) because it's an ID)
-								writer.startInstance(fixAttributeName(nextLine[col]), item.rdf_name());
-								if (DEBUG) System.out.println("Instance of " + item.rdf_name() + " " +'"' + nextLine[col] + '"');
-								for (String propName : config.getProperties(cName)) {
-									// write a line for each property that has data
-								 	CSVConfig.HeaderItem propItem = config.getProperty(cName, propName);
-								 	if (propItem != null) {
-								 		int propCol = propItem.column();
-								 		if ((propCol != -1) && containsData(nextLine[propCol])) {
-								 			// we have a column for this property, and that column has data in this instance
+			ConversionMetrics metrics = convertFile(options, fileName, config, stdout);
+			if (metrics != null && options.metricsFile != null) writeMetrics(options.metricsFile, metrics.toJson());
+      }
+	  catch (IOException ioe) {
+			System.err.println("Could not open file:" + fileName);
+	  }
 
-								 			String propClass = config.propertyIsClass(propItem);
-								 			
-								 			// write the data differently if it's also a class
-								 			if (propClass.length() == 0)
-								 			   writer.writeAttributeData(propName, nextLine[propCol]);
-								 			else 
-								 			   writer.writeAttributeDataResource(propName, fixAttributeName(nextLine[propCol]));  // in this case it is an ID so sanitize
-									    	if (DEBUG) System.out.println("	 " + propName  + " " 
-									    	         + '"' + nextLine[propCol] + '"' + " (" + propClass + ")");
-								 		}
-								 	}
-								}
-								writer.endInstance();
-							}	
-						}
-						// done with this line of the file.
-						if (DEBUG) System.out.println("---");
+		
 
+	}
+	
+	public static ConversionMetrics convertFile(ConvertOptions options, String fileName, CSVConfig config, OutputStream stdout) throws IOException {
+		// convert one csv file with its config (which gets the columns of this file's header set in it).
+		// the RDF goes to stdout if that's not null, otherwise to the -o file or <base>.<ext>
+		// returns what it did, with the output file name (null if the input was empty)
+		if (options.append && stdout == null) return IncrementalConverter.convert(options, fileName, config);
+		CSVRowReader reader;
+		reader = CSVRowReader.open(fileName, options.useOpenCSV);	// memory mapped unless -opencsv
+		System.out.println("Reading CSV from " + (fileName.equals(ConvertOptions.STDIO) ? "stdin" : fileName));
 		
-					} else {
-						System.out.println("Badly formed instance, skipping");
-						System.out.print("   <");
-						for (int i=0;i<nextLine.length; i++) {
-							System.out.print(nextLine[i] + " ");
-						}
-						System.out.println(">");
-					}
-				}
-				writer.endRDF();	// anything that goes at the end of the RDF (and closes the file)
+		CSVRow header = reader.readNext(); // header line
+		if (header == null) {
+			System.out.println("Empty input file:" + fileName);
+			reader.close();
+			return null;
+		}
+		
+		String format = outputFormat(options);
+		String outputFile = stdout != null && options.outputFile == null ? ConvertOptions.STDIO : outputFile(options, fileName, format);
+		if (options.shard != null) {
+			// several files, each with its own stream (and gzip), instead of one
+			System.out.println("Writing RDF to shards of " + outputFile + " (by " + options.shard + ")");
+			ArrayList<String> classNames = new ArrayList<String>();
+			for (String cName : config.classes()) classNames.add(config.getClass(cName).rdf_name());
+			ShardedWriter sharded = new ShardedWriter(options, format, outputFile, classNames);
+			ConversionMetrics metrics = convert(options, fileName, reader, header.toArray(), config, sharded);
+			metrics.output = sharded.manifestFile();
+			metrics.format = format;
+			return metrics;
+		}
+		System.out.println("Writing RDF to " + (stdout != null ? "stdout" : outputFile));
+		String[] attributes = header.toArray();	// (before the reader moves on, the row is reused)
+		Checkpoint checkpoint = null;
+		if (options.checkpoint > 0 && stdout == null) {
+			// (the reader has to be able to start in the middle)
+			if (reader instanceof MappedCSVReader)
+				checkpoint = Checkpoint.open(options, fileName, outputFile, IncrementalConverter.hash(attributes, config, options, format));
+			else
+				System.out.println("Can't checkpoint " + fileName + " (only an uncompressed file), converting without");
+		}
+		OutputStream os = checkpoint != null ? checkpoint.openOutput() : stdout != null ? stdout : new FileOutputStream(outputFile);
+		if (options.gzip || outputFile.endsWith(".gz")) os = new ParallelGzipOutputStream(os, options.gzipThreads);
+		boolean resuming = checkpoint != null && checkpoint.resuming();
+		if (resuming) ((MappedCSVReader) reader).seek(checkpoint.offset);
+		RDFWriter writer = RDFWriter.create(format, os, options.base, options.graph);		
+		ConversionMetrics metrics = convert(options, fileName, reader, attributes, config, writer, !resuming, checkpoint,
+			resuming ? checkpoint.rows : 0);
+		metrics.output = outputFile;
+		metrics.format = format;
+		return metrics;
+	}
 	
-				reader.close(); 
+	public static String outputFormat(ConvertOptions options) {
+		// -format, or from the -o extension, otherwise RDF/XML
+		if (options.format != null) return options.format;
+		if (options.outputFile != null) return RDFWriter.formatOf(options.outputFile);
+		return "xml";
+	}
 	
-			} else {
-				System.out.println("Empty input file:" + fileName);
+	public static String outputFile(ConvertOptions options, String fileName, String format) {
+		// -o, otherwise <base>.<ext> next to the input
+		if (options.outputFile != null) return options.outputFile;
+		return BaseFileName(fileName) + "." + RDFWriter.extensionOf(format) + (options.gzip ? ".gz" : "");
+	}
+	
+	public static ConversionMetrics convert(ConvertOptions options, String fileName, CSVRowReader reader, String[] attributes,
+	                                        CSVConfig config, RDFWriter writer) throws IOException {
+		return convert(options, fileName, reader, attributes, config, writer, true);
+	}
+	
+	public static ConversionMetrics convert(ConvertOptions options, String fileName, CSVRowReader reader, String[] attributes,
+	                                        CSVConfig config, RDFWriter writer, boolean startRDF) throws IOException {
+		return convert(options, fileName, reader, attributes, config, writer, startRDF, null, 0);
+	}
+	
+	public static ConversionMetrics convert(ConvertOptions options, String fileName, CSVRowReader reader, String[] attributes,
+	                                        CSVConfig config, RDFWriter writer, boolean startRDF, Checkpoint checkpoint,
+	                                        long rowsBefore) throws IOException {
+		// the rest of the conversion, once we have the header line and somewhere to write to
+		// (fileName is for the metrics and to split up a mapped file, see SplitConverter).  closes reader and writer,
+		// if it fails too: then the writer is aborted, so its file is closed and the gzip threads stop
+		// (the server and -batch carry on after a conversion fails, they'd pile up)
+		boolean finished = false;
+		try {
+			ConversionMetrics metrics = convertAll(options, fileName, reader, attributes, config, writer, startRDF, checkpoint, rowsBefore);
+			finished = true;
+			return metrics;
+		}
+		finally {
+			if (!finished) {
+				if (checkpoint != null) {
+					// (a save that's under way finishes first, it's what -resume carries on from)
+					try {
+						checkpoint.stop();
+					}
+					catch (IOException e) { }
+				}
+				writer.abort();
 			}
-      }
-	  catch (IOException ioe) {
-			System.err.println("Could not open file:" + fileName);
-	  }
-
+		}
+	}
+	
+	private static ConversionMetrics convertAll(ConvertOptions options, String fileName, CSVRowReader reader, String[] attributes,
+	                                            CSVConfig config, RDFWriter writer, boolean startRDF, Checkpoint checkpoint,
+	                                            long rowsBefore) throws IOException {
+		// without startRDF the writer is adding to RDF that was started before (IncrementalConverter, -resume),
+		// so the top of the file and the class and property descriptions aren't written again.
+		// with a checkpoint, the reader is where the rows to convert start
+		// rowsBefore is how many rows those earlier runs converted (for the row numbers in -rejects)
+		int numAttributes = attributes.length;
+		
+		ConversionEvents.HeaderMapping mapping = new ConversionEvents.HeaderMapping();
+		mapping.begin();
+		fixAttributes(attributes);	 //  consistent with the config file... 
+		
+		// go through header line and put the column numbers into the config file.
+		for (int i = 0; i < numAttributes; i++) {
+			// is is the column
+			if (config.setItemColumn(attributes[i], i)) mapping.mapped++;
+		}
+		mapping.columns = numAttributes;
+		mapping.commit();
 		
 
+		if (startRDF) {
+			writer.startRDF();	// this writes header and beginning part of the file.
+			// write out the classes and property descriptions
+			for (String cName : config.classes()) {
+				// write the class description
+				CSVConfig.HeaderClass c = config.getClass(cName);	// definitely there.
+				String superClassName = config.superClassOf(c);   // make sure we get the right name RH 12.09.24
+				String className = c.rdf_name();   // make sure we get the right capitalization
+				writer.writeClassInfo(className, superClassName);
+				// write the property descriptions
+				List<String> propNames = config.getProperties(cName);
+				CSVConfig.HeaderProperty[] props = config.getPropertyItems(cName);	// what getProperty would give for each
+				for (int i = 0; i < props.length; i++) {
+					String propClass = config.propertyIsClass(props[i]);
+					if (propClass.length() == 0 && props[i].type() != null) propClass = props[i].type().iri;	// (a full IRI, the writers leave it alone)
+					writer.writePropertyTag(propNames.get(i), className, propClass);
+				}
+			}
+		}
+		
+		// now write the individual instances
+		// resolve the config once so the per-row work is just walking arrays
+		CSVPlan plan = new CSVPlan(config);
+		boolean[] columnsUsed = plan.columnsUsed(numAttributes);
+		reader.project(columnsUsed);	// the reader can skip columns the config doesn't use
+		IdCache ids = new IdCache(writer, options.idCacheSize);
+		ConversionMetrics metrics = new ConversionMetrics(fileName.equals(ConvertOptions.STDIO) ? "stdin" : fileName, plan);
+		metrics.track(reader::position, reader.size(), writer.out);
+		metrics.start(options.progress, options.jmx);
+		// (from here on a failure still has to stop the progress thread, take the MBean away
+		// and close what's open, the server keeps running after a bad request)
+		Rejects rejects = null;
+		InstanceDedupe dedupe = null;
+		try {
+			int threads = options.threads;
+			if (threads > 1 && writer instanceof ShardedWriter)
+				throw new IllegalArgumentException("-shard converts on one thread, not " + threads);	// (ConvertOptions doesn't allow it)
+			if (options.rejectsFile != null)
+				rejects = new Rejects(options.rejectsFile, !startRDF, rowsBefore, reader.exactPosition());	// (added to when carrying on)
+			TypedValues typed = new TypedValues(rejects, TypedValues.DEFAULT_DATES);
+			if (options.dedupe) {
+				dedupe = new InstanceDedupe(options.dedupeMemory, options.merge);
+				if (threads > 1) System.out.println("(-dedupe converts on one thread)");
+				if (checkpoint != null) checkpoint.journal(dedupe);
+			}
+			if (threads > 1 && dedupe == null && reader instanceof MappedCSVReader) {
+				// split the file up and parse the pieces in parallel too
+				System.out.println("Converting on " + threads + " threads (split input)");
+				long dataStart = ((MappedCSVReader) reader).position();
+				reader.close();
+				SplitConverter splitter = new SplitConverter(fileName, numAttributes, plan, writer, threads, ids, metrics, typed);
+				metrics.track(splitter::position, splitter.size(), writer.out);
+				splitter.project(columnsUsed);
+				splitter.checkpoint(checkpoint);
+				splitter.convert(dataStart);
+			} else {
+				convertRows(reader, numAttributes, plan, writer, threads, dedupe, ids, metrics, checkpoint, typed);
+				reader.close(); 
+			}
+			if (checkpoint != null) checkpoint.stop();
+			writer.endRDF();	// anything that goes at the end of the RDF (and closes the file)
+			if (checkpoint != null) checkpoint.remove();
+			metrics.finish();
+			System.out.println(metrics.summary());
+			System.out.println(ids.report());
+			String typedReport = typed.report(metrics.getTypedValues(), metrics.getInvalidValues());
+			if (typedReport != null) System.out.println(typedReport);
+			if (dedupe != null) System.out.println(dedupe.report());
+			return metrics;
+		}
+		finally {
+			metrics.finish();
+			reader.close();
+			if (rejects != null) rejects.close();
+			if (dedupe != null) dedupe.close();
+		}
 	}
 	
+	
 
 }
\ No newline at end of file